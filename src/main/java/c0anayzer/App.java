@@ -3,14 +3,21 @@ package c0anayzer;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
 import java.util.Scanner;
 
 import c0anayzer.analyser.Analyser;
 import c0anayzer.error.CompileError;
+import c0anayzer.midcode.FnInstruct;
 import c0anayzer.midcode.MidCode;
 import c0anayzer.midcode.WriteFile;
+import c0anayzer.optimizer.LoopUnrolling;
+import c0anayzer.optimizer.PassManager;
+import c0anayzer.optimizer.Profile;
+import c0anayzer.optimizer.SideEffectAnalysis;
+import c0anayzer.optimizer.StackDepthAnalysis;
 import c0anayzer.tokenizer.StringIter;
 import c0anayzer.tokenizer.Tokenizer;
 
@@ -63,18 +70,43 @@ public class App {
             }
         }
 
+        Profile profile = null;
+        if (result.getString("profile") != null) {
+            try {
+                profile = Profile.read(result.getString("profile"));
+            } catch (IOException e) {
+                System.err.println("Cannot read profile file.");
+                e.printStackTrace();
+                System.exit(2);
+                return;
+            }
+        }
+
         Scanner scanner;
         scanner = new Scanner(input);
         var iter = new StringIter(scanner);
         var tokenizer = tokenize(iter);
 
         // analyze
-        var analyzer = new Analyser(tokenizer);
+        var analyzer = new Analyser(tokenizer, result.getBoolean("lazy"), result.getBoolean("strict"));
 
 
         MidCode m = analyzer.analyse();
+        PassManager passes = PassManager.standard(result.getInt("unroll"), profile);
+        passes.run(m, result.getInt("level"));
+        // 每次编译都检查栈高度，不一致时抛出内部错误；只在 --stack-depth 时输出到文件
+        int depth = StackDepthAnalysis.analyse(m);
+        if(result.getBoolean("stats")){
+            passes.printStats(System.err);
+            System.err.println("max stack depth: " + depth);
+            // 每个函数的副作用分类
+            SideEffectAnalysis effects = SideEffectAnalysis.analyse(m);
+            for(FnInstruct f : m.fnList){
+                System.err.println("side effects: " + f.getFnName() + " " + effects.label(f));
+            }
+        }
         //output.println(MidCode.getMidCode().toString());
-        WriteFile.writeO0File(m, outputFileName);
+        WriteFile.writeO0File(m, outputFileName, result.getBoolean("stackDepth"));
 
         /*
         try {
@@ -95,6 +127,22 @@ public class App {
         //parser.addArgument("-l", "--analyse").help("Analyze the input").action(Arguments.storeTrue());
         parser.addArgument("-o", "--output").help("Set the output file").required(true).dest("asm")
                 .action(Arguments.store());
+        parser.addArgument("-O").help("Set the optimization level").dest("level").type(Integer.class)
+                .choices(PassManager.O0, PassManager.O1, PassManager.O2).setDefault(PassManager.O2)
+                .action(Arguments.store());
+        parser.addArgument("--stats").help("Print optimization statistics, time and instruction count change per pass, and each function's side effects")
+                .dest("stats")
+                .action(Arguments.storeTrue());
+        parser.addArgument("--stack-depth").help("Append each function's max operand stack depth to the output")
+                .dest("stackDepth").action(Arguments.storeTrue());
+        parser.addArgument("--unroll").help("Set the partial loop unrolling factor").dest("unroll").type(Integer.class)
+                .setDefault(LoopUnrolling.DEFAULT_FACTOR).action(Arguments.store());
+        parser.addArgument("--profile").help("Use a VM execution profile for inlining, branch layout and function order")
+                .dest("profile").action(Arguments.store());
+        parser.addArgument("--lazy").help("Only analyse functions reachable from main, other bodies are just brace-matched")
+                .dest("lazy").action(Arguments.storeTrue());
+        parser.addArgument("--strict").help("With --lazy, still check the syntax of the skipped functions")
+                .dest("strict").action(Arguments.storeTrue());
         parser.addArgument("file").required(true).dest("input").action(Arguments.store()).help("Input file");
         return parser;
     }
@@ -10,6 +10,7 @@ import c0anayzer.instruction.Operation;
 import c0anayzer.midcode.FnInstruct;
 import c0anayzer.midcode.GlobalVar;
 import c0anayzer.midcode.MidCode;
+import c0anayzer.optimizer.ConstantFolding;
 import c0anayzer.tokenizer.Token;
 import c0anayzer.tokenizer.TokenType;
 import c0anayzer.tokenizer.Tokenizer;
@@ -102,11 +103,40 @@ public final class Analyser {
     /** 下一个变量的栈偏移 */
     int nextOffset = 0;
 
+    /** 值在编译期已知、不再需要存储的全局常量编号 */
+    ArrayList<Integer> foldedGlobals = new ArrayList<>();
+
+    /** 快速模式：只分析从 main 可达的函数 */
+    boolean lazy = false;
+    /** 快速模式下仍然检查跳过的函数的语法 */
+    boolean strict = false;
+    /** 快速模式下预先读出的全部 token，为 null 时直接从词法分析器读取 */
+    ArrayList<Token> tokens = null;
+    /** 下一个 token 在 tokens 中的位置 */
+    int tokenPos = 0;
+    /** fn 的位置 -> 跳过的函数 */
+    HashMap<Integer, FunctionSkimmer.Span> skippedFunctions = new HashMap<>();
+
     public Analyser(Tokenizer tokenizer) {
         this.tokenizer = tokenizer;
     }
 
+    /**
+     * @param tokenizer 词法分析器
+     * @param lazy 快速模式，从 main 不可达的函数只做括号配对，不分析也不生成代码
+     * @param strict 快速模式下检查跳过的函数的语法
+     */
+    public Analyser(Tokenizer tokenizer, boolean lazy, boolean strict) {
+        this.tokenizer = tokenizer;
+        this.lazy = lazy;
+        this.strict = strict;
+    }
+
     public MidCode analyse() throws CompileError {
+        if(lazy){
+            tokens = FunctionSkimmer.readAll(tokenizer);
+            skippedFunctions = FunctionSkimmer.unreachable(tokens);
+        }
         analyseProgram();
         return midCode;
     }
@@ -118,6 +148,9 @@ public final class Analyser {
      * @throws TokenizeError
      */
     private Token peek() throws TokenizeError {
+        if (tokens != null) {
+            return tokens.get(tokenPos);
+        }
         if (peekedToken == null) {
             peekedToken = tokenizer.nextToken();
         }
@@ -131,6 +164,13 @@ public final class Analyser {
      * @throws TokenizeError
      */
     private Token next() throws TokenizeError {
+        if (tokens != null) {
+            var token = tokens.get(tokenPos);
+            if (tokenPos < tokens.size() - 1) {
+                tokenPos++;
+            }
+            return token;
+        }
         if (peekedToken != null) {
             var token = peekedToken;
             peekedToken = null;
@@ -305,7 +345,9 @@ public final class Analyser {
     private void analyseProgram() throws CompileError {
         FnInstruct startFn = new FnInstruct("_start");
         //MidCode.getMidCode().addFunction(startFn);
+        midCode.setPendingStart(startFn);
         analyseBody(startFn);
+        midCode.setPendingStart(null);
         MidCode.getMidCode().addFunction(startFn);
         FnInstruct m = midCode.getFn("main", peek().getStartPos());
         startFn.addInstruction(new Instruction(Operation.stackalloc, m.getReturnSlots(), 4));
@@ -314,12 +356,16 @@ public final class Analyser {
         midCode.addGlobalSymbol("_start", peek().getStartPos());
         // 'end'
         expect(TokenType.EOF);
+        for(int i=foldedGlobals.size()-1; i>=0; i--){
+            midCode.removeGlobalVar(foldedGlobals.get(i));
+        }
     }
 
     private void analyseBody(FnInstruct f) throws CompileError {
         while(!check(TokenType.EOF)){
             if(check(TokenType.FN)){
-                analyseFunction();
+                if(!skipFunction())
+                    analyseFunction();
             }
             else{
                 // 全局变量
@@ -333,6 +379,21 @@ public final class Analyser {
         }
     }
 
+    /**
+     * 快速模式下跳过从 main 不可达的函数，不加入函数表和全局符号表
+     * @return 是否跳过了
+     * @throws CompileError 严格模式下跳过的函数有语法错误
+     */
+    private boolean skipFunction() throws CompileError {
+        FunctionSkimmer.Span span = tokens == null ? null : skippedFunctions.get(tokenPos);
+        if(span == null)
+            return false;
+        if(strict)
+            FunctionSkimmer.checkSyntax(tokens, span);
+        tokenPos = span.end;
+        return true;
+    }
+
     // 'let' IDENT ':' ty ('=' expr)? ';'
     private void analyseVariableDeclaration(FnInstruct f, int rank) throws CompileError {
         expect(TokenType.LET);
@@ -362,6 +423,7 @@ public final class Analyser {
         if(check(TokenType.ASSIGN)){
             expect(TokenType.ASSIGN);
 
+            int start = f.getInstructionsLength();
             if(rank==0){
                 o = MidCode.getMidCode().getNextGlobalVarOffset();
                 f.addInstruction(new Instruction(Operation.globa, o-1, 4));
@@ -378,7 +440,16 @@ public final class Analyser {
                 addOperatorInstruction(f, op, type);
             }
 
-            f.addInstruction(new Instruction(Operation.store_64));
+            // 全局变量的初始值是常量表达式时直接写进 o0 文件，_start 中不再赋值。
+            // 之前的初始化语句只能调用在这个变量之前声明的函数，读不到它，所以提前赋值不影响结果
+            Long value = rank == 0 ? ConstantFolding.evaluate(f.getFnBody().subList(start + 1, f.getInstructionsLength())) : null;
+            if(value != null){
+                midCode.gdList.get(o - 1).setValue(value);
+                f.getFnBody().subList(start, f.getInstructionsLength()).clear();
+            }
+            else {
+                f.addInstruction(new Instruction(Operation.store_64));
+            }
 
             if(!type.equals(ty.getValueString())){
                 throw new AnalyzeError(ErrorCode.TypeMismatch, peek().getStartPos());
@@ -412,6 +483,7 @@ public final class Analyser {
         addSymbol(ident.getValueString(), ty.getValueString(), true, true, peek().getStartPos(), rank, o);
 
         expect(TokenType.ASSIGN);
+        int start = f.getInstructionsLength();
         if(rank==0){
             o = MidCode.getMidCode().getNextGlobalVarOffset();
             f.addInstruction(new Instruction(Operation.globa, o-1, 4));
@@ -428,7 +500,19 @@ public final class Analyser {
             addOperatorInstruction(f, op, type);
         }
 
-        f.addInstruction(new Instruction(Operation.store_64));
+        // 初始值是常量表达式时，使用处直接 push 这个值，不再分配存储
+        Long value = ConstantFolding.evaluate(f.getFnBody().subList(start + 1, f.getInstructionsLength()));
+        if(value != null){
+            getSymbol(ident.getValueString(), rank).setConstValue(value);
+            f.getFnBody().subList(start, f.getInstructionsLength()).clear();
+            if(rank == 0)
+                foldedGlobals.add(o - 1);
+            else
+                f.setLocSlots(f.getLocSlots() - 1);
+        }
+        else {
+            f.addInstruction(new Instruction(Operation.store_64));
+        }
 
         if(!type.equals(ty.getValueString())){
             throw new AnalyzeError(ErrorCode.TypeMismatch, peek().getStartPos());
@@ -448,12 +532,10 @@ public final class Analyser {
             String op = opList.popList();
             addOperatorInstruction(f, op, ty);
         }
-        f.addInstruction(new Instruction(Operation.br_true, 1, 4));
 
 
         int len3 = -1;
-        int len1 = f.getInstructionsLength();
-        f.addInstruction(new Instruction(Operation.br,0, 4));
+        int len1 = addConditionBranch(f);
 
         analyseBlockStatement(f, rank+1, breakList, continueList);
 
@@ -476,7 +558,27 @@ public final class Analyser {
 
         f.setBrInstructionValue(len2, lenE-len2-1);
     }
+    /**
+     * 条件表达式之后加入条件不成立时的跳转，跳转距离之后再设置。
+     * 条件以 not 结尾（==、<=、>=）时去掉 not，改为条件成立时跳转
+     * @param f 函数
+     * @return 跳转指令的位置
+     */
+    private int addConditionBranch(FnInstruct f){
+        Operation op = Operation.br_false;
+        if(f.getInstructionsLength() > 0 &&
+                f.getFnBody().get(f.getInstructionsLength() - 1).getOpt().equals(Operation.not)){
+            f.removeLastInstruction();
+            op = Operation.br_true;
+        }
+        int len = f.getInstructionsLength();
+        f.addInstruction(new Instruction(op, 0, 4));
+        return len;
+    }
+
     // while_stmt
+    // 循环旋转：条件在循环前判断一次，循环体之后再复制一份条件，
+    // 成立时跳回循环体开头，每次迭代只执行一条跳转
     private void analyseWhileStatement(FnInstruct f, int rank) throws CompileError {
         expect(TokenType.WHILE);
         OperationList opList = new OperationList();
@@ -488,24 +590,28 @@ public final class Analyser {
             String op = opList.popList();
             addOperatorInstruction(f, op, ty);
         }
-        f.addInstruction(new Instruction(Operation.br_true, 1, 4));
 
-        int len1 = f.getInstructionsLength();
-        f.addInstruction(new Instruction(Operation.br, 0 ,4));
+        int len1 = addConditionBranch(f);
         // 记录位置便于跳转
         ArrayList<Integer> breakList = new ArrayList<>();
         ArrayList<Integer> continueList = new ArrayList<>();
         analyseBlockStatement(f, rank + 1, breakList, continueList);
 
         int len2 = f.getInstructionsLength();
-        f.setBrInstructionValue(len1, len2-len1);
-        f.addInstruction(new Instruction(Operation.br, len0-len2, 4) );
+        for(int i=len0+1; i<len1; i++){
+            Instruction c = f.getFnBody().get(i);
+            f.addInstruction(new Instruction(c.getOpt(), c.getX(), c.getSize()));
+        }
+        int len3 = f.getInstructionsLength();
+        Operation back = f.getFnBody().get(len1).getOpt() == Operation.br_false ? Operation.br_true : Operation.br_false;
+        f.addInstruction(new Instruction(back, len1-len3, 4));
+        f.setBrInstructionValue(len1, len3-len1);
 
         for(Integer b: breakList) {
-            f.setBrInstructionValue(b, len2 - b);
+            f.setBrInstructionValue(b, len3 - b);
         }
         for(Integer c: continueList) {
-            f.setBrInstructionValue(c, len0 - c);
+            f.setBrInstructionValue(c, len2 - c - 1);
         }
     }
     // return_stmt
@@ -578,8 +684,15 @@ public final class Analyser {
 
             }
             else{
-                type = analyseIdentExpression(f, rank, ident, true);
-                f.addInstruction(new Instruction(Operation.load_64));
+                SymbolEntry c = findKnownConstant(f, rank, ident.getValueString());
+                if(c != null){
+                    type = c.getType();
+                    f.addInstruction(new Instruction(Operation.push, c.getConstValue(), 8));
+                }
+                else {
+                    type = analyseIdentExpression(f, rank, ident, true);
+                    f.addInstruction(new Instruction(Operation.load_64));
+                }
             }
         }
         else if(check(TokenType.Uint)){ // UINT_LITERAL
@@ -908,6 +1021,25 @@ public final class Analyser {
         //f.addInstruction(new Instruction(Operation.store_64));
         return "int";
     }
+    /**
+     * 按照局部变量、函数参数、全局变量的顺序查找，找到的是值已知的常量时返回它
+     * @param f 函数
+     * @param rank 层级
+     * @param name 符号名
+     * @return 常量符号，不是值已知的常量时返回 null
+     */
+    private SymbolEntry findKnownConstant(FnInstruct f, int rank, String name){
+        SymbolEntry sy = findBSymbol(name, rank);
+        if(sy == null){
+            if(f.getParamOffset(name) >= 0)
+                return null;
+            sy = getSymbol(name, 0);
+        }
+        if(sy != null && sy.isConst() && sy.getConstValue() != null)
+            return sy;
+        return null;
+    }
+
     // ident_expr -> IDENT
     private String analyseIdentExpression(FnInstruct f, int rank, boolean allowConst) throws CompileError {
         Token ident = expect(TokenType.Ident);
@@ -0,0 +1,332 @@
+package c0anayzer.analyser;
+
+import c0anayzer.error.CompileError;
+import c0anayzer.error.ExpectedTokenError;
+import c0anayzer.error.TokenizeError;
+import c0anayzer.tokenizer.Token;
+import c0anayzer.tokenizer.TokenType;
+import c0anayzer.tokenizer.Tokenizer;
+
+import java.util.*;
+
+/**
+ * 快速模式的预扫描：
+ * 先读出全部 token，在顶层找出每个函数的签名和括号配对的函数体范围，以及函数体中调用的标识符，
+ * 从 main（和全局变量初始化中调用的函数）出发求出可达的函数，
+ * 不可达的函数由 Analyser 直接跳过，只在严格模式下检查语法。
+ * 函数体括号不配对或有同名函数时放弃跳过，交给 Analyser 完整分析并报错
+ */
+public class FunctionSkimmer {
+
+    /** 一个函数在 token 序列中的范围 */
+    public static class Span {
+        public String name;
+        /** fn 的位置 */
+        public int start;
+        /** 函数体的右花括号之后的位置 */
+        public int end;
+        /** 函数体中调用的标识符 */
+        public HashSet<String> calls = new HashSet<>();
+    }
+
+    private ArrayList<Token> tokens;
+    private int pos;
+
+    private FunctionSkimmer(ArrayList<Token> tokens, int pos){
+        this.tokens = tokens;
+        this.pos = pos;
+    }
+
+    /**
+     * 读出全部 token，最后一个是 EOF
+     * @param tokenizer 词法分析器
+     * @return token 序列
+     * @throws TokenizeError 词法错误
+     */
+    public static ArrayList<Token> readAll(Tokenizer tokenizer) throws TokenizeError {
+        ArrayList<Token> tokens = new ArrayList<>();
+        Token t;
+        do {
+            t = tokenizer.nextToken();
+            tokens.add(t);
+        } while(t.getTokenType() != TokenType.EOF);
+        return tokens;
+    }
+
+    /**
+     * 找出从 main 不可达的函数
+     * @param tokens token 序列
+     * @return fn 的位置 -> 函数的范围，不能确定范围时为空
+     */
+    public static HashMap<Integer, Span> unreachable(ArrayList<Token> tokens){
+        LinkedHashMap<String, Span> spans = new LinkedHashMap<>();
+        HashSet<String> roots = new HashSet<>();
+        roots.add("main");
+        int i = 0;
+        while(tokens.get(i).getTokenType() != TokenType.EOF){
+            if(tokens.get(i).getTokenType() == TokenType.FN){
+                Span s = skim(tokens, i);
+                if(s == null || spans.put(s.name, s) != null)
+                    return new HashMap<>();
+                i = s.end;
+            }
+            else {
+                // 全局变量声明，初始化中调用的函数也要分析
+                while(!isEnd(tokens.get(i)) && tokens.get(i).getTokenType() != TokenType.SEMICOLON){
+                    if(isCall(tokens, i))
+                        roots.add(tokens.get(i).getValueString());
+                    i++;
+                }
+                if(tokens.get(i).getTokenType() == TokenType.SEMICOLON)
+                    i++;
+            }
+        }
+
+        HashSet<String> reachable = new HashSet<>();
+        Deque<String> work = new ArrayDeque<>(roots);
+        while(!work.isEmpty()){
+            String name = work.pop();
+            if(spans.containsKey(name) && reachable.add(name))
+                work.addAll(spans.get(name).calls);
+        }
+        HashMap<Integer, Span> skipped = new HashMap<>();
+        for(Span s : spans.values()){
+            if(!reachable.contains(s.name))
+                skipped.put(s.start, s);
+        }
+        return skipped;
+    }
+
+    /**
+     * 找出一个函数的名字、函数体范围和调用的标识符
+     * @param tokens token 序列
+     * @param start fn 的位置
+     * @return 函数的范围，括号不配对时为 null
+     */
+    private static Span skim(ArrayList<Token> tokens, int start){
+        if(tokens.get(start + 1).getTokenType() != TokenType.Ident)
+            return null;
+        Span s = new Span();
+        s.name = tokens.get(start + 1).getValueString();
+        s.start = start;
+        int i = start + 2;
+        while(tokens.get(i).getTokenType() != TokenType.L_BRACE){
+            if(isEnd(tokens.get(i)))
+                return null;
+            i++;
+        }
+        int depth = 0;
+        do {
+            Token t = tokens.get(i);
+            if(t.getTokenType() == TokenType.EOF)
+                return null;
+            if(t.getTokenType() == TokenType.L_BRACE)
+                depth++;
+            else if(t.getTokenType() == TokenType.R_BRACE)
+                depth--;
+            else if(isCall(tokens, i))
+                s.calls.add(t.getValueString());
+            i++;
+        } while(depth > 0);
+        s.end = i;
+        return s;
+    }
+
+    private static boolean isEnd(Token t){
+        return t.getTokenType() == TokenType.EOF || t.getTokenType() == TokenType.FN;
+    }
+
+    private static boolean isCall(ArrayList<Token> tokens, int i){
+        return tokens.get(i).getTokenType() == TokenType.Ident &&
+                tokens.get(i + 1).getTokenType() == TokenType.L_PARENT;
+    }
+
+    /**
+     * 只检查一个函数的语法，不做类型检查也不生成代码，语法和 Analyser 接受的一致
+     * @param tokens token 序列
+     * @param span 函数的范围
+     * @throws CompileError 语法错误
+     */
+    public static void checkSyntax(ArrayList<Token> tokens, Span span) throws CompileError {
+        FunctionSkimmer c = new FunctionSkimmer(tokens, span.start);
+        c.function();
+        if(c.pos != span.end)
+            throw new ExpectedTokenError(TokenType.FN, tokens.get(c.pos));
+    }
+
+    private Token peek(){
+        return tokens.get(pos);
+    }
+
+    private boolean check(TokenType tt){
+        return peek().getTokenType() == tt;
+    }
+
+    private Token next(){
+        Token t = peek();
+        if(pos < tokens.size() - 1)
+            pos++;
+        return t;
+    }
+
+    private Token expect(TokenType tt) throws CompileError {
+        if(!check(tt))
+            throw new ExpectedTokenError(tt, peek());
+        return next();
+    }
+
+    private Token expectOneOf(TokenType... tt) throws CompileError {
+        for(TokenType t : tt){
+            if(check(t))
+                return next();
+        }
+        throw new ExpectedTokenError(List.of(tt), peek());
+    }
+
+    // 'fn' IDENT '(' param_list? ')' '->' ty block_stmt
+    private void function() throws CompileError {
+        expect(TokenType.FN);
+        expect(TokenType.Ident);
+        expect(TokenType.L_PARENT);
+        while(!check(TokenType.R_PARENT)){
+            if(check(TokenType.CONST))
+                next();
+            expect(TokenType.Ident);
+            expect(TokenType.COLON);
+            expectOneOf(TokenType.INT, TokenType.DOUBLE);
+            if(check(TokenType.COMMA))
+                next();
+            else
+                break;
+        }
+        expect(TokenType.R_PARENT);
+        expect(TokenType.ARROW);
+        expectOneOf(TokenType.INT, TokenType.DOUBLE, TokenType.VOID);
+        block();
+    }
+
+    private void block() throws CompileError {
+        expect(TokenType.L_BRACE);
+        while(!check(TokenType.R_BRACE)){
+            statement();
+        }
+        expect(TokenType.R_BRACE);
+    }
+
+    private void statement() throws CompileError {
+        if(check(TokenType.LET) || check(TokenType.CONST)){
+            boolean isConst = next().getTokenType() == TokenType.CONST;
+            expect(TokenType.Ident);
+            expect(TokenType.COLON);
+            expectOneOf(TokenType.INT, TokenType.DOUBLE);
+            if(isConst || check(TokenType.ASSIGN)){
+                expect(TokenType.ASSIGN);
+                expression();
+            }
+            expect(TokenType.SEMICOLON);
+        }
+        else if(check(TokenType.IF)){
+            ifStatement();
+        }
+        else if(check(TokenType.WHILE)){
+            next();
+            expression();
+            block();
+        }
+        else if(check(TokenType.RETURN)){
+            next();
+            if(!check(TokenType.SEMICOLON))
+                expression();
+            expect(TokenType.SEMICOLON);
+        }
+        else if(check(TokenType.L_BRACE)){
+            block();
+        }
+        else if(check(TokenType.SEMICOLON)){
+            next();
+        }
+        else {
+            expression();
+        }
+    }
+
+    private void ifStatement() throws CompileError {
+        expect(TokenType.IF);
+        expression();
+        block();
+        if(check(TokenType.ELSE)){
+            next();
+            if(check(TokenType.IF))
+                ifStatement();
+            else
+                block();
+        }
+    }
+
+    private void expression() throws CompileError {
+        if(check(TokenType.MINUS)){
+            next();
+            expression();
+        }
+        else if(check(TokenType.Ident)){
+            next();
+            if(check(TokenType.ASSIGN)){
+                next();
+                expression();
+            }
+            else if(check(TokenType.L_PARENT)){
+                next();
+                while(!check(TokenType.R_PARENT)){
+                    if(check(TokenType.StringVar))
+                        next();
+                    else
+                        expression();
+                    if(check(TokenType.COMMA))
+                        next();
+                    else
+                        break;
+                }
+                expect(TokenType.R_PARENT);
+            }
+        }
+        else if(check(TokenType.Uint) || check(TokenType.DoubleVar) || check(TokenType.CharVar)){
+            next();
+        }
+        else if(check(TokenType.L_PARENT)){
+            next();
+            expression();
+            expect(TokenType.R_PARENT);
+        }
+        else if(check(TokenType.BREAK) || check(TokenType.CONTINUE)){
+            next();
+            expect(TokenType.SEMICOLON);
+        }
+        else {
+            throw new ExpectedTokenError(TokenType.Ident, peek());
+        }
+
+        while(true){
+            if(check(TokenType.AS)){
+                next();
+                expectOneOf(TokenType.INT, TokenType.DOUBLE);
+            }
+            else if(isBinaryOperator(peek())){
+                next();
+                expression();
+            }
+            else {
+                break;
+            }
+        }
+    }
+
+    private static boolean isBinaryOperator(Token t){
+        switch (t.getTokenType()) {
+            case PLUS: case MINUS: case MUL: case DIV:
+            case EQ: case NEQ: case LT: case GT: case LE: case GE:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
@@ -7,6 +7,8 @@ public class SymbolEntry {
     boolean isInitialized;
     int stackOffset;
     int symbolRank;
+    /** 编译期已知的常量值（double 保存二进制表示），未知时为 null */
+    Long constValue;
 
     /**
      * @param isConst
@@ -87,4 +89,12 @@ public class SymbolEntry {
     public void setType(String type) {
         this.type = type;
     }
+
+    public Long getConstValue() {
+        return constValue;
+    }
+
+    public void setConstValue(Long constValue) {
+        this.constValue = constValue;
+    }
 }
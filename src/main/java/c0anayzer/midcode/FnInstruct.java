@@ -8,6 +8,7 @@ import c0anayzer.util.Pos;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 
 public class FnInstruct {
     public static HashMap<String, String> libFn = new HashMap<>();
@@ -24,6 +25,8 @@ public class FnInstruct {
     public int paramSlots = 0;
     public ArrayList<FnParam> paramTable = new ArrayList<>();
     public int locSlots = 0;
+    /** 操作数栈的最大深度，由 StackDepthAnalysis 计算 */
+    public int maxStackDepth = 0;
 
     public ArrayList<Instruction> fnBody = new ArrayList<>();
 
@@ -40,6 +43,14 @@ public class FnInstruct {
         fnBody.add(i);
     }
 
+    /**
+     * 删除并返回函数体的最后一条指令
+     * @return 指令
+     */
+    public Instruction removeLastInstruction(){
+        return fnBody.remove(fnBody.size() - 1);
+    }
+
     /**
      * 返回当前指令长度 用于跳转
      * @return 长度
@@ -66,6 +77,29 @@ public class FnInstruct {
         i.setX(x);
     }
 
+    /**
+     * 把 [start, end] 之间的指令换成另一段指令，并修正跨过这一段的跳转距离。
+     * 要求这一段中没有跳转指令，除 start 以外也不是跳转目标
+     * @param start 开始位置
+     * @param end 结束位置（含）
+     * @param list 新的指令
+     */
+    public void replaceInstructions(int start, int end, List<Instruction> list){
+        int delta = list.size() - (end - start + 1);
+        for(int k=0; k<fnBody.size(); k++){
+            Instruction b = fnBody.get(k);
+            if(b.getOpt() != Operation.br && b.getOpt() != Operation.br_true && b.getOpt() != Operation.br_false)
+                continue;
+            int target = k + b.getIntX() + 1;
+            if(k < start && target > end)
+                b.setX(b.getIntX() + delta);
+            else if(k > end && target <= start)
+                b.setX(b.getIntX() - delta);
+        }
+        fnBody.subList(start, end + 1).clear();
+        fnBody.addAll(start, list);
+    }
+
     /**
      * 添加函数参数
      * @param paramName
@@ -209,6 +243,14 @@ public class FnInstruct {
         this.locSlots = locSlots;
     }
 
+    public int getMaxStackDepth() {
+        return maxStackDepth;
+    }
+
+    public void setMaxStackDepth(int maxStackDepth) {
+        this.maxStackDepth = maxStackDepth;
+    }
+
     public ArrayList<Instruction> getFnBody() {
         return fnBody;
     }
@@ -287,10 +329,10 @@ public class FnInstruct {
         else if(routes.contains(i)){
             return true;
         }
-        else if(fnBody.get(i).getOpt().equals(Operation.br_true)){
+        else if(fnBody.get(i).getOpt().equals(Operation.br_true) || fnBody.get(i).getOpt().equals(Operation.br_false)){
             routes.add(i);
             boolean ret = dfs(i+1, routes);
-            return ret && dfs(i+2, routes);
+            return ret && dfs(i+fnBody.get(i).getIntX()+1, routes);
         }
         else if(fnBody.get(i).getOpt().equals(Operation.br)){
             routes.add(i);
@@ -3,6 +3,8 @@ package c0anayzer.midcode;
 public class GlobalVar {
     private boolean isConst;
     private String varName;
+    /** 初始值，在编译期写入 o0 文件 */
+    private long value = 0;
 
     public GlobalVar(String name, boolean isConst){
         this.varName = name;
@@ -24,4 +26,12 @@ public class GlobalVar {
     public void setVarName(String varName) {
         this.varName = varName;
     }
+
+    public long getValue() {
+        return value;
+    }
+
+    public void setValue(long value) {
+        this.value = value;
+    }
 }
@@ -2,6 +2,8 @@ package c0anayzer.midcode;
 
 import c0anayzer.error.AnalyzeError;
 import c0anayzer.error.ErrorCode;
+import c0anayzer.instruction.Instruction;
+import c0anayzer.instruction.Operation;
 import c0anayzer.util.Pos;
 
 import java.util.ArrayList;
@@ -27,12 +29,22 @@ public class MidCode {
 
     private int globalVarNum = 0;
 
+    // 正在生成的 _start，分析完所有声明之后才加入函数列表
+    private FnInstruct pendingStart = null;
+
     private static MidCode midCode = new MidCode();
 
     public static MidCode getMidCode(){
         return midCode;
     }
 
+    /**
+     * 丢弃之前的中间代码，重新开始一次编译
+     */
+    public static void reset(){
+        midCode = new MidCode();
+    }
+
     public int getNextGlobalVarOffset(){
         return gdList.size();
     }
@@ -44,6 +56,72 @@ public class MidCode {
     public void addGlobalVar(GlobalVar g){
         gdList.add(g);
     }
+
+    /**
+     * 删除一个全局变量，同时修正所有函数中的全局变量编号（globa）
+     * 和全局符号编号（callname 以及 putstr 的字符串）
+     * @param index 全局变量编号
+     */
+    public void removeGlobalVar(int index){
+        for(FnInstruct f : fnList){
+            ArrayList<Instruction> body = f.getFnBody();
+            for(int i=0; i<body.size(); i++){
+                Instruction ins = body.get(i);
+                if((ins.getOpt() == Operation.globa || isSymbolReference(body, i)) && ins.getIntX() > index)
+                    ins.setX(ins.getIntX() - 1);
+            }
+        }
+        gdList.remove(index);
+        globalSymbol.remove(index);
+        globalVarNum--;
+    }
+
+    /**
+     * 指令的参数是否是全局符号表的编号：callname 的库函数名，
+     * 以及 putstr 之前 push 的字符串
+     * @param body 函数体
+     * @param i 指令位置
+     * @return 是否是
+     */
+    public boolean isSymbolReference(ArrayList<Instruction> body, int i){
+        Instruction ins = body.get(i);
+        if(ins.getOpt() == Operation.callname)
+            return true;
+        return ins.getOpt() == Operation.push && i + 1 < body.size() &&
+                body.get(i + 1).getOpt() == Operation.callname &&
+                globalSymbol.get(body.get(i + 1).getIntX()).equals("putstr");
+    }
+
+    /**
+     * 设置正在生成、还没有加入函数列表的 _start，插入全局符号时它的指令也要修正
+     * @param f _start，加入函数列表后设为 null
+     */
+    public void setPendingStart(FnInstruct f){
+        pendingStart = f;
+    }
+
+    /**
+     * 向全局符号表中插入一条符号，同时修正已经生成的指令中的全局符号编号
+     * （callname 以及 putstr 的字符串），在 index 及之后的编号加 1。
+     * 先修正再插入，判断 push 是否是 putstr 的字符串时用的还是原来的编号
+     * @param index 插入的位置
+     * @param name 符号
+     */
+    private void insertGlobalSymbol(int index, String name){
+        ArrayList<FnInstruct> functions = new ArrayList<>(fnList);
+        if(pendingStart != null)
+            functions.add(pendingStart);
+        for(FnInstruct f : functions){
+            ArrayList<Instruction> body = f.getFnBody();
+            for(int i=0; i<body.size(); i++){
+                Instruction ins = body.get(i);
+                if(isSymbolReference(body, i) && ins.getIntX() >= index)
+                    ins.setX(ins.getIntX() + 1);
+            }
+        }
+        globalSymbol.add(index, name);
+    }
+
     public boolean inGlobalVarList(String name){
         for(GlobalVar g: gdList){
             if(g.getVarName().equals(name)){
@@ -84,12 +162,12 @@ public class MidCode {
      */
     public void addGlobalSymbolToLastPos(String name, Pos curPos) throws AnalyzeError{
         notInGlobalSymbol(name, curPos);
-        globalSymbol.add(globalSymbol.size()-2, name);
+        insertGlobalSymbol(globalSymbol.size()-2, name);
     }
     // 添加一个全局变量进去
     public void addGlobalVar(String name, Pos curPos) throws AnalyzeError{
         notInGlobalSymbol(name, curPos);
-        globalSymbol.add(globalVarNum++, name);
+        insertGlobalSymbol(globalVarNum++, name);
     }
 
     /**
@@ -111,6 +189,29 @@ public class MidCode {
         return fnList.removeIf(f -> f.getFnName().equals(fnName));
     }
 
+    /**
+     * 删除一个函数和它的函数名，同时修正所有函数中的函数编号（call）
+     * 和全局符号编号（callname 以及 putstr 的字符串）。
+     * 调用这个函数的 call 要事先改掉
+     * @param f 函数
+     */
+    public void removeFunction(FnInstruct f){
+        int address = fnList.indexOf(f) + 1;
+        int name = getFnNumber(f.getFnName());
+        fnList.remove(f);
+        for(FnInstruct g : fnList){
+            ArrayList<Instruction> body = g.getFnBody();
+            for(int i=0; i<body.size(); i++){
+                Instruction ins = body.get(i);
+                if(ins.getOpt() == Operation.call && ins.getIntX() > address)
+                    ins.setX(ins.getIntX() - 1);
+                else if(isSymbolReference(body, i) && ins.getIntX() > name)
+                    ins.setX(ins.getIntX() - 1);
+            }
+        }
+        globalSymbol.remove(name);
+    }
+
     /**
      * 在全局符号表中插入一条库函数的记录，不会插入到fn列表中
      * @param fnName 函数
@@ -124,7 +225,7 @@ public class MidCode {
             }
             i++;
         }
-        globalSymbol.add(i, libFn);
+        insertGlobalSymbol(i, libFn);
         return i;
     }
 
@@ -144,6 +245,15 @@ public class MidCode {
         return -1;
     }
 
+    /**
+     * 根据 call 指令的参数获取函数，与 getFnAddress 对应
+     * @param address 偏移量，从1开始
+     * @return 函数
+     */
+    public FnInstruct getFnByAddress(int address){
+        return fnList.get(address - 1);
+    }
+
     public int getFnNumber(String fnName) {
         int i=0;
         for(String s: globalSymbol){
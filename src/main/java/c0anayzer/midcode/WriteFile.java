@@ -5,7 +5,22 @@ import c0anayzer.instruction.Instruction;
 import java.io.*;
 
 public class WriteFile {
+    /** 栈深度扩展段的标记 "stkd" */
+    public static final int STACK_DEPTH_MAGIC = 0x73746b64;
+
     public static void writeO0File(MidCode midCode, String outFileName){
+        writeO0File(midCode, outFileName, false);
+    }
+
+    /**
+     * 输出 o0 文件
+     * @param midCode 中间代码
+     * @param outFileName 文件名
+     * @param stackDepths 是否在函数之后附加栈深度扩展段：
+     *                    标记 "stkd"（4 字节）、函数个数（4 字节），
+     *                    然后按函数在文件中的顺序（_start 在最前）每个函数的最大操作数栈深度（4 字节）
+     */
+    public static void writeO0File(MidCode midCode, String outFileName, boolean stackDepths){
         try{
             FileOutputStream content = new FileOutputStream(outFileName);
             content.write(getByteValue(midCode.magic, 4));
@@ -20,7 +35,7 @@ public class WriteFile {
                     content.write(getByteValue(0, 1));
                 }
                 content.write(getByteValue(8, 4));
-                content.write(getByteValue(0, 8));
+                content.write(getByteValue(midCode.gdList.get(i).getValue(), 8));
             }
             for(int i=midCode.getGlobalVarNum(); i<midCode.globalSymbol.size(); i++){
                 content.write(getByteValue(1, 1));
@@ -62,6 +77,18 @@ public class WriteFile {
                     }
                 }
             }
+            if(stackDepths){
+                content.write(getByteValue(STACK_DEPTH_MAGIC, 4));
+                content.write(getByteValue(midCode.fnList.size(), 4));
+                for(FnInstruct f: midCode.fnList){
+                    if(f.getFnName().equals("_start"))
+                        content.write(getByteValue(f.getMaxStackDepth(), 4));
+                }
+                for(FnInstruct f: midCode.fnList){
+                    if(!f.getFnName().equals("_start"))
+                        content.write(getByteValue(f.getMaxStackDepth(), 4));
+                }
+            }
             content.close();
 
         } catch(Exception ignored){}
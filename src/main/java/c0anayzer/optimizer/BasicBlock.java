@@ -0,0 +1,90 @@
+package c0anayzer.optimizer;
+
+import c0anayzer.instruction.Instruction;
+import c0anayzer.instruction.Operation;
+
+import java.util.ArrayList;
+
+public class BasicBlock {
+    public int id;
+    /** 块内的指令，不包含末尾的跳转/返回指令 */
+    public ArrayList<Instruction> instructions = new ArrayList<>();
+    /** 块末尾的 br / br_true / br_false / ret / panic，顺序执行到下一块时为 null */
+    public Instruction terminator;
+    /** 顺序执行（或条件不成立）时的后继 */
+    public BasicBlock fallThrough;
+    /** 跳转的目标块 */
+    public BasicBlock jumpTarget;
+    public ArrayList<BasicBlock> predecessors = new ArrayList<>();
+
+    public BasicBlock(int id){
+        this.id = id;
+    }
+
+    /**
+     * 获取所有后继块
+     * @return 后继块
+     */
+    public ArrayList<BasicBlock> getSuccessors(){
+        ArrayList<BasicBlock> s = new ArrayList<>();
+        if(fallThrough != null)
+            s.add(fallThrough);
+        if(jumpTarget != null && jumpTarget != fallThrough)
+            s.add(jumpTarget);
+        return s;
+    }
+
+    public boolean isEmpty(){
+        return instructions.isEmpty();
+    }
+
+    /**
+     * 是否以无条件跳转结束
+     */
+    public boolean endsWithBr(){
+        return terminator != null && terminator.getOpt() == Operation.br;
+    }
+
+    /**
+     * 是否以条件跳转结束
+     */
+    public boolean endsWithCondBr(){
+        return terminator != null &&
+                (terminator.getOpt() == Operation.br_true || terminator.getOpt() == Operation.br_false);
+    }
+
+    /**
+     * 是否以 ret / panic 结束
+     */
+    public boolean endsWithExit(){
+        return terminator != null &&
+                (terminator.getOpt() == Operation.ret || terminator.getOpt() == Operation.panic);
+    }
+
+    /**
+     * 将一个后继替换为另一个块
+     * @param from 原后继
+     * @param to 新后继
+     */
+    public void replaceSuccessor(BasicBlock from, BasicBlock to){
+        if(fallThrough == from)
+            fallThrough = to;
+        if(jumpTarget == from)
+            jumpTarget = to;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("B").append(id).append(":\n");
+        for(Instruction i : instructions){
+            sb.append("  ").append(i).append("\n");
+        }
+        if(terminator != null)
+            sb.append("  ").append(terminator.getOpt()).append(" -> ").
+                    append(jumpTarget == null ? "-" : "B" + jumpTarget.id).append("\n");
+        if(fallThrough != null)
+            sb.append("  fall -> B").append(fallThrough.id).append("\n");
+        return sb.toString();
+    }
+}
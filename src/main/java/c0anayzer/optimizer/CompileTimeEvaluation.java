@@ -0,0 +1,88 @@
+package c0anayzer.optimizer;
+
+import c0anayzer.instruction.Instruction;
+import c0anayzer.instruction.Operation;
+import c0anayzer.midcode.FnInstruct;
+import c0anayzer.midcode.MidCode;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * 编译期求值：参数都是常量表达式的纯函数调用（stackalloc r; 参数...; call k）
+ * 用解释器在编译期执行，整个调用换成 push 结果。
+ * 每次调用的执行步数有上限，同一组参数只求值一次；整个程序的总步数也有上限，
+ * 某个函数有一次调用因为步数用完而放弃后，不再求值它的其他调用
+ */
+public class CompileTimeEvaluation {
+    /** 每次调用最多执行的指令数 */
+    private static final long MAX_STEPS = 1000000;
+    /** 整个程序最多执行的指令数 */
+    private static final long MAX_TOTAL_STEPS = 4000000;
+    /** 最大调用深度 */
+    private static final int MAX_DEPTH = 500;
+
+    /**
+     * 对所有函数做编译期求值
+     * @param m 中间代码
+     * @return 换成常量的调用个数
+     */
+    public static int optimize(MidCode m){
+        SideEffectAnalysis effects = SideEffectAnalysis.analyse(m);
+        // 调用的函数和参数 -> 结果，不能求值的结果为 null
+        HashMap<String, long[]> cache = new HashMap<>();
+        // 步数用完的函数
+        HashSet<FnInstruct> exhausted = new HashSet<>();
+        long budget = MAX_TOTAL_STEPS;
+        int evaluated = 0;
+        for(FnInstruct f : m.fnList){
+            ArrayList<Instruction> body = f.getFnBody();
+            for(int i=0; i<body.size(); i++){
+                Instruction ins = body.get(i);
+                if(ins.getOpt() != Operation.call)
+                    continue;
+                FnInstruct g = m.getFnByAddress(ins.getIntX());
+                if(g.getFnName().equals("_start") || !effects.isPure(g) || exhausted.contains(g))
+                    continue;
+                int p = g.getParamSlots();
+                int[] starts = StackEffect.callSite(body, i, g.getReturnSlots(), p);
+                if(starts == null)
+                    continue;
+                long[] args = new long[p];
+                StringBuilder key = new StringBuilder().append(ins.getIntX());
+                boolean constant = true;
+                for(int j=0; j<p && constant; j++){
+                    int end = j + 1 < p ? starts[j + 2] : i;
+                    Long a = ConstantFolding.evaluate(body.subList(starts[j + 1], end));
+                    constant = a != null;
+                    args[j] = constant ? a : 0;
+                    key.append(' ').append(args[j]);
+                }
+                if(!constant)
+                    continue;
+                if(!cache.containsKey(key.toString())){
+                    if(budget <= 0)
+                        return evaluated;
+                    long limit = Math.min(MAX_STEPS, budget);
+                    Interpreter interpreter = new Interpreter(m, limit, MAX_DEPTH);
+                    cache.put(key.toString(), interpreter.call(g, args));
+                    budget -= limit - Math.max(interpreter.getSteps(), 0);
+                    if(interpreter.getSteps() < 0)
+                        exhausted.add(g);
+                }
+                long[] result = cache.get(key.toString());
+                if(result == null)
+                    continue;
+                ArrayList<Instruction> list = new ArrayList<>();
+                for(long v : result){
+                    list.add(new Instruction(Operation.push, v, 8));
+                }
+                f.replaceInstructions(starts[0], i, list);
+                i = starts[0];
+                evaluated++;
+            }
+        }
+        return evaluated;
+    }
+}
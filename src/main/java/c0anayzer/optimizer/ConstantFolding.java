@@ -0,0 +1,137 @@
+package c0anayzer.optimizer;
+
+import c0anayzer.instruction.Instruction;
+import c0anayzer.instruction.Operation;
+
+import java.util.ArrayDeque;
+import java.util.List;
+
+/**
+ * 编译期求值：按虚拟机的语义计算只由常量组成的指令序列。
+ * 值都按 64 位保存，double 保存其二进制表示（不规范化 NaN）。
+ * 除数为 0 等运行时才会出错的情况不求值；
+ * 浮点运算的结果是 NaN 时，NaN 的符号和载荷由运行虚拟机的硬件决定，也不求值
+ */
+public class ConstantFolding {
+
+    /**
+     * 计算一段指令，要求执行完后栈上恰好有一个值
+     * @param list 指令
+     * @return 结果，不能在编译期求值时返回 null
+     */
+    public static Long evaluate(List<Instruction> list){
+        ArrayDeque<Long> stack = new ArrayDeque<>();
+        for(Instruction i : list){
+            if(i.getOpt() == Operation.push){
+                stack.push(i.getX());
+                continue;
+            }
+            int pops = StackEffect.pops(i);
+            if(!StackEffect.isPureArith(i.getOpt()) || stack.size() < pops)
+                return null;
+            Long r;
+            if(pops == 2){
+                long b = stack.pop();
+                long a = stack.pop();
+                r = apply(i.getOpt(), a, b);
+            }
+            else {
+                r = apply(i.getOpt(), stack.pop());
+            }
+            if(r == null)
+                return null;
+            stack.push(r);
+        }
+        return stack.size() == 1 ? stack.pop() : null;
+    }
+
+    /**
+     * 计算一元运算
+     * @return 结果，不能求值时返回 null
+     */
+    public static Long apply(Operation op, long a){
+        double x = Double.longBitsToDouble(a);
+        switch (op) {
+            case neg_i:
+                return -a;
+            case neg_f:
+                // 虚拟机取反浮点数只翻转符号位
+                return a ^ Long.MIN_VALUE;
+            case not:
+                return a == 0 ? 1L : 0L;
+            case set_lt:
+                return a < 0 ? 1L : 0L;
+            case set_gt:
+                return a > 0 ? 1L : 0L;
+            case itof:
+                return Double.doubleToRawLongBits((double) a);
+            case ftoi:
+                return Double.isNaN(x) ? null : (long) x;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * 计算二元运算，a 是次栈顶，b 是栈顶
+     * @return 结果，不能求值时返回 null
+     */
+    public static Long apply(Operation op, long a, long b){
+        double x = Double.longBitsToDouble(a);
+        double y = Double.longBitsToDouble(b);
+        switch (op) {
+            case add_i:
+                return a + b;
+            case sub_i:
+                return a - b;
+            case mul_i:
+                return a * b;
+            case div_i:
+                if(b == 0 || (a == Long.MIN_VALUE && b == -1))
+                    return null;
+                return a / b;
+            case div_u:
+                if(b == 0)
+                    return null;
+                return Long.divideUnsigned(a, b);
+            case add_f:
+                return bits(x + y);
+            case sub_f:
+                return bits(x - y);
+            case mul_f:
+                return bits(x * y);
+            case div_f:
+                return bits(x / y);
+            case shl:
+            case shr:
+            case shrl:
+                // 移位位数超出范围时各个虚拟机的行为不同，不求值
+                if(b < 0 || b >= 64)
+                    return null;
+                return op == Operation.shl ? a << b : (op == Operation.shr ? a >> b : a >>> b);
+            case and:
+                return a & b;
+            case or:
+                return a | b;
+            case xor:
+                return a ^ b;
+            case cmp_i:
+                return (long) Long.compare(a, b);
+            case cmp_u:
+                return (long) Long.compareUnsigned(a, b);
+            case cmp_f:
+                if(Double.isNaN(x) || Double.isNaN(y))
+                    return null;
+                return x < y ? -1L : (x > y ? 1L : 0L);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * 浮点运算结果的二进制表示，NaN 不能求值
+     */
+    private static Long bits(double d){
+        return Double.isNaN(d) ? null : Double.doubleToRawLongBits(d);
+    }
+}
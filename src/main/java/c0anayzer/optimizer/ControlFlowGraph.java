@@ -0,0 +1,311 @@
+package c0anayzer.optimizer;
+
+import c0anayzer.instruction.Instruction;
+import c0anayzer.instruction.Operation;
+import c0anayzer.midcode.FnInstruct;
+
+import java.util.*;
+
+public class ControlFlowGraph {
+    public FnInstruct fn;
+    /** 基本块的排列顺序，即输出时的顺序 */
+    public ArrayList<BasicBlock> blocks = new ArrayList<>();
+    public BasicBlock entry;
+    /** 函数末尾之后的空块，跳转到函数体长度处的指令指向它 */
+    public BasicBlock exit;
+
+    private int nextId = 0;
+
+    private ControlFlowGraph(FnInstruct fn){
+        this.fn = fn;
+    }
+
+    public static boolean isBranch(Operation op){
+        return op == Operation.br || op == Operation.br_true || op == Operation.br_false;
+    }
+
+    public static boolean isTerminator(Operation op){
+        return isBranch(op) || op == Operation.ret || op == Operation.panic;
+    }
+
+    /**
+     * 根据函数体构造控制流图，跳转距离转为后继块
+     * @param f 函数
+     * @return 控制流图
+     */
+    public static ControlFlowGraph build(FnInstruct f){
+        ControlFlowGraph cfg = new ControlFlowGraph(f);
+        ArrayList<Instruction> body = f.getFnBody();
+        int n = body.size();
+
+        TreeSet<Integer> leaders = new TreeSet<>();
+        leaders.add(0);
+        for(int i=0; i<n; i++){
+            Operation op = body.get(i).getOpt();
+            if(isBranch(op)){
+                leaders.add(i + body.get(i).getIntX() + 1);
+            }
+            if(isTerminator(op)){
+                leaders.add(i + 1);
+            }
+        }
+
+        HashMap<Integer, BasicBlock> byStart = new HashMap<>();
+        for(int l : leaders){
+            if(l < 0 || l > n)
+                throw new IllegalStateException("branch out of range in " + f.getFnName());
+            if(l < n){
+                BasicBlock b = cfg.newBlock();
+                cfg.blocks.add(b);
+                byStart.put(l, b);
+            }
+        }
+        cfg.exit = cfg.newBlock();
+        byStart.put(n, cfg.exit);
+
+        for(int l : leaders){
+            if(l >= n)
+                continue;
+            BasicBlock b = byStart.get(l);
+            Integer end = leaders.higher(l);
+            if(end == null)
+                end = n;
+            for(int i=l; i<end; i++){
+                Instruction ins = body.get(i);
+                if(isTerminator(ins.getOpt()) && i == end - 1){
+                    b.terminator = ins;
+                    if(isBranch(ins.getOpt()))
+                        b.jumpTarget = byStart.get(i + ins.getIntX() + 1);
+                }
+                else {
+                    b.instructions.add(ins);
+                }
+            }
+            if(b.terminator == null || b.endsWithCondBr()){
+                b.fallThrough = byStart.get(end);
+            }
+        }
+        cfg.blocks.add(cfg.exit);
+        cfg.entry = cfg.blocks.get(0);
+        cfg.removeUnreachable();
+        return cfg;
+    }
+
+    public BasicBlock newBlock(){
+        return new BasicBlock(nextId++);
+    }
+
+    /**
+     * 在某个块之后插入一个新的空块（只影响排列顺序）
+     * @param after 位置
+     * @return 新块
+     */
+    public BasicBlock insertBlockAfter(BasicBlock after){
+        BasicBlock b = newBlock();
+        blocks.add(blocks.indexOf(after) + 1, b);
+        return b;
+    }
+
+    /**
+     * 在某个块之前插入一个新的空块（只影响排列顺序）
+     * @param before 位置
+     * @return 新块
+     */
+    public BasicBlock insertBlockBefore(BasicBlock before){
+        BasicBlock b = newBlock();
+        blocks.add(blocks.indexOf(before), b);
+        if(before == entry)
+            entry = b;
+        return b;
+    }
+
+    /**
+     * 重新计算所有块的前驱
+     */
+    public void computePredecessors(){
+        for(BasicBlock b : blocks){
+            b.predecessors.clear();
+        }
+        for(BasicBlock b : blocks){
+            for(BasicBlock s : b.getSuccessors()){
+                s.predecessors.add(b);
+            }
+        }
+    }
+
+    /**
+     * 删除从入口不可达的块，并更新前驱
+     * @return 是否删除了块
+     */
+    public boolean removeUnreachable(){
+        HashSet<BasicBlock> seen = new HashSet<>(reversePostOrder());
+        seen.add(exit);
+        boolean changed = blocks.removeIf(b -> !seen.contains(b));
+        computePredecessors();
+        return changed;
+    }
+
+    /**
+     * 逆后序遍历，只包含可达块
+     * @return 块序列
+     */
+    public ArrayList<BasicBlock> reversePostOrder(){
+        ArrayList<BasicBlock> order = new ArrayList<>();
+        HashSet<BasicBlock> visited = new HashSet<>();
+        Deque<BasicBlock> stack = new ArrayDeque<>();
+        Deque<Iterator<BasicBlock>> iters = new ArrayDeque<>();
+        visited.add(entry);
+        stack.push(entry);
+        iters.push(entry.getSuccessors().iterator());
+        while(!stack.isEmpty()){
+            Iterator<BasicBlock> it = iters.peek();
+            if(it.hasNext()){
+                BasicBlock s = it.next();
+                if(visited.add(s)){
+                    stack.push(s);
+                    iters.push(s.getSuccessors().iterator());
+                }
+            }
+            else {
+                order.add(stack.pop());
+                iters.pop();
+            }
+        }
+        Collections.reverse(order);
+        return order;
+    }
+
+    /**
+     * 计算每个可达块的支配者集合
+     * @return 块 -> 支配它的所有块（包括自己）
+     */
+    public HashMap<BasicBlock, HashSet<BasicBlock>> dominators(){
+        ArrayList<BasicBlock> order = reversePostOrder();
+        HashMap<BasicBlock, HashSet<BasicBlock>> dom = new HashMap<>();
+        for(BasicBlock b : order){
+            dom.put(b, new HashSet<>(order));
+        }
+        dom.put(entry, new HashSet<>(Collections.singleton(entry)));
+        boolean changed = true;
+        while(changed){
+            changed = false;
+            for(BasicBlock b : order){
+                if(b == entry)
+                    continue;
+                HashSet<BasicBlock> d = null;
+                for(BasicBlock p : b.predecessors){
+                    if(!dom.containsKey(p))
+                        continue;
+                    if(d == null)
+                        d = new HashSet<>(dom.get(p));
+                    else
+                        d.retainAll(dom.get(p));
+                }
+                if(d == null)
+                    d = new HashSet<>();
+                d.add(b);
+                if(!d.equals(dom.get(b))){
+                    dom.put(b, d);
+                    changed = true;
+                }
+            }
+        }
+        return dom;
+    }
+
+    /**
+     * 统计块内指令数（不含跳转）
+     */
+    public int instructionCount(){
+        int c = 0;
+        for(BasicBlock b : blocks){
+            c += b.instructions.size() + (b.terminator == null ? 0 : 1);
+        }
+        return c;
+    }
+
+    /**
+     * 按 blocks 的顺序输出指令并重新计算跳转距离。
+     * 后继正好是下一块时省略 br，条件跳转的目标是下一块时反转条件
+     * @return 新的函数体
+     */
+    public ArrayList<Instruction> linearize(){
+        ArrayList<BasicBlock> order = new ArrayList<>(blocks);
+        order.remove(exit);
+        order.add(exit);
+
+        ArrayList<Instruction> out = new ArrayList<>();
+        HashMap<BasicBlock, Integer> start = new HashMap<>();
+        IdentityHashMap<Instruction, BasicBlock> fixups = new IdentityHashMap<>();
+
+        for(int k=0; k<order.size(); k++){
+            BasicBlock b = order.get(k);
+            BasicBlock next = k + 1 < order.size() ? order.get(k + 1) : null;
+            start.put(b, out.size());
+            out.addAll(b.instructions);
+
+            Instruction t = b.terminator;
+            if(t == null){
+                if(b.fallThrough != null && b.fallThrough != next)
+                    emitBranch(out, fixups, Operation.br, b.fallThrough);
+            }
+            else if(t.getOpt() == Operation.br){
+                if(b.jumpTarget != next)
+                    emitBranch(out, fixups, Operation.br, b.jumpTarget);
+            }
+            else if(b.endsWithCondBr()){
+                if(b.jumpTarget == b.fallThrough){
+                    out.add(new Instruction(Operation.pop));
+                    if(b.fallThrough != next)
+                        emitBranch(out, fixups, Operation.br, b.fallThrough);
+                }
+                else if(b.jumpTarget == next){
+                    emitBranch(out, fixups, invert(t.getOpt()), b.fallThrough);
+                }
+                else {
+                    emitBranch(out, fixups, t.getOpt(), b.jumpTarget);
+                    if(b.fallThrough != next)
+                        emitBranch(out, fixups, Operation.br, b.fallThrough);
+                }
+            }
+            else {
+                out.add(t);
+            }
+        }
+
+        for(int i=0; i<out.size(); i++){
+            BasicBlock target = fixups.get(out.get(i));
+            if(target != null){
+                out.get(i).setX(start.get(target) - i - 1);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * 将控制流图写回函数体
+     */
+    public void writeBack(){
+        fn.setFnBody(linearize());
+    }
+
+    public static Operation invert(Operation op){
+        return op == Operation.br_true ? Operation.br_false : Operation.br_true;
+    }
+
+    private static void emitBranch(ArrayList<Instruction> out, IdentityHashMap<Instruction, BasicBlock> fixups,
+                                   Operation op, BasicBlock target){
+        Instruction i = new Instruction(op, 0, 4);
+        out.add(i);
+        fixups.put(i, target);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for(BasicBlock b : blocks){
+            sb.append(b);
+        }
+        return sb.toString();
+    }
+}
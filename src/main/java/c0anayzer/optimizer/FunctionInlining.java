@@ -0,0 +1,456 @@
+package c0anayzer.optimizer;
+
+import c0anayzer.instruction.Instruction;
+import c0anayzer.instruction.Operation;
+import c0anayzer.midcode.FnInstruct;
+import c0anayzer.midcode.MidCode;
+
+import java.util.*;
+
+/**
+ * 函数内联：
+ * 把调用点 stackalloc r; 参数...; call k 替换成被调函数体的拷贝。
+ * 参数先存入调用者新分配的局部变量，arga 改为读这些变量，
+ * 被调函数的 loca 平移到调用者的新槽位，ret 改为跳到汇合点，
+ * 返回值通过一个局部变量放回栈顶。
+ * 只读参数的实参是常量或调用者变量时直接代入；
+ * 被调函数只在末尾返回时，返回值直接留在栈上。
+ * 只内联小函数（或只有一个调用点的函数），递归函数不内联，嵌套层数和调用者大小都有上限。
+ * 有执行剖面时，热函数的大小上限放宽，从未调用的函数不内联，也不向从未调用的函数中内联
+ */
+public class FunctionInlining {
+    /** 被内联函数的最大指令数 */
+    private static final int MAX_CALLEE_SIZE = 40;
+    /** 剖面中的热函数被内联的最大指令数 */
+    private static final int MAX_HOT_CALLEE_SIZE = 120;
+    /** 只有一个调用点的函数的最大指令数 */
+    private static final int MAX_SINGLE_SITE_SIZE = 200;
+    /** 内联后调用者的最大指令数 */
+    private static final int MAX_CALLER_SIZE = 3000;
+    /** 内联的最大嵌套层数 */
+    private static final int MAX_DEPTH = 3;
+
+    /** 表示跳到函数末尾 */
+    private static final Instruction END = new Instruction(Operation.nop);
+
+    private MidCode m;
+    /** 执行剖面，没有时为 null */
+    private Profile profile;
+    private HashSet<FnInstruct> recursive = new HashSet<>();
+    private HashMap<FnInstruct, Integer> callSites = new HashMap<>();
+
+    /** 正在处理的调用者 */
+    private FnInstruct f;
+    private ArrayList<Instruction> body;
+    /** 跳转指令 -> 目标指令 */
+    private IdentityHashMap<Instruction, Instruction> targets;
+    /** call 指令来自第几层内联 */
+    private IdentityHashMap<Instruction, Integer> depth;
+
+    private FunctionInlining(MidCode m, Profile profile){
+        this.m = m;
+        this.profile = profile;
+    }
+
+    public static int optimize(MidCode m){
+        return optimize(m, null);
+    }
+
+    /**
+     * 对整个程序做内联
+     * @param m 中间代码
+     * @param profile 执行剖面，可以为 null
+     * @return 内联的调用点个数
+     */
+    public static int optimize(MidCode m, Profile profile){
+        FunctionInlining fi = new FunctionInlining(m, profile);
+        fi.analyseCallGraph();
+        int inlined = 0;
+        for(FnInstruct f : fi.bottomUpOrder()){
+            if(!f.getFnName().equals("_start") && !(profile != null && profile.isCold(f.getFnName())))
+                inlined += fi.inlineInto(f);
+        }
+        return inlined;
+    }
+
+    private ArrayList<FnInstruct> callees(FnInstruct f){
+        ArrayList<FnInstruct> list = new ArrayList<>();
+        for(Instruction i : f.getFnBody()){
+            if(i.getOpt() == Operation.call)
+                list.add(m.getFnByAddress(i.getIntX()));
+        }
+        return list;
+    }
+
+    /**
+     * 统计调用点个数，找出所有在调用环上的函数
+     */
+    private void analyseCallGraph(){
+        for(FnInstruct f : m.fnList){
+            for(FnInstruct g : callees(f)){
+                callSites.put(g, callSites.getOrDefault(g, 0) + 1);
+            }
+        }
+        for(FnInstruct f : m.fnList){
+            HashSet<FnInstruct> seen = new HashSet<>();
+            Deque<FnInstruct> work = new ArrayDeque<>(callees(f));
+            while(!work.isEmpty()){
+                FnInstruct g = work.pop();
+                if(g == f){
+                    recursive.add(f);
+                    break;
+                }
+                if(seen.add(g))
+                    work.addAll(callees(g));
+            }
+        }
+    }
+
+    /**
+     * 被调函数排在调用者前面
+     * @return 函数顺序
+     */
+    private ArrayList<FnInstruct> bottomUpOrder(){
+        ArrayList<FnInstruct> order = new ArrayList<>();
+        HashSet<FnInstruct> seen = new HashSet<>();
+        for(FnInstruct f : m.fnList){
+            postOrder(f, seen, order);
+        }
+        return order;
+    }
+
+    private void postOrder(FnInstruct f, HashSet<FnInstruct> seen, ArrayList<FnInstruct> order){
+        if(!seen.add(f))
+            return;
+        for(FnInstruct g : callees(f)){
+            postOrder(g, seen, order);
+        }
+        order.add(f);
+    }
+
+    /**
+     * 判断一个函数能否被内联
+     */
+    private boolean canInline(FnInstruct g){
+        if(g.getFnName().equals("_start") || recursive.contains(g) || g == f)
+            return false;
+        if(profile != null && profile.isCold(g.getFnName()))
+            return false;
+        int size = g.getFnBodyCount();
+        int maxSize = profile != null && profile.isHot(g.getFnName()) ? MAX_HOT_CALLEE_SIZE : MAX_CALLEE_SIZE;
+        if(size > maxSize &&
+                !(callSites.getOrDefault(g, 0) == 1 && size <= MAX_SINGLE_SITE_SIZE))
+            return false;
+        if(body.size() + size > MAX_CALLER_SIZE)
+            return false;
+        // 每个 ret 处操作数栈必须为空，否则改成跳转后会留下多余的值
+        ControlFlowGraph cfg = ControlFlowGraph.build(g);
+        HashMap<BasicBlock, Integer> heights = StackEffect.entryHeights(cfg);
+        if(heights == null)
+            return false;
+        for(BasicBlock b : cfg.blocks){
+            if(b.endsWithExit() && StackEffect.heightAfter(b.instructions, heights.get(b)) != 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * 对一个调用者反复内联，直到没有可以内联的调用点
+     * @return 内联的调用点个数
+     */
+    private int inlineInto(FnInstruct caller){
+        f = caller;
+        body = new ArrayList<>(caller.getFnBody());
+        targets = new IdentityHashMap<>();
+        depth = new IdentityHashMap<>();
+        for(int i=0; i<body.size(); i++){
+            Instruction ins = body.get(i);
+            if(ControlFlowGraph.isBranch(ins.getOpt())){
+                int t = i + ins.getIntX() + 1;
+                targets.put(ins, t < body.size() ? body.get(t) : END);
+            }
+        }
+
+        int inlined = 0;
+        while(inlineNextSite()){
+            inlined++;
+        }
+        if(inlined > 0)
+            writeBack();
+        return inlined;
+    }
+
+    /**
+     * 找到第一个可以内联的调用点并内联
+     * @return 是否内联了
+     */
+    private boolean inlineNextSite(){
+        Set<Instruction> leaders = Collections.newSetFromMap(new IdentityHashMap<>());
+        leaders.addAll(targets.values());
+        for(int i=0; i<body.size(); i++){
+            if(ControlFlowGraph.isTerminator(body.get(i).getOpt()) && i + 1 < body.size())
+                leaders.add(body.get(i + 1));
+        }
+
+        // 每个栈元素记录计算它的第一条指令的位置，-1 表示未知
+        ArrayList<Integer> stack = new ArrayList<>();
+        int blockStart = 0;
+        for(int i=0; i<body.size(); i++){
+            Instruction ins = body.get(i);
+            if(i == 0 || leaders.contains(ins)){
+                stack.clear();
+                blockStart = i;
+            }
+            if(ins.getOpt() == Operation.call){
+                FnInstruct g = m.getFnByAddress(ins.getIntX());
+                if(depth.getOrDefault(ins, 0) < MAX_DEPTH && canInline(g)){
+                    int[] args = argStarts(stack, g, i, blockStart);
+                    if(args != null){
+                        int s = (args.length > 0 ? args[0] : i) - 1;
+                        inline(s, i, args, g, depth.getOrDefault(ins, 0));
+                        return true;
+                    }
+                }
+            }
+
+            int pops = StackEffect.pops(ins);
+            int start = i;
+            for(int k=0; k<pops; k++){
+                int s = stack.isEmpty() ? -1 : stack.remove(stack.size() - 1);
+                start = (s < 0 || start < 0) ? -1 : Math.min(start, s);
+            }
+            int pushes = StackEffect.pushes(ins);
+            if(ins.getOpt() == Operation.dup)
+                start = -1;
+            for(int k=0; k<pushes; k++){
+                stack.add(start);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 检查调用点的形状并取得每个参数表达式的起始位置
+     * @return 参数起始位置，不能内联时返回 null
+     */
+    private int[] argStarts(ArrayList<Integer> stack, FnInstruct g, int call, int blockStart){
+        int p = g.getParamSlots();
+        int r = g.getReturnSlots();
+        if(stack.size() < p + r)
+            return null;
+        int[] args = new int[p];
+        for(int j=0; j<p; j++){
+            args[j] = stack.get(stack.size() - p + j);
+            if(args[j] < 0 || (j > 0 && args[j] <= args[j - 1]))
+                return null;
+        }
+        int s = (p > 0 ? args[0] : call) - 1;
+        if(s < blockStart)
+            return null;
+        Instruction alloc = body.get(s);
+        if(alloc.getOpt() != Operation.stackalloc || alloc.getIntX() != r)
+            return null;
+        if(r > 0 && stack.get(stack.size() - p - 1) != s)
+            return null;
+        return args;
+    }
+
+    private static Instruction copy(Instruction i){
+        return new Instruction(i.getOpt(), i.getX(), i.getSize());
+    }
+
+    /**
+     * 被调函数以 arga 0; expr; store_64; ret 结束且只有这一个 ret 时，
+     * 返回值可以直接留在栈上，不需要经过局部变量
+     * @param g 被调函数
+     * @return arga 0 的位置，不满足条件时返回 -1
+     */
+    private static int forwardableReturn(FnInstruct g){
+        ArrayList<Instruction> gBody = g.getFnBody();
+        int n = gBody.size();
+        if(g.getReturnSlots() != 1 || n < 4 || gBody.get(n - 1).getOpt() != Operation.ret ||
+                gBody.get(n - 2).getOpt() != Operation.store_64)
+            return -1;
+        int blockStart = 0;
+        for(int i=0; i<n; i++){
+            Instruction ins = gBody.get(i);
+            if(ins.getOpt() == Operation.ret && i != n - 1)
+                return -1;
+            if(ControlFlowGraph.isTerminator(ins.getOpt()) && i < n - 1)
+                blockStart = Math.max(blockStart, i + 1);
+            if(ControlFlowGraph.isBranch(ins.getOpt()) && i + ins.getIntX() + 1 <= n - 2)
+                blockStart = Math.max(blockStart, i + ins.getIntX() + 1);
+        }
+        ArrayList<Integer> stack = StackEffect.operandStarts(gBody, blockStart, n - 2);
+        if(stack.size() != 2)
+            return -1;
+        int a = stack.get(0);
+        if(a < 0 || stack.get(1) != a + 1 || gBody.get(a).getOpt() != Operation.arga || gBody.get(a).getIntX() != 0)
+            return -1;
+        // 只允许跳到 arga 0 本身，不能跳进返回值表达式或之后
+        for(int i=0; i<n; i++){
+            Instruction ins = gBody.get(i);
+            if(ControlFlowGraph.isBranch(ins.getOpt()) && i + ins.getIntX() + 1 > a)
+                return -1;
+        }
+        return a;
+    }
+
+    /**
+     * 参数在被调函数中只被读取（每个 arga 后面紧跟 load_64 且不是跳转目标）
+     */
+    static boolean readOnlyParam(ArrayList<Instruction> gBody, int slot){
+        HashSet<Integer> branchTargets = new HashSet<>();
+        for(int i=0; i<gBody.size(); i++){
+            Instruction ins = gBody.get(i);
+            if(ControlFlowGraph.isBranch(ins.getOpt()))
+                branchTargets.add(i + ins.getIntX() + 1);
+        }
+        for(int i=0; i<gBody.size(); i++){
+            Instruction ins = gBody.get(i);
+            if(ins.getOpt() == Operation.arga && ins.getIntX() == slot){
+                if(i + 1 >= gBody.size() || gBody.get(i + 1).getOpt() != Operation.load_64 ||
+                        branchTargets.contains(i + 1))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 实参是常量或调用者的局部变量/参数时，可以在被调函数中直接代入，
+     * 调用者的局部变量和参数在被调函数执行期间不会被修改
+     */
+    private boolean simpleArg(int from, int to){
+        if(to - from == 1)
+            return body.get(from).getOpt() == Operation.push;
+        if(to - from == 2){
+            Operation op = body.get(from).getOpt();
+            return (op == Operation.loca || op == Operation.arga) && body.get(from + 1).getOpt() == Operation.load_64;
+        }
+        return false;
+    }
+
+    /**
+     * 把 body[s..c] 替换为参数赋值和被调函数体
+     */
+    private void inline(int s, int c, int[] args, FnInstruct g, int siteDepth){
+        int p = g.getParamSlots();
+        int r = g.getReturnSlots();
+        ArrayList<Instruction> gBody = g.getFnBody();
+        int base = f.getLocSlots();
+        int paramBase = base + g.getLocSlots();
+        int retSlot = paramBase + p;
+        int retArga = forwardableReturn(g);
+        f.setLocSlots(retArga >= 0 ? retSlot : retSlot + r);
+
+        ArrayList<Instruction> seq = new ArrayList<>();
+        // 直接代入的实参，下标为被调函数中的 arga 编号
+        HashMap<Integer, Instruction> substitute = new HashMap<>();
+        for(int j=0; j<p; j++){
+            int end = j + 1 < p ? args[j + 1] : c;
+            if(simpleArg(args[j], end) && readOnlyParam(gBody, r + j)){
+                substitute.put(r + j, body.get(args[j]));
+                continue;
+            }
+            seq.add(new Instruction(Operation.loca, paramBase + j, 4));
+            seq.addAll(body.subList(args[j], end));
+            seq.add(new Instruction(Operation.store_64));
+        }
+
+        Instruction join;
+        if(r > 0 && retArga < 0)
+            join = new Instruction(Operation.loca, retSlot, 4);
+        else
+            join = c + 1 < body.size() ? body.get(c + 1) : END;
+
+        // 被调函数中依赖初始 0 值的局部变量需要显式清零
+        HashSet<Integer> live = SlotColoring.entryLiveSlots(g);
+        for(int k=0; k<g.getLocSlots(); k++){
+            if(live == null || live.contains(k)){
+                seq.add(new Instruction(Operation.loca, base + k, 4));
+                seq.add(new Instruction(Operation.push, 0L, 8));
+                seq.add(new Instruction(Operation.store_64));
+            }
+        }
+
+        Instruction[] copyOf = new Instruction[gBody.size()];
+        int n = retArga >= 0 ? gBody.size() - 2 : gBody.size();
+        for(int k=0; k<n; k++){
+            Instruction gi = gBody.get(k);
+            int at = k;
+            if(k == retArga)
+                continue;
+            Instruction ci;
+            switch (gi.getOpt()) {
+                case arga:
+                    if(substitute.containsKey(gi.getIntX())){
+                        Instruction sub = substitute.get(gi.getIntX());
+                        ci = copy(sub);
+                        // push 代入时后面的 load_64 也不需要了
+                        if(sub.getOpt() == Operation.push)
+                            copyOf[++k] = ci;
+                    }
+                    else if(gi.getIntX() < r)
+                        ci = new Instruction(Operation.loca, retSlot + gi.getIntX(), 4);
+                    else
+                        ci = new Instruction(Operation.loca, paramBase + gi.getIntX() - r, 4);
+                    break;
+                case loca:
+                    ci = new Instruction(Operation.loca, base + gi.getIntX(), 4);
+                    break;
+                case ret:
+                    ci = new Instruction(Operation.br, 0, 4);
+                    targets.put(ci, join);
+                    break;
+                default:
+                    ci = copy(gi);
+                    if(gi.getOpt() == Operation.call)
+                        depth.put(ci, siteDepth + 1);
+            }
+            copyOf[at] = ci;
+            seq.add(ci);
+        }
+        if(retArga >= 0)
+            copyOf[retArga] = copyOf[retArga + 1];
+        for(int k=0; k<n; k++){
+            Instruction gi = gBody.get(k);
+            if(ControlFlowGraph.isBranch(gi.getOpt())){
+                int t = k + gi.getIntX() + 1;
+                targets.put(copyOf[k], t < n ? copyOf[t] : join);
+            }
+        }
+        if(r > 0 && retArga < 0){
+            seq.add(join);
+            seq.add(new Instruction(Operation.load_64));
+        }
+
+        Instruction first = body.get(s);
+        body.subList(s, c + 1).clear();
+        body.addAll(s, seq);
+        for(Map.Entry<Instruction, Instruction> e : targets.entrySet()){
+            if(e.getValue() == first)
+                e.setValue(seq.get(0));
+        }
+    }
+
+    /**
+     * 重新计算跳转距离并写回函数体
+     */
+    private void writeBack(){
+        IdentityHashMap<Instruction, Integer> index = new IdentityHashMap<>();
+        for(int i=0; i<body.size(); i++){
+            index.put(body.get(i), i);
+        }
+        for(int i=0; i<body.size(); i++){
+            Instruction ins = body.get(i);
+            if(ControlFlowGraph.isBranch(ins.getOpt())){
+                Instruction t = targets.get(ins);
+                int ti = t == END ? body.size() : index.get(t);
+                ins.setX(ti - i - 1);
+            }
+        }
+        f.setFnBody(body);
+    }
+}
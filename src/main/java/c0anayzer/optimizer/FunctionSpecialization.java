@@ -0,0 +1,251 @@
+package c0anayzer.optimizer;
+
+import c0anayzer.instruction.Instruction;
+import c0anayzer.instruction.Operation;
+import c0anayzer.midcode.FnInstruct;
+import c0anayzer.midcode.FnParam;
+import c0anayzer.midcode.MidCode;
+
+import java.util.*;
+
+/**
+ * 函数特化：
+ * 调用点传入常量参数（push c）时，为 被调函数+常量参数组合 生成一个拷贝，
+ * 拷贝中去掉这些参数，只读参数的读取直接换成 push c，被写的参数改为入口处赋值的局部变量，
+ * 调用点去掉这些参数的 push 并改为调用拷贝。之后的常量传播会把常量继续传下去。
+ * 相同的组合共用一个拷贝，调用点多的组合先特化，增加的代码量有上限
+ */
+public class FunctionSpecialization {
+    /** 被特化函数的最大指令数 */
+    private static final int MAX_CALLEE_SIZE = 300;
+    /** 每个函数最多的特化版本数 */
+    private static final int MAX_CLONES_PER_FUNCTION = 4;
+    /** 增加的指令数上限至少是这么多 */
+    private static final int MIN_BUDGET = 200;
+    /** 增加的指令数上限占原程序大小的比例（分母） */
+    private static final int BUDGET_RATIO = 4;
+
+    /** 表示跳到函数末尾 */
+    private static final Instruction END = new Instruction(Operation.nop);
+
+    /** 一个调用点 */
+    private static class Site {
+        FnInstruct caller;
+        Instruction call;
+        /** 常量参数的 push 指令，参数序号 -> 指令 */
+        TreeMap<Integer, Instruction> pushes = new TreeMap<>();
+    }
+
+    private MidCode m;
+    /** 特化的组合 -> 调用点 */
+    private LinkedHashMap<String, ArrayList<Site>> groups = new LinkedHashMap<>();
+    private HashMap<String, FnInstruct> callees = new HashMap<>();
+
+    private FunctionSpecialization(MidCode m){
+        this.m = m;
+    }
+
+    /**
+     * 对整个程序做特化
+     * @param m 中间代码
+     * @return 改为调用特化版本的调用点个数
+     */
+    public static int optimize(MidCode m){
+        FunctionSpecialization fs = new FunctionSpecialization(m);
+        int size = 0;
+        for(FnInstruct f : m.fnList){
+            size += f.getFnBody().size();
+            fs.collectSites(f);
+        }
+
+        ArrayList<String> keys = new ArrayList<>(fs.groups.keySet());
+        keys.sort((a, b) -> fs.groups.get(b).size() - fs.groups.get(a).size());
+        int budget = Math.max(MIN_BUDGET, size / BUDGET_RATIO);
+        HashMap<FnInstruct, Integer> clones = new HashMap<>();
+        int retargeted = 0;
+        for(String key : keys){
+            FnInstruct g = fs.callees.get(key);
+            ArrayList<Site> sites = fs.groups.get(key);
+            int cost = g.getFnBody().size();
+            if(cost > budget || clones.getOrDefault(g, 0) >= MAX_CLONES_PER_FUNCTION)
+                continue;
+            budget -= cost;
+            clones.merge(g, 1, Integer::sum);
+            FnInstruct clone = fs.specialize(g, sites.get(0).pushes);
+            for(Site s : sites){
+                fs.retarget(s, clone);
+                retargeted++;
+            }
+        }
+        return retargeted;
+    }
+
+    /**
+     * 找出函数中传入常量参数的调用点
+     */
+    private void collectSites(FnInstruct f){
+        ArrayList<Instruction> body = f.getFnBody();
+        for(int i=0; i<body.size(); i++){
+            Instruction ins = body.get(i);
+            if(ins.getOpt() != Operation.call)
+                continue;
+            FnInstruct g = m.getFnByAddress(ins.getIntX());
+            int p = g.getParamSlots();
+            if(p == 0 || g == f || g.getFnBody().size() > MAX_CALLEE_SIZE)
+                continue;
+            int[] args = StackEffect.callSite(body, i, g.getReturnSlots(), p);
+            if(args == null)
+                continue;
+            Site s = new Site();
+            s.caller = f;
+            s.call = ins;
+            for(int j=0; j<p; j++){
+                int end = j + 1 < p ? args[j + 2] : i;
+                if(end == args[j + 1] + 1 && body.get(args[j + 1]).getOpt() == Operation.push)
+                    s.pushes.put(j, body.get(args[j + 1]));
+            }
+            if(s.pushes.isEmpty())
+                continue;
+            StringBuilder key = new StringBuilder().append(ins.getIntX());
+            for(Map.Entry<Integer, Instruction> e : s.pushes.entrySet()){
+                key.append(' ').append(e.getKey()).append('=').append(e.getValue().getX());
+            }
+            groups.computeIfAbsent(key.toString(), k -> new ArrayList<>()).add(s);
+            callees.put(key.toString(), g);
+        }
+    }
+
+    /**
+     * 生成去掉常量参数的拷贝
+     * @param g 被调函数
+     * @param constants 参数序号 -> push 指令
+     * @return 拷贝
+     */
+    private FnInstruct specialize(FnInstruct g, TreeMap<Integer, Instruction> constants){
+        int r = g.getReturnSlots();
+        int p = g.getParamSlots();
+        int n = 0;
+        String name;
+        do {
+            name = g.getFnName() + "#" + n++;
+        } while(m.globalSymbol.contains(name));
+
+        FnInstruct clone = new FnInstruct(name);
+        clone.setReturnSlots(r);
+        clone.setReturnType(g.getReturnType());
+        clone.setParamSlots(p - constants.size());
+        clone.setLocSlots(g.getLocSlots());
+        ArrayList<FnParam> params = new ArrayList<>();
+        for(int j=0; j<g.getParamTable().size(); j++){
+            if(!constants.containsKey(j))
+                params.add(g.getParamTable().get(j));
+        }
+        clone.setParamTable(params);
+
+        ArrayList<Instruction> gBody = g.getFnBody();
+        ArrayList<Instruction> body = new ArrayList<>();
+        for(Instruction i : gBody){
+            body.add(new Instruction(i.getOpt(), i.getX(), i.getSize()));
+        }
+        IdentityHashMap<Instruction, Instruction> targets = branchTargets(body);
+
+        // 参数序号 -> 新的 arga 编号或代替它的局部变量
+        HashMap<Integer, Integer> newSlot = new HashMap<>();
+        HashMap<Integer, Integer> local = new HashMap<>();
+        ArrayList<Instruction> init = new ArrayList<>();
+        int removed = 0;
+        for(int j=0; j<p; j++){
+            if(!constants.containsKey(j)){
+                newSlot.put(j, r + j - removed);
+                continue;
+            }
+            removed++;
+            if(!FunctionInlining.readOnlyParam(gBody, r + j)){
+                clone.setLocSlots(clone.getLocSlots() + 1);
+                local.put(j, clone.getLocSlots() - 1);
+                init.add(new Instruction(Operation.loca, clone.getLocSlots() - 1, 4));
+                init.add(new Instruction(Operation.push, constants.get(j).getX(), 8));
+                init.add(new Instruction(Operation.store_64));
+            }
+        }
+
+        Set<Instruction> dropped = Collections.newSetFromMap(new IdentityHashMap<>());
+        for(int i=0; i<body.size(); i++){
+            Instruction ins = body.get(i);
+            if(ins.getOpt() != Operation.arga || ins.getIntX() < r)
+                continue;
+            int j = ins.getIntX() - r;
+            if(newSlot.containsKey(j)){
+                ins.setX(newSlot.get(j));
+            }
+            else if(local.containsKey(j)){
+                ins.setOpt(Operation.loca);
+                ins.setX(local.get(j));
+            }
+            else {
+                // 只读参数：arga; load_64 换成 push c，load_64 不会是跳转目标
+                Instruction c = new Instruction(Operation.push, constants.get(j).getX(), 8);
+                body.set(i, c);
+                for(Map.Entry<Instruction, Instruction> e : targets.entrySet()){
+                    if(e.getValue() == ins)
+                        e.setValue(c);
+                }
+                dropped.add(body.get(i + 1));
+            }
+        }
+        body.removeIf(dropped::contains);
+        fixBranches(body, targets);
+        body.addAll(0, init);
+        clone.setFnBody(body);
+
+        // o0 文件中 _start 是第 0 个函数，其余函数按 fnList 的顺序编号，所以 _start 要留在最后
+        int at = m.fnList.size();
+        while(at > 0 && !m.fnList.get(at - 1).getFnName().equals("_start"))
+            at--;
+        m.fnList.add(at > 0 ? at - 1 : m.fnList.size(), clone);
+        m.globalSymbol.add(name);
+        return clone;
+    }
+
+    /**
+     * 调用点去掉常量参数并改为调用拷贝
+     */
+    private void retarget(Site s, FnInstruct clone){
+        ArrayList<Instruction> body = s.caller.getFnBody();
+        IdentityHashMap<Instruction, Instruction> targets = branchTargets(body);
+        Set<Instruction> dropped = Collections.newSetFromMap(new IdentityHashMap<>());
+        dropped.addAll(s.pushes.values());
+        body.removeIf(dropped::contains);
+        fixBranches(body, targets);
+        s.call.setX(m.fnList.indexOf(clone) + 1);
+    }
+
+    /**
+     * 记下每条跳转指令的目标指令
+     */
+    private static IdentityHashMap<Instruction, Instruction> branchTargets(ArrayList<Instruction> body){
+        IdentityHashMap<Instruction, Instruction> targets = new IdentityHashMap<>();
+        for(int k=0; k<body.size(); k++){
+            Instruction b = body.get(k);
+            if(ControlFlowGraph.isBranch(b.getOpt())){
+                int t = k + b.getIntX() + 1;
+                targets.put(b, t < body.size() ? body.get(t) : END);
+            }
+        }
+        return targets;
+    }
+
+    /**
+     * 删除指令后按目标指令重新计算跳转距离
+     */
+    private static void fixBranches(ArrayList<Instruction> body, IdentityHashMap<Instruction, Instruction> targets){
+        IdentityHashMap<Instruction, Integer> index = new IdentityHashMap<>();
+        for(int k=0; k<body.size(); k++){
+            index.put(body.get(k), k);
+        }
+        index.put(END, body.size());
+        for(Map.Entry<Instruction, Instruction> e : targets.entrySet()){
+            e.getKey().setX(index.get(e.getValue()) - index.get(e.getKey()) - 1);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package c0anayzer.optimizer;
+
+import c0anayzer.instruction.Instruction;
+import c0anayzer.instruction.Operation;
+import c0anayzer.midcode.FnInstruct;
+import c0anayzer.midcode.MidCode;
+
+import java.util.*;
+
+/**
+ * 相同函数合并：
+ * 返回值、参数、局部变量的个数和函数体都相同的函数只保留第一个，
+ * 调用其余函数的 call 改为调用保留的函数，再删掉其余函数和它们的函数名。
+ * 调用自己的 call 按“调用自己”比较，所以相同的递归函数也能合并。
+ * 合并后调用它们的函数可能也变得相同，重复到没有变化为止。
+ * _start 和 main 不参与合并
+ */
+public class IdenticalFunctionFolding {
+
+    /**
+     * 对整个程序做合并
+     * @param m 中间代码
+     * @return 删除的函数个数
+     */
+    public static int optimize(MidCode m){
+        int folded = 0;
+        while(true){
+            HashMap<String, FnInstruct> canonical = new HashMap<>();
+            LinkedHashMap<FnInstruct, FnInstruct> replace = new LinkedHashMap<>();
+            for(FnInstruct f : m.fnList){
+                if(f.getFnName().equals("_start") || f.getFnName().equals("main"))
+                    continue;
+                FnInstruct c = canonical.putIfAbsent(key(m, f), f);
+                if(c != null)
+                    replace.put(f, c);
+            }
+            if(replace.isEmpty())
+                return folded;
+
+            for(FnInstruct f : m.fnList){
+                for(Instruction i : f.getFnBody()){
+                    if(i.getOpt() != Operation.call)
+                        continue;
+                    FnInstruct c = replace.get(m.getFnByAddress(i.getIntX()));
+                    if(c != null)
+                        i.setX(m.fnList.indexOf(c) + 1);
+                }
+            }
+            for(FnInstruct f : replace.keySet()){
+                m.removeFunction(f);
+                folded++;
+            }
+        }
+    }
+
+    /**
+     * 函数的内容，内容相同的函数可以合并
+     */
+    private static String key(MidCode m, FnInstruct f){
+        StringBuilder sb = new StringBuilder();
+        sb.append(f.getReturnSlots()).append(' ').append(f.getParamSlots()).append(' ').append(f.getLocSlots());
+        for(Instruction i : f.getFnBody()){
+            sb.append('\n').append(i.getOpt());
+            if(i.getOpt() == Operation.call && m.getFnByAddress(i.getIntX()) == f)
+                sb.append(" self");
+            else if(i.hasX())
+                sb.append(' ').append(i.getX()).append(' ').append(i.getSize());
+        }
+        return sb.toString();
+    }
+}
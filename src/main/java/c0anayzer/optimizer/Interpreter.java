@@ -0,0 +1,212 @@
+package c0anayzer.optimizer;
+
+import c0anayzer.instruction.Instruction;
+import c0anayzer.instruction.Operation;
+import c0anayzer.midcode.FnInstruct;
+import c0anayzer.midcode.MidCode;
+
+import java.util.ArrayList;
+
+/**
+ * 编译期解释器：按虚拟机的语义执行不读写全局变量、不做输入输出的函数。
+ * 执行步数和调用深度都有上限，超出上限或遇到运行时错误（除数为 0、panic 等）时放弃
+ */
+public class Interpreter {
+    /** 地址的标记位，与普通整数区分 */
+    private static final long LOCAL = 1L << 62;
+    private static final long ARG = 1L << 61;
+    private static final long INDEX = (1L << 32) - 1;
+
+    /** 放弃求值 */
+    private static class Abort extends Exception {
+        private static final long serialVersionUID = 1L;
+    }
+
+    private MidCode m;
+    private long steps;
+    private int maxDepth;
+    private int depth = 0;
+    private long[] stack = new long[1 << 12];
+    private int sp = 0;
+
+    /**
+     * @param m 中间代码
+     * @param steps 最多执行的指令数
+     * @param maxDepth 最大调用深度
+     */
+    public Interpreter(MidCode m, long steps, int maxDepth){
+        this.m = m;
+        this.steps = steps;
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * 执行一个函数
+     * @param f 函数
+     * @param args 参数
+     * @return 返回值（没有返回值时为空数组），不能求值时返回 null
+     */
+    public long[] call(FnInstruct f, long[] args){
+        sp = 0;
+        try {
+            for(int i=0; i<f.getReturnSlots(); i++){
+                push(0);
+            }
+            for(long a : args){
+                push(a);
+            }
+            exec(f);
+        } catch (Abort e) {
+            return null;
+        }
+        long[] result = new long[sp];
+        System.arraycopy(stack, 0, result, 0, sp);
+        return result;
+    }
+
+    /**
+     * 剩下的步数，小于 0 时表示因为步数用完而放弃
+     */
+    public long getSteps() {
+        return steps;
+    }
+
+    private void push(long v) throws Abort {
+        if(sp >= stack.length)
+            throw new Abort();
+        stack[sp++] = v;
+    }
+
+    private long pop() throws Abort {
+        if(sp <= 0)
+            throw new Abort();
+        return stack[--sp];
+    }
+
+    private void exec(FnInstruct f) throws Abort {
+        if(++depth > maxDepth)
+            throw new Abort();
+        int r = f.getReturnSlots();
+        long[] args = new long[r + f.getParamSlots()];
+        for(int i=args.length-1; i>=0; i--){
+            args[i] = pop();
+        }
+        long[] locs = new long[f.getLocSlots()];
+        int base = sp;
+        ArrayList<Instruction> body = f.getFnBody();
+        int ip = 0;
+        while(ip < body.size()){
+            if(--steps < 0)
+                throw new Abort();
+            Instruction ins = body.get(ip++);
+            Operation op = ins.getOpt();
+            switch (op) {
+                case nop:
+                    break;
+                case push:
+                    push(ins.getX());
+                    break;
+                case pop:
+                    pop();
+                    break;
+                case popn:
+                    for(int i=0; i<ins.getIntX(); i++){
+                        pop();
+                    }
+                    break;
+                case dup: {
+                    long v = pop();
+                    push(v);
+                    push(v);
+                    break;
+                }
+                case loca:
+                    if(ins.getIntX() < 0 || ins.getIntX() >= locs.length)
+                        throw new Abort();
+                    push(LOCAL | ins.getIntX());
+                    break;
+                case arga:
+                    if(ins.getIntX() < 0 || ins.getIntX() >= args.length)
+                        throw new Abort();
+                    push(ARG | ins.getIntX());
+                    break;
+                case load_64: {
+                    long a = pop();
+                    push(address(a, locs, args)[(int) (a & INDEX)]);
+                    break;
+                }
+                case store_64: {
+                    long v = pop();
+                    long a = pop();
+                    address(a, locs, args)[(int) (a & INDEX)] = v;
+                    break;
+                }
+                case stackalloc:
+                    for(int i=0; i<ins.getIntX(); i++){
+                        push(0);
+                    }
+                    break;
+                case br:
+                    ip += ins.getIntX();
+                    break;
+                case br_true:
+                    if(pop() != 0)
+                        ip += ins.getIntX();
+                    break;
+                case br_false:
+                    if(pop() == 0)
+                        ip += ins.getIntX();
+                    break;
+                case call: {
+                    FnInstruct g = m.getFnByAddress(ins.getIntX());
+                    if(g.getFnName().equals("_start"))
+                        throw new Abort();
+                    exec(g);
+                    break;
+                }
+                case ret:
+                    if(sp != base)
+                        throw new Abort();
+                    for(int i=0; i<r; i++){
+                        push(args[i]);
+                    }
+                    depth--;
+                    return;
+                default: {
+                    // 全局变量、输入输出、panic 都不能在编译期执行
+                    if(!StackEffect.isPureArith(op))
+                        throw new Abort();
+                    Long v;
+                    if(StackEffect.pops(ins) == 2){
+                        long b = pop();
+                        long a = pop();
+                        v = ConstantFolding.apply(op, a, b);
+                    }
+                    else {
+                        v = ConstantFolding.apply(op, pop());
+                    }
+                    if(v == null)
+                        throw new Abort();
+                    push(v);
+                }
+            }
+            if(ip < 0 || ip > body.size())
+                throw new Abort();
+        }
+        // 只有 _start 可以执行到末尾
+        throw new Abort();
+    }
+
+    private static long[] address(long a, long[] locs, long[] args) throws Abort {
+        long[] area;
+        if((a & LOCAL) != 0)
+            area = locs;
+        else if((a & ARG) != 0)
+            area = args;
+        else
+            throw new Abort();
+        if((a & INDEX) >= area.length)
+            throw new Abort();
+        return area;
+    }
+}
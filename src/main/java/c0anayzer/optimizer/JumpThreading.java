@@ -0,0 +1,115 @@
+package c0anayzer.optimizer;
+
+import c0anayzer.instruction.Instruction;
+import c0anayzer.instruction.Operation;
+import c0anayzer.midcode.FnInstruct;
+import c0anayzer.midcode.MidCode;
+
+import java.util.HashSet;
+
+/**
+ * 跳转穿透：
+ * 跳到空块（只有一条 br）的跳转直接指向最终目标，
+ * 跳到单独 ret 的 br 直接替换为 ret，
+ * 只有一个前驱的后继块合并进前驱，
+ * 输出时省略跳到下一块的 br；条件跳转的目标恰好是下一块时反转条件，
+ * 改为跳到原来顺序执行的一侧，省去一条 br
+ */
+public class JumpThreading {
+
+    public static void optimize(MidCode m){
+        for(FnInstruct f : m.fnList){
+            optimize(f);
+        }
+    }
+
+    public static void optimize(FnInstruct f){
+        ControlFlowGraph cfg = ControlFlowGraph.build(f);
+        boolean changed = true;
+        while(changed){
+            changed = threadJumps(cfg);
+            changed |= cfg.removeUnreachable();
+            changed |= mergeBlocks(cfg);
+        }
+        cfg.writeBack();
+    }
+
+    /**
+     * 将所有后继替换为跳转链的最终目标
+     * @return 是否有修改
+     */
+    private static boolean threadJumps(ControlFlowGraph cfg){
+        boolean changed = false;
+        for(BasicBlock b : cfg.blocks){
+            BasicBlock t = finalTarget(cfg, b.jumpTarget);
+            if(t != b.jumpTarget){
+                b.jumpTarget = t;
+                changed = true;
+            }
+            t = finalTarget(cfg, b.fallThrough);
+            if(t != b.fallThrough){
+                b.fallThrough = t;
+                changed = true;
+            }
+            // br 到一个只有 ret 的块，直接返回
+            if(b.endsWithBr() && b.jumpTarget.isEmpty() && b.jumpTarget.endsWithExit()){
+                b.terminator = new Instruction(b.jumpTarget.terminator.getOpt());
+                b.jumpTarget = null;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * 沿着空块一直找到真正执行指令的块
+     * @param cfg 控制流图
+     * @param b 起点
+     * @return 最终目标
+     */
+    private static BasicBlock finalTarget(ControlFlowGraph cfg, BasicBlock b){
+        HashSet<BasicBlock> seen = new HashSet<>();
+        while(b != null && b != cfg.exit && b.isEmpty() && seen.add(b)){
+            if(b.endsWithBr()){
+                b = b.jumpTarget;
+            }
+            else if(b.terminator == null && b.fallThrough != null){
+                b = b.fallThrough;
+            }
+            else {
+                break;
+            }
+        }
+        return b;
+    }
+
+    /**
+     * 后继只有当前块一个前驱时，合并两个块
+     * @return 是否有修改
+     */
+    private static boolean mergeBlocks(ControlFlowGraph cfg){
+        boolean changed = false;
+        for(int i=0; i<cfg.blocks.size(); i++){
+            BasicBlock b = cfg.blocks.get(i);
+            BasicBlock s;
+            if(b.endsWithBr())
+                s = b.jumpTarget;
+            else if(b.terminator == null)
+                s = b.fallThrough;
+            else
+                continue;
+            if(s == null || s == b || s == cfg.exit || s == cfg.entry || s.predecessors.size() != 1)
+                continue;
+
+            b.instructions.addAll(s.instructions);
+            b.terminator = s.terminator;
+            b.jumpTarget = s.jumpTarget;
+            b.fallThrough = s.fallThrough;
+            cfg.blocks.remove(s);
+            cfg.computePredecessors();
+            changed = true;
+            i--;
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,340 @@
+package c0anayzer.optimizer;
+
+import c0anayzer.instruction.Instruction;
+import c0anayzer.instruction.Operation;
+import c0anayzer.midcode.FnInstruct;
+import c0anayzer.midcode.MidCode;
+
+import java.util.*;
+
+/**
+ * 基本块内的值编号（公共子表达式消除）。
+ * 在块内模拟操作数栈，给每个值一个编号，重复计算的纯表达式改为从变量读取：
+ * 如果已经有变量保存着这个值就直接读该变量，否则把第一次的结果存到新的局部变量里
+ */
+public class LocalValueNumbering {
+
+    /** 存临时变量的额外开销：loca t; store_64; loca t; load_64 */
+    private static final int TEMP_COST = 4;
+
+    /** 栈上的一个值 */
+    private static class Val {
+        int vn;
+        /** 计算这个值的指令区间，start < 0 表示不能整体替换 */
+        int start = -1;
+        int end = -1;
+        /** 如果这是一个地址，记录取地址的指令 */
+        Instruction loc;
+    }
+
+    /** 一次可以被替换的计算 */
+    private static class Occurrence {
+        int vn;
+        int start;
+        int end;
+        /** 当时保存着这个值的变量 */
+        Instruction holder;
+
+        int length(){
+            return end - start + 1;
+        }
+    }
+
+    private int nextVn = 0;
+    private HashMap<String, Integer> table = new HashMap<>();
+    private HashMap<Instruction, Integer> content = new HashMap<>();
+    private HashMap<Instruction, Integer> version = new HashMap<>();
+    private int globalEpoch = 0;
+    private int memoryEpoch = 0;
+    private ArrayList<Occurrence> occurrences = new ArrayList<>();
+
+    /**
+     * 对所有函数做值编号
+     * @param m 中间代码
+     * @return 消除的表达式个数
+     */
+    public static int optimize(MidCode m){
+        int eliminated = 0;
+        for(FnInstruct f : m.fnList){
+            eliminated += optimize(f);
+        }
+        return eliminated;
+    }
+
+    public static int optimize(FnInstruct f){
+        ControlFlowGraph cfg = ControlFlowGraph.build(f);
+        int eliminated = 0;
+        for(BasicBlock b : cfg.blocks){
+            eliminated += optimizeBlock(f, b.instructions);
+        }
+        if(eliminated > 0)
+            cfg.writeBack();
+        return eliminated;
+    }
+
+    /**
+     * 反复对块做一次最划算的替换，直到没有收益
+     * @return 消除的表达式个数
+     */
+    private static int optimizeBlock(FnInstruct f, ArrayList<Instruction> block){
+        int eliminated = 0;
+        while(true){
+            LocalValueNumbering lvn = new LocalValueNumbering();
+            lvn.simulate(block);
+            int n = lvn.applyBest(f, block);
+            if(n == 0)
+                break;
+            eliminated += n;
+        }
+        return eliminated;
+    }
+
+    private int fresh(){
+        return nextVn++;
+    }
+
+    private int number(String key){
+        Integer vn = table.get(key);
+        if(vn == null){
+            vn = fresh();
+            table.put(key, vn);
+        }
+        return vn;
+    }
+
+    private Val opaque(){
+        Val v = new Val();
+        v.vn = fresh();
+        return v;
+    }
+
+    private String versionKey(Instruction loc){
+        String k = version.getOrDefault(loc, 0) + "@" + memoryEpoch;
+        if(loc.getOpt() == Operation.globa)
+            k += "@" + globalEpoch;
+        return k;
+    }
+
+    private void clobberGlobals(){
+        content.keySet().removeIf(l -> l.getOpt() == Operation.globa);
+        globalEpoch++;
+    }
+
+    private void clobberAll(){
+        content.clear();
+        memoryEpoch++;
+    }
+
+    private static Val pop(ArrayDeque<Val> stack, LocalValueNumbering lvn){
+        return stack.isEmpty() ? lvn.opaque() : stack.pop();
+    }
+
+    /**
+     * 符号执行一个块，记录所有可以替换的计算
+     * @param block 指令
+     */
+    private void simulate(ArrayList<Instruction> block){
+        ArrayDeque<Val> stack = new ArrayDeque<>();
+        for(int i=0; i<block.size(); i++){
+            Instruction ins = block.get(i);
+            Operation op = ins.getOpt();
+            switch (op) {
+                case push: {
+                    Val v = new Val();
+                    v.vn = number("push " + ins.getX());
+                    v.start = v.end = i;
+                    stack.push(v);
+                    break;
+                }
+                case loca:
+                case arga:
+                case globa: {
+                    Val v = new Val();
+                    v.loc = new Instruction(op, ins.getX(), 4);
+                    v.vn = number(v.loc.toString());
+                    v.start = v.end = i;
+                    stack.push(v);
+                    break;
+                }
+                case load_64: {
+                    Val a = pop(stack, this);
+                    Val v = new Val();
+                    if(a.loc != null){
+                        Integer c = content.get(a.loc);
+                        v.vn = c != null ? c : number("load " + a.loc + " " + versionKey(a.loc));
+                        if(a.start >= 0 && a.end == i - 1){
+                            v.start = a.start;
+                            v.end = i;
+                        }
+                    }
+                    else {
+                        v.vn = fresh();
+                    }
+                    stack.push(v);
+                    break;
+                }
+                case store_64: {
+                    Val v = pop(stack, this);
+                    Val a = pop(stack, this);
+                    if(a.loc != null){
+                        version.put(a.loc, version.getOrDefault(a.loc, 0) + 1);
+                        content.put(a.loc, v.vn);
+                    }
+                    else {
+                        clobberAll();
+                    }
+                    break;
+                }
+                case dup: {
+                    Val a = pop(stack, this);
+                    Val c1 = new Val();
+                    Val c2 = new Val();
+                    c1.vn = c2.vn = a.vn;
+                    stack.push(c1);
+                    stack.push(c2);
+                    break;
+                }
+                case call: {
+                    for(int k=StackEffect.pops(ins); k>0; k--)
+                        pop(stack, this);
+                    int ret = MidCode.getMidCode().getFnByAddress(ins.getIntX()).getReturnSlots();
+                    for(int k=0; k<ret; k++)
+                        pop(stack, this);
+                    for(int k=0; k<ret; k++)
+                        stack.push(opaque());
+                    clobberGlobals();
+                    break;
+                }
+                case callname: {
+                    for(int k=StackEffect.pops(ins); k>0; k--)
+                        pop(stack, this);
+                    int ret = StackEffect.libReturns(MidCode.getMidCode().globalSymbol.get(ins.getIntX()));
+                    for(int k=0; k<ret; k++)
+                        pop(stack, this);
+                    for(int k=0; k<ret; k++)
+                        stack.push(opaque());
+                    break;
+                }
+                default: {
+                    if(StackEffect.isPureArith(op)){
+                        int n = StackEffect.pops(ins);
+                        Val b = pop(stack, this);
+                        Val a = n == 2 ? pop(stack, this) : null;
+                        Val v = new Val();
+                        String key;
+                        if(a == null){
+                            key = op + " " + b.vn;
+                        }
+                        else if(StackEffect.isCommutative(op) && a.vn > b.vn){
+                            key = op + " " + b.vn + " " + a.vn;
+                        }
+                        else {
+                            key = op + " " + a.vn + " " + b.vn;
+                        }
+                        v.vn = number(key);
+                        boolean contiguous = b.start >= 0 && b.end == i - 1 &&
+                                (a == null || (a.start >= 0 && a.end == b.start - 1));
+                        if(contiguous){
+                            v.start = a == null ? b.start : a.start;
+                            v.end = i;
+                            record(v);
+                        }
+                        stack.push(v);
+                    }
+                    else {
+                        for(int k=StackEffect.pops(ins); k>0; k--)
+                            pop(stack, this);
+                        for(int k=StackEffect.pushes(ins); k>0; k--)
+                            stack.push(opaque());
+                        if(op != Operation.pop && op != Operation.popn && op != Operation.stackalloc &&
+                                op != Operation.nop)
+                            clobberAll();
+                    }
+                }
+            }
+        }
+    }
+
+    private void record(Val v){
+        Occurrence o = new Occurrence();
+        o.vn = v.vn;
+        o.start = v.start;
+        o.end = v.end;
+        for(Map.Entry<Instruction, Integer> e : content.entrySet()){
+            if(e.getValue() == v.vn){
+                o.holder = e.getKey();
+                break;
+            }
+        }
+        occurrences.add(o);
+    }
+
+    /**
+     * 找出收益最大的值，把它后面的重复计算都替换成读变量
+     * @return 替换的个数
+     */
+    private int applyBest(FnInstruct f, ArrayList<Instruction> block){
+        LinkedHashMap<Integer, ArrayList<Occurrence>> groups = new LinkedHashMap<>();
+        for(Occurrence o : occurrences){
+            groups.computeIfAbsent(o.vn, k -> new ArrayList<>()).add(o);
+        }
+
+        int bestGain = 0;
+        ArrayList<Occurrence> best = null;
+        boolean bestTemp = false;
+        for(ArrayList<Occurrence> g : groups.values()){
+            if(g.size() < 2)
+                continue;
+            int holderGain = 0;
+            int tempGain = 0;
+            for(int k=1; k<g.size(); k++){
+                Occurrence o = g.get(k);
+                if(o.length() <= 2)
+                    continue;
+                if(o.holder != null)
+                    holderGain += o.length() - 2;
+                else
+                    tempGain += o.length() - 2;
+            }
+            boolean useTemp = tempGain > TEMP_COST;
+            int gain = holderGain + (useTemp ? tempGain - TEMP_COST : 0);
+            if(gain > bestGain){
+                bestGain = gain;
+                best = g;
+                bestTemp = useTemp;
+            }
+        }
+        if(best == null)
+            return 0;
+
+        Occurrence first = best.get(0);
+        Instruction temp = null;
+        if(bestTemp){
+            f.addLoc();
+            temp = new Instruction(Operation.loca, f.getNextLocOffset(), 4);
+        }
+
+        int replaced = 0;
+        for(int k=best.size()-1; k>=1; k--){
+            Occurrence o = best.get(k);
+            if(o.length() <= 2)
+                continue;
+            Instruction from = o.holder != null ? o.holder : temp;
+            if(from == null)
+                continue;
+            for(int i=o.end; i>=o.start; i--){
+                block.remove(i);
+            }
+            block.add(o.start, new Instruction(from.getOpt(), from.getX(), 4));
+            block.add(o.start + 1, new Instruction(Operation.load_64));
+            replaced++;
+        }
+        if(temp != null){
+            block.add(first.end + 1, new Instruction(Operation.store_64));
+            block.add(first.end + 2, new Instruction(Operation.loca, temp.getX(), 4));
+            block.add(first.end + 3, new Instruction(Operation.load_64));
+            block.add(first.start, new Instruction(Operation.loca, temp.getX(), 4));
+        }
+        return replaced;
+    }
+}
@@ -0,0 +1,110 @@
+package c0anayzer.optimizer;
+
+import c0anayzer.instruction.Instruction;
+import c0anayzer.instruction.Operation;
+
+import java.util.*;
+
+/**
+ * 控制流图中的自然循环：
+ * 回边 latch -> header 中 header 支配 latch，
+ * 循环体是不经过 header 就能到达 latch 的所有块
+ */
+public class Loop {
+    public BasicBlock header;
+    /** 跳回 header 的块 */
+    public ArrayList<BasicBlock> latches = new ArrayList<>();
+    /** 循环中的所有块（包括 header） */
+    public HashSet<BasicBlock> blocks = new HashSet<>();
+
+    private Loop(BasicBlock header){
+        this.header = header;
+    }
+
+    /**
+     * 找出所有自然循环，同一个 header 的回边合并为一个循环
+     * @param cfg 控制流图
+     * @return 循环，内层循环（块少的）在前
+     */
+    public static ArrayList<Loop> find(ControlFlowGraph cfg){
+        HashMap<BasicBlock, HashSet<BasicBlock>> dom = cfg.dominators();
+        LinkedHashMap<BasicBlock, Loop> loops = new LinkedHashMap<>();
+        for(BasicBlock b : cfg.reversePostOrder()){
+            for(BasicBlock h : b.getSuccessors()){
+                if(!dom.get(b).contains(h))
+                    continue;
+                Loop l = loops.computeIfAbsent(h, Loop::new);
+                l.latches.add(b);
+                l.blocks.add(h);
+                Deque<BasicBlock> work = new ArrayDeque<>();
+                if(l.blocks.add(b))
+                    work.push(b);
+                while(!work.isEmpty()){
+                    BasicBlock x = work.pop();
+                    for(BasicBlock p : x.predecessors){
+                        if(dom.containsKey(p) && l.blocks.add(p))
+                            work.push(p);
+                    }
+                }
+            }
+        }
+        ArrayList<Loop> list = new ArrayList<>(loops.values());
+        list.sort(Comparator.comparingInt(l -> l.blocks.size()));
+        return list;
+    }
+
+    /**
+     * 在 header 前插入前置块，所有从循环外进入 header 的边改为进入前置块
+     * @param cfg 控制流图
+     * @return 前置块
+     */
+    public BasicBlock insertPreheader(ControlFlowGraph cfg){
+        BasicBlock pre = cfg.insertBlockBefore(header);
+        for(BasicBlock p : new ArrayList<>(header.predecessors)){
+            if(!blocks.contains(p))
+                p.replaceSuccessor(header, pre);
+        }
+        pre.fallThrough = header;
+        cfg.computePredecessors();
+        return pre;
+    }
+
+    /**
+     * 循环里是否有调用用户函数的指令（可能修改全局变量）
+     */
+    public boolean containsCall(){
+        for(BasicBlock b : blocks){
+            for(Instruction i : b.instructions){
+                if(i.getOpt() == Operation.call)
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 在循环中只被读取的变量：每个取地址指令后面都紧跟 load_64，
+     * 循环中有函数调用时全局变量都可能被修改
+     * @return 只读变量的取地址指令（如 loca 3）
+     */
+    public HashSet<String> readOnlyLocations(){
+        HashSet<String> seen = new HashSet<>();
+        HashSet<String> written = new HashSet<>();
+        for(BasicBlock b : blocks){
+            ArrayList<Instruction> list = b.instructions;
+            for(int i=0; i<list.size(); i++){
+                Instruction ins = list.get(i);
+                Operation op = ins.getOpt();
+                if(op != Operation.loca && op != Operation.arga && op != Operation.globa)
+                    continue;
+                seen.add(ins.toString());
+                if(i + 1 >= list.size() || list.get(i + 1).getOpt() != Operation.load_64)
+                    written.add(ins.toString());
+            }
+        }
+        if(containsCall())
+            seen.removeIf(s -> s.startsWith(Operation.globa.toString()));
+        seen.removeAll(written);
+        return seen;
+    }
+}
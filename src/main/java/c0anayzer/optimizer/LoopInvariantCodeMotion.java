@@ -0,0 +1,186 @@
+package c0anayzer.optimizer;
+
+import c0anayzer.instruction.Instruction;
+import c0anayzer.instruction.Operation;
+import c0anayzer.midcode.FnInstruct;
+import c0anayzer.midcode.MidCode;
+
+import java.util.*;
+
+/**
+ * 循环不变量外提：
+ * 循环里只读的变量、常量以及由它们经纯运算得到的表达式，
+ * 在循环前置块中计算一次存入新的局部变量，循环中改为读这个变量。
+ * 整数除法可能因为除数为 0 出错，不外提
+ */
+public class LoopInvariantCodeMotion {
+
+    /** 外提的最短表达式长度，再短的话读临时变量并不更省 */
+    private static final int MIN_LENGTH = 3;
+
+    /** 栈上的一个值 */
+    private static class Val {
+        /** 计算这个值的指令区间，-1 表示不是连续计算出来的 */
+        int start = -1;
+        int end = -1;
+        boolean invariant;
+        boolean address;
+    }
+
+    /** 一段可以外提的表达式 */
+    private static class Range {
+        BasicBlock block;
+        int start;
+        int end;
+
+        Range(BasicBlock block, int start, int end){
+            this.block = block;
+            this.start = start;
+            this.end = end;
+        }
+
+        boolean contains(Range o){
+            return block == o.block && start <= o.start && o.end <= end && o != this;
+        }
+    }
+
+    /**
+     * 对所有函数做循环不变量外提
+     * @param m 中间代码
+     * @return 外提的表达式个数
+     */
+    public static int optimize(MidCode m){
+        int hoisted = 0;
+        for(FnInstruct f : m.fnList){
+            hoisted += optimize(f);
+        }
+        return hoisted;
+    }
+
+    public static int optimize(FnInstruct f){
+        int hoisted = 0;
+        boolean changed = true;
+        while(changed){
+            changed = false;
+            ControlFlowGraph cfg = ControlFlowGraph.build(f);
+            // 每次只处理一个循环，外提之后重新建图，外层循环可以继续外提前置块中的表达式
+            for(Loop l : Loop.find(cfg)){
+                int n = hoist(f, cfg, l);
+                if(n > 0){
+                    cfg.writeBack();
+                    hoisted += n;
+                    changed = true;
+                    break;
+                }
+            }
+        }
+        return hoisted;
+    }
+
+    private static boolean canHoist(Operation op){
+        return StackEffect.isPureArith(op) && op != Operation.div_i && op != Operation.div_u;
+    }
+
+    /**
+     * 找出循环中所有极大的不变表达式，移到前置块
+     * @return 外提的表达式个数
+     */
+    private static int hoist(FnInstruct f, ControlFlowGraph cfg, Loop l){
+        HashSet<String> readOnly = l.readOnlyLocations();
+        ArrayList<Range> ranges = new ArrayList<>();
+        for(BasicBlock b : l.blocks){
+            ranges.addAll(invariantRanges(b, readOnly));
+        }
+        ranges.removeIf(r -> r.end - r.start + 1 < MIN_LENGTH);
+        ranges.removeIf(r -> ranges.stream().anyMatch(o -> o.contains(r)));
+        if(ranges.isEmpty())
+            return 0;
+
+        // 相同的表达式共用一个临时变量
+        LinkedHashMap<String, Integer> temps = new LinkedHashMap<>();
+        LinkedHashMap<String, List<Instruction>> code = new LinkedHashMap<>();
+        ranges.sort((a, b) -> b.start - a.start);
+        for(Range r : ranges){
+            List<Instruction> expr = new ArrayList<>(r.block.instructions.subList(r.start, r.end + 1));
+            String key = expr.toString();
+            if(!temps.containsKey(key)){
+                f.addLoc();
+                temps.put(key, f.getNextLocOffset());
+                code.put(key, expr);
+            }
+            r.block.instructions.subList(r.start, r.end + 1).clear();
+            r.block.instructions.add(r.start, new Instruction(Operation.loca, temps.get(key), 4));
+            r.block.instructions.add(r.start + 1, new Instruction(Operation.load_64));
+        }
+
+        BasicBlock pre = l.insertPreheader(cfg);
+        for(Map.Entry<String, List<Instruction>> e : code.entrySet()){
+            pre.instructions.add(new Instruction(Operation.loca, temps.get(e.getKey()), 4));
+            for(Instruction i : e.getValue()){
+                pre.instructions.add(new Instruction(i.getOpt(), i.getX(), i.getSize()));
+            }
+            pre.instructions.add(new Instruction(Operation.store_64));
+        }
+        return ranges.size();
+    }
+
+    /**
+     * 在块内模拟操作数栈，找出所有操作数都不变的纯运算
+     */
+    private static ArrayList<Range> invariantRanges(BasicBlock b, HashSet<String> readOnly){
+        ArrayList<Range> ranges = new ArrayList<>();
+        ArrayDeque<Val> stack = new ArrayDeque<>();
+        ArrayList<Instruction> list = b.instructions;
+        for(int i=0; i<list.size(); i++){
+            Instruction ins = list.get(i);
+            Operation op = ins.getOpt();
+            Val v = new Val();
+            switch (op) {
+                case push:
+                    v.start = v.end = i;
+                    v.invariant = true;
+                    stack.push(v);
+                    break;
+                case loca:
+                case arga:
+                case globa:
+                    v.start = v.end = i;
+                    v.invariant = readOnly.contains(ins.toString());
+                    v.address = true;
+                    stack.push(v);
+                    break;
+                case load_64: {
+                    Val a = stack.isEmpty() ? new Val() : stack.pop();
+                    if(a.invariant && a.address && a.end == i - 1){
+                        v.start = a.start;
+                        v.end = i;
+                        v.invariant = true;
+                    }
+                    stack.push(v);
+                    break;
+                }
+                default: {
+                    int pops = StackEffect.pops(ins);
+                    boolean invariant = canHoist(op);
+                    // 操作数必须紧挨着，中间没有别的计算
+                    int next = i;
+                    for(int k=0; k<pops; k++){
+                        Val a = stack.isEmpty() ? new Val() : stack.pop();
+                        invariant &= a.invariant && !a.address && a.start >= 0 && a.end == next - 1;
+                        next = a.start;
+                    }
+                    if(invariant){
+                        v.start = next;
+                        v.end = i;
+                        v.invariant = true;
+                        ranges.add(new Range(b, next, i));
+                    }
+                    for(int k=StackEffect.pushes(ins); k>0; k--){
+                        stack.push(k == 1 ? v : new Val());
+                    }
+                }
+            }
+        }
+        return ranges;
+    }
+}
@@ -0,0 +1,413 @@
+package c0anayzer.optimizer;
+
+import c0anayzer.instruction.Instruction;
+import c0anayzer.instruction.Operation;
+import c0anayzer.midcode.FnInstruct;
+import c0anayzer.midcode.MidCode;
+
+import java.util.*;
+
+/**
+ * 循环展开：
+ * 只有一个回边、回边所在块末尾是 i = i ± c 和只与 i、常量有关的条件的循环，
+ * 进入循环前 i 被赋为常量时，迭代次数在编译期就能算出来：
+ * 条件是 i 和常量的比较时直接算出次数，其他条件逐轮模拟，最多 MAX_SIMULATED_TRIPS 轮。
+ * 次数少的循环完全展开；次数多的按展开因子 U 展开，
+ * 余下的 N mod U 轮剥离到循环前面，循环中只有最后一份保留条件判断。
+ * 中途 break / return 的出口在每一份中照旧
+ */
+public class LoopUnrolling {
+    /** 默认展开因子 */
+    public static final int DEFAULT_FACTOR = 4;
+    /** 完全展开的最大迭代次数 */
+    private static final int MAX_FULL_TRIPS = 16;
+    /** 展开后循环的最大指令数 */
+    private static final int MAX_UNROLLED_SIZE = 256;
+    /** 条件不是和常量的比较时最多模拟的轮数 */
+    private static final long MAX_SIMULATED_TRIPS = 1 << 10;
+
+    /** 一个可以计算迭代次数的循环 */
+    private static class Counted {
+        Loop loop;
+        BasicBlock latch;
+        /** 回边所在块中条件的开始位置 */
+        int condition;
+        long trips;
+        int size;
+    }
+
+    /**
+     * 对所有函数做循环展开
+     * @param m 中间代码
+     * @param factor 部分展开的因子，小于 2 时只做完全展开
+     * @return 展开的循环个数
+     */
+    public static int optimize(MidCode m, int factor){
+        int unrolled = 0;
+        for(FnInstruct f : m.fnList){
+            unrolled += optimize(f, factor);
+        }
+        return unrolled;
+    }
+
+    public static int optimize(FnInstruct f, int factor){
+        int unrolled = 0;
+        // 不能展开的循环，用循环头的第一条指令标识，展开别的循环后不再重新分析
+        Set<Instruction> failed = Collections.newSetFromMap(new IdentityHashMap<>());
+        boolean changed = true;
+        while(changed){
+            changed = false;
+            ControlFlowGraph cfg = ControlFlowGraph.build(f);
+            for(Loop l : Loop.find(cfg)){
+                Instruction key = l.header.instructions.isEmpty() ? null : l.header.instructions.get(0);
+                if(failed.contains(key))
+                    continue;
+                Counted c = analyse(cfg, l);
+                if(c != null && unroll(cfg, c, factor)){
+                    cfg.writeBack();
+                    unrolled++;
+                    changed = true;
+                    break;
+                }
+                if(key != null)
+                    failed.add(key);
+            }
+        }
+        return unrolled;
+    }
+
+    /**
+     * 识别计数循环并计算迭代次数
+     * @return 不是计数循环时返回 null
+     */
+    private static Counted analyse(ControlFlowGraph cfg, Loop l){
+        if(l.latches.size() != 1)
+            return null;
+        BasicBlock latch = l.latches.get(0);
+        BasicBlock header = l.header;
+        if(!latch.endsWithCondBr())
+            return null;
+        BasicBlock out = latch.jumpTarget == header ? latch.fallThrough : latch.jumpTarget;
+        if(out == null || l.blocks.contains(out))
+            return null;
+        ArrayList<BasicBlock> outside = new ArrayList<>(header.predecessors);
+        outside.removeAll(l.blocks);
+        if(outside.size() != 1)
+            return null;
+
+        // 回边所在块中最后一次 loca x; loca x; load_64; push c; add_i/sub_i; store_64
+        ArrayList<Instruction> list = latch.instructions;
+        int u = -1;
+        for(int i=list.size()-6; i>=0 && u < 0; i--){
+            if(isUpdate(list, i))
+                u = i;
+        }
+        if(u < 0)
+            return null;
+        Instruction x = list.get(u);
+        long step = list.get(u + 3).getX();
+        if(list.get(u + 4).getOpt() == Operation.sub_i)
+            step = -step;
+        List<Instruction> condition = list.subList(u + 6, list.size());
+        if(StackEffect.heightAfter(condition, 0) != 1)
+            return null;
+
+        // 循环中 x 只在这一处被写
+        for(BasicBlock b : l.blocks){
+            if(writes(b.instructions, x, list.get(u)))
+                return null;
+        }
+        Long start = initialValue(outside.get(0), x);
+        if(start == null)
+            return null;
+
+        Long trips = closedForm(latch, header, condition, x, start, step);
+        if(trips == null)
+            trips = simulate(latch, header, condition, x, start, step);
+        if(trips == null)
+            return null;
+
+        Counted counted = new Counted();
+        counted.loop = l;
+        counted.latch = latch;
+        counted.condition = u + 6;
+        counted.trips = trips;
+        for(BasicBlock b : l.blocks){
+            counted.size += b.instructions.size() + 1;
+        }
+        return counted;
+    }
+
+    /**
+     * 条件的值为 c 时是否沿回边继续循环
+     */
+    private static boolean continues(BasicBlock latch, BasicBlock header, long c){
+        boolean taken = (c != 0) == (latch.terminator.getOpt() == Operation.br_true);
+        return (taken ? latch.jumpTarget : latch.fallThrough) == header;
+    }
+
+    /**
+     * 条件是 x 和常量 C 的 cmp_i，之后只有 not、set_lt、set_gt 时直接算出迭代次数：
+     * x 单调变化，比较结果依次是小于、等于、大于 C 三段，第一次不继续的一轮就是次数
+     * @return 条件不是这种形式、循环不结束或 x 在退出前溢出时返回 null
+     */
+    private static Long closedForm(BasicBlock latch, BasicBlock header, List<Instruction> condition,
+                                   Instruction x, long start, long step){
+        int cmp = -1;
+        for(int i=0; i<condition.size(); i++){
+            if(condition.get(i).getOpt() == Operation.cmp_i)
+                cmp = i;
+        }
+        if(cmp < 2)
+            return null;
+        List<Instruction> tail = condition.subList(cmp + 1, condition.size());
+        for(Instruction i : tail){
+            if(i.getOpt() != Operation.not && i.getOpt() != Operation.set_lt && i.getOpt() != Operation.set_gt)
+                return null;
+        }
+        boolean left;
+        List<Instruction> bound;
+        if(isLoad(condition, 0, x)){
+            left = true;
+            bound = condition.subList(2, cmp);
+        }
+        else if(isLoad(condition, cmp - 2, x)){
+            left = false;
+            bound = condition.subList(0, cmp - 2);
+        }
+        else {
+            return null;
+        }
+        Long c = ConstantFolding.evaluate(bound);
+        if(c == null)
+            return null;
+
+        // x 小于、等于、大于 C 时是否继续
+        boolean[] cont = new boolean[3];
+        for(int s=-1; s<=1; s++){
+            ArrayList<Instruction> list = new ArrayList<>();
+            list.add(new Instruction(Operation.push, (long) (left ? s : -s), 8));
+            list.addAll(tail);
+            Long r = ConstantFolding.evaluate(list);
+            if(r == null)
+                return null;
+            cont[s + 1] = continues(latch, header, r);
+        }
+
+        try {
+            long bd = c;
+            if(step < 0){
+                // 取相反数后 x 递增，小于和大于交换
+                start = Math.negateExact(start);
+                bd = Math.negateExact(bd);
+                step = -step;
+                boolean t = cont[0];
+                cont[0] = cont[2];
+                cont[2] = t;
+            }
+            long trips;
+            if(step == 0){
+                if(cont[Long.compare(start, bd) + 1])
+                    return null;
+                trips = 1;
+            }
+            else {
+                // 第一次大于等于、大于 C 的轮数，第一轮之后的检查是第 1 轮
+                long ge = firstAtLeast(start, step, bd);
+                long gt = bd == Long.MAX_VALUE ? Long.MAX_VALUE : firstAtLeast(start, step, bd + 1);
+                if(!cont[0] && ge > 1)
+                    trips = 1;
+                else if(!cont[1] && gt > ge)
+                    trips = ge;
+                else if(!cont[2])
+                    trips = gt;
+                else
+                    return null;
+            }
+            Math.addExact(start, Math.multiplyExact(trips, step));
+            return trips;
+        } catch (ArithmeticException e) {
+            return null;
+        }
+    }
+
+    /**
+     * start + k * step >= t 的最小的 k（k >= 1，step > 0）
+     */
+    private static long firstAtLeast(long start, long step, long t){
+        long d = Math.subtractExact(t, start);
+        return d <= step ? 1 : (d - 1) / step + 1;
+    }
+
+    /**
+     * 逐轮代入 x 的值计算条件：第一轮一定执行，之后每次回边前按条件决定是否继续
+     * @return 超过 MAX_SIMULATED_TRIPS 轮或条件不能求值时返回 null
+     */
+    private static Long simulate(BasicBlock latch, BasicBlock header, List<Instruction> condition,
+                                 Instruction x, long start, long step){
+        long trips = 1;
+        long v = start;
+        while(true){
+            v += step;
+            Long c = ConstantFolding.evaluate(substitute(condition, x, v));
+            if(c == null)
+                return null;
+            if(!continues(latch, header, c))
+                return trips;
+            if(++trips > MAX_SIMULATED_TRIPS)
+                return null;
+        }
+    }
+
+    private static boolean isUpdate(ArrayList<Instruction> list, int i){
+        Instruction a = list.get(i);
+        Operation op = list.get(i + 4).getOpt();
+        return a.getOpt() == Operation.loca && list.get(i + 1).getOpt() == Operation.loca &&
+                list.get(i + 1).getIntX() == a.getIntX() && list.get(i + 2).getOpt() == Operation.load_64 &&
+                list.get(i + 3).getOpt() == Operation.push && (op == Operation.add_i || op == Operation.sub_i) &&
+                list.get(i + 5).getOpt() == Operation.store_64;
+    }
+
+    private static boolean isLoad(List<Instruction> list, int i, Instruction x){
+        return list.get(i).getOpt() == Operation.loca && list.get(i).getIntX() == x.getIntX() &&
+                i + 1 < list.size() && list.get(i + 1).getOpt() == Operation.load_64;
+    }
+
+    /**
+     * 除了 except 之外是否有写 x 的地方
+     */
+    private static boolean writes(List<Instruction> list, Instruction x, Instruction except){
+        for(int i=0; i<list.size(); i++){
+            Instruction ins = list.get(i);
+            if(ins != except && ins.getOpt() == Operation.loca && ins.getIntX() == x.getIntX() && !isLoad(list, i, x))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * 沿唯一前驱向前找进入循环前最后一次给 x 赋的常量
+     */
+    private static Long initialValue(BasicBlock b, Instruction x){
+        HashSet<BasicBlock> seen = new HashSet<>();
+        while(seen.add(b)){
+            ArrayList<Instruction> list = b.instructions;
+            for(int i=list.size()-1; i>=0; i--){
+                Instruction ins = list.get(i);
+                if(ins.getOpt() != Operation.loca || ins.getIntX() != x.getIntX() || isLoad(list, i, x))
+                    continue;
+                if(i + 2 < list.size() && list.get(i + 1).getOpt() == Operation.push &&
+                        list.get(i + 2).getOpt() == Operation.store_64)
+                    return list.get(i + 1).getX();
+                return null;
+            }
+            if(b.predecessors.size() != 1)
+                return null;
+            b = b.predecessors.get(0);
+        }
+        return null;
+    }
+
+    /**
+     * 条件中的 loca x; load_64 换成 push v
+     */
+    private static ArrayList<Instruction> substitute(List<Instruction> condition, Instruction x, long v){
+        ArrayList<Instruction> list = new ArrayList<>();
+        for(int i=0; i<condition.size(); i++){
+            if(isLoad(condition, i, x)){
+                list.add(new Instruction(Operation.push, v, 8));
+                i++;
+            }
+            else {
+                list.add(condition.get(i));
+            }
+        }
+        return list;
+    }
+
+    /**
+     * 展开循环
+     * @return 是否展开
+     */
+    private static boolean unroll(ControlFlowGraph cfg, Counted c, int factor){
+        int peeled;
+        int copies;
+        if(c.trips <= MAX_FULL_TRIPS && c.trips * c.size <= MAX_UNROLLED_SIZE){
+            peeled = (int) c.trips;
+            copies = 0;
+        }
+        else if(factor >= 2 && c.trips >= 2L * factor){
+            peeled = (int) (c.trips % factor);
+            copies = factor;
+            if((long) (peeled + copies) * c.size > MAX_UNROLLED_SIZE)
+                return false;
+        }
+        else {
+            return false;
+        }
+
+        Loop l = c.loop;
+        ArrayList<BasicBlock> order = new ArrayList<>();
+        for(BasicBlock b : cfg.blocks){
+            if(l.blocks.contains(b))
+                order.add(b);
+        }
+        ArrayList<HashMap<BasicBlock, BasicBlock>> clones = new ArrayList<>();
+        for(int k=0; k<peeled+copies; k++){
+            HashMap<BasicBlock, BasicBlock> map = new HashMap<>();
+            for(BasicBlock b : order){
+                map.put(b, cfg.newBlock());
+            }
+            clones.add(map);
+        }
+
+        BasicBlock latch = c.latch;
+        BasicBlock out = latch.jumpTarget == l.header ? latch.fallThrough : latch.jumpTarget;
+        for(int k=0; k<clones.size(); k++){
+            HashMap<BasicBlock, BasicBlock> map = clones.get(k);
+            for(BasicBlock b : order){
+                BasicBlock nb = map.get(b);
+                if(b != latch || (copies > 0 && k == clones.size() - 1)){
+                    copy(b, nb, b.instructions.size(), map);
+                    if(b == latch)
+                        nb.replaceSuccessor(map.get(l.header), clones.get(peeled).get(l.header));
+                    continue;
+                }
+                // 中间的份不需要判断条件
+                copy(b, nb, c.condition, map);
+                nb.terminator = null;
+                nb.jumpTarget = null;
+                nb.fallThrough = k + 1 < clones.size() ? clones.get(k + 1).get(l.header) : out;
+            }
+        }
+
+        for(BasicBlock p : new ArrayList<>(l.header.predecessors)){
+            if(!l.blocks.contains(p))
+                p.replaceSuccessor(l.header, clones.get(0).get(l.header));
+        }
+        int at = cfg.blocks.indexOf(order.get(0));
+        cfg.blocks.removeAll(l.blocks);
+        ArrayList<BasicBlock> added = new ArrayList<>();
+        for(HashMap<BasicBlock, BasicBlock> map : clones){
+            for(BasicBlock b : order){
+                added.add(map.get(b));
+            }
+        }
+        cfg.blocks.addAll(at, added);
+        cfg.computePredecessors();
+        return true;
+    }
+
+    /**
+     * 复制块的前 n 条指令和跳转，循环内的后继换成同一份中的块
+     */
+    private static void copy(BasicBlock b, BasicBlock nb, int n, HashMap<BasicBlock, BasicBlock> map){
+        for(Instruction i : b.instructions.subList(0, n)){
+            nb.instructions.add(new Instruction(i.getOpt(), i.getX(), i.getSize()));
+        }
+        if(b.terminator != null)
+            nb.terminator = new Instruction(b.terminator.getOpt(), b.terminator.getX(), b.terminator.getSize());
+        nb.jumpTarget = map.getOrDefault(b.jumpTarget, b.jumpTarget);
+        nb.fallThrough = map.getOrDefault(b.fallThrough, b.fallThrough);
+    }
+}
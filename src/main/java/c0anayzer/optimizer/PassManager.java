@@ -0,0 +1,160 @@
+package c0anayzer.optimizer;
+
+import c0anayzer.midcode.FnInstruct;
+import c0anayzer.midcode.MidCode;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.function.ToIntFunction;
+
+/**
+ * 优化遍的管理：按顺序运行不高于优化等级的遍，
+ * 记录每个遍的结果、耗时和前后指令数的变化。
+ * 模块级的遍作用于整个 MidCode，函数级的遍对每个函数分别运行
+ */
+public class PassManager {
+    /** 不做优化 */
+    public static final int O0 = 0;
+    /** 只做不增加代码的局部优化 */
+    public static final int O1 = 1;
+    /** 全部优化，包括内联、特化、循环展开等会增加代码的优化 */
+    public static final int O2 = 2;
+
+    /** 一个优化遍 */
+    private static class Pass {
+        String name;
+        /** 结果的说明，如 "call sites inlined"，为 null 时不输出个数 */
+        String unit;
+        int level;
+        ToIntFunction<MidCode> run;
+
+        boolean ran = false;
+        int count;
+        long nanos;
+        int delta;
+    }
+
+    private ArrayList<Pass> passes = new ArrayList<>();
+    private int before;
+    private int after;
+
+    /**
+     * 添加模块级的遍
+     * @param level 在这个等级及以上运行
+     * @param name 名称
+     * @param unit 结果的说明
+     * @param run 运行，返回优化的个数
+     * @return this
+     */
+    public PassManager add(int level, String name, String unit, ToIntFunction<MidCode> run){
+        Pass p = new Pass();
+        p.name = name;
+        p.unit = unit;
+        p.level = level;
+        p.run = run;
+        passes.add(p);
+        return this;
+    }
+
+    /**
+     * 添加函数级的遍，对每个函数分别运行
+     */
+    public PassManager addFunctionPass(int level, String name, String unit, ToIntFunction<FnInstruct> run){
+        return add(level, name, unit, m -> {
+            int count = 0;
+            for(FnInstruct f : new ArrayList<>(m.fnList)){
+                count += run.applyAsInt(f);
+            }
+            return count;
+        });
+    }
+
+    public static PassManager standard(int unrollFactor){
+        return standard(unrollFactor, null);
+    }
+
+    /**
+     * 默认的优化流程。有执行剖面时内联参考调用次数，最后按剖面排列基本块和函数
+     * @param unrollFactor 循环部分展开的因子
+     * @param profile 执行剖面，可以为 null
+     * @return 优化遍的管理
+     */
+    public static PassManager standard(int unrollFactor, Profile profile){
+        PassManager pm = new PassManager();
+        ProfileGuidedLayout layout = profile == null ? null : new ProfileGuidedLayout(profile);
+        if(layout != null)
+            pm.add(O1, "profile", "blocks with counts", layout::attach);
+        pm.add(O1, "tail recursion", "calls turned into loops", TailRecursion::optimize)
+                .add(O1, "pure calls", "discarded results removed", PureCallElimination::optimize)
+                .add(O2, "compile-time evaluation", "calls replaced by constants", CompileTimeEvaluation::optimize)
+                .add(O2, "inline", "call sites inlined", m -> FunctionInlining.optimize(m, profile))
+                .add(O2, "specialization", "call sites use a specialized clone", FunctionSpecialization::optimize)
+                .addFunctionPass(O2, "loop unrolling", "loops unrolled", f -> LoopUnrolling.optimize(f, unrollFactor))
+                .addFunctionPass(O1, "sccp", "constants and branches folded", SparseConditionalConstantPropagation::optimize)
+                .addFunctionPass(O1, "jump threading", null, f -> {
+                    JumpThreading.optimize(f);
+                    return 0;
+                })
+                .add(O2, "scalar promotion", "globals kept in locals inside loops", ScalarPromotion::optimize)
+                .addFunctionPass(O2, "licm", "invariant expressions hoisted", LoopInvariantCodeMotion::optimize)
+                .addFunctionPass(O1, "strength reduction", "operations rewritten", StrengthReduction::optimize)
+                .addFunctionPass(O1, "cse", "expressions eliminated", LocalValueNumbering::optimize)
+                .addFunctionPass(O1, "load/store elimination", "instructions removed", RedundantLoadStoreElimination::optimize)
+                .addFunctionPass(O2, "peephole", "sequences shortened", PeepholeOptimization::optimize)
+                .addFunctionPass(O1, "slot coloring", "local slots removed", SlotColoring::optimize)
+                .add(O2, "identical function folding", "functions merged", IdenticalFunctionFolding::optimize)
+                .add(O1, "tree shaking", "functions and globals removed", TreeShaking::optimize);
+        if(layout != null){
+            pm.addFunctionPass(O1, "block layout", "blocks moved", layout::layoutBlocks)
+                    .add(O1, "function order", "functions moved", layout::orderFunctions);
+        }
+        return pm;
+    }
+
+    /**
+     * 运行不高于 level 的遍
+     * @param m 中间代码
+     * @param level 优化等级
+     */
+    public void run(MidCode m, int level){
+        before = instructionCount(m);
+        for(Pass p : passes){
+            if(p.level > level)
+                continue;
+            int size = instructionCount(m);
+            long start = System.nanoTime();
+            p.count = p.run.applyAsInt(m);
+            p.nanos = System.nanoTime() - start;
+            p.delta = instructionCount(m) - size;
+            p.ran = true;
+        }
+        after = instructionCount(m);
+    }
+
+    /**
+     * 输出每个遍的结果、耗时和指令数的变化
+     * @param out 输出
+     */
+    public void printStats(PrintStream out){
+        long total = 0;
+        for(Pass p : passes){
+            if(!p.ran)
+                continue;
+            total += p.nanos;
+            StringBuilder sb = new StringBuilder(p.name).append(": ");
+            if(p.unit != null)
+                sb.append(p.count).append(' ').append(p.unit).append(' ');
+            sb.append(String.format("(%.2f ms, %+d instructions)", p.nanos / 1e6, p.delta));
+            out.println(sb);
+        }
+        out.println(String.format("total: %.2f ms, %d -> %d instructions", total / 1e6, before, after));
+    }
+
+    private static int instructionCount(MidCode m){
+        int n = 0;
+        for(FnInstruct f : m.fnList){
+            n += f.getFnBody().size();
+        }
+        return n;
+    }
+}
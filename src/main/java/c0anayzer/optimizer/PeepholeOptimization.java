@@ -0,0 +1,109 @@
+package c0anayzer.optimizer;
+
+import c0anayzer.instruction.Instruction;
+import c0anayzer.instruction.Operation;
+import c0anayzer.midcode.FnInstruct;
+import c0anayzer.midcode.MidCode;
+
+import java.util.*;
+
+/**
+ * 按 PeepholeRules 中的规则做窥孔优化：
+ * 在基本块内找和规则左边相同的指令序列，换成右边更短的序列，直到没有可以替换的地方。
+ * 后面紧跟 callname 的序列不替换，putstr 的字符串编号要保持 push k; callname 的形式
+ */
+public class PeepholeOptimization {
+    /** 规则左边 -> 右边 */
+    private static final HashMap<String, List<Instruction>> RULES = new HashMap<>();
+    /** 规则左边的最大长度 */
+    private static int maxLength = 0;
+
+    static {
+        for(String rule : PeepholeRules.RULES){
+            String[] sides = rule.split("=>", -1);
+            String lhs = sides[0].trim();
+            RULES.put(lhs, parse(sides[1].trim()));
+            maxLength = Math.max(maxLength, lhs.split(";").length);
+        }
+    }
+
+    /**
+     * 对所有函数做窥孔优化
+     * @param m 中间代码
+     * @return 替换的次数
+     */
+    public static int optimize(MidCode m){
+        int replaced = 0;
+        for(FnInstruct f : m.fnList){
+            replaced += optimize(f);
+        }
+        return replaced;
+    }
+
+    public static int optimize(FnInstruct f){
+        ControlFlowGraph cfg = ControlFlowGraph.build(f);
+        int replaced = 0;
+        for(BasicBlock b : cfg.blocks){
+            replaced += optimizeBlock(b.instructions);
+        }
+        if(replaced > 0)
+            cfg.writeBack();
+        return replaced;
+    }
+
+    private static int optimizeBlock(ArrayList<Instruction> block){
+        int replaced = 0;
+        int i = 0;
+        while(i < block.size()){
+            boolean matched = false;
+            for(int n=Math.min(maxLength, block.size()-i); n>=1 && !matched; n--){
+                if(i + n < block.size() && block.get(i + n).getOpt() == Operation.callname)
+                    continue;
+                List<Instruction> rhs = RULES.get(text(block.subList(i, i + n)));
+                if(rhs == null)
+                    continue;
+                block.subList(i, i + n).clear();
+                for(int k=rhs.size()-1; k>=0; k--){
+                    Instruction r = rhs.get(k);
+                    block.add(i, new Instruction(r.getOpt(), r.getX(), r.getSize()));
+                }
+                matched = true;
+            }
+            if(matched){
+                replaced++;
+                // 替换后前面的指令可能和新序列组成新的匹配
+                i = Math.max(0, i - maxLength + 1);
+            }
+            else {
+                i++;
+            }
+        }
+        return replaced;
+    }
+
+    /**
+     * 指令序列的文本，和 PeepholeRules 中的写法一致
+     */
+    private static String text(List<Instruction> list){
+        StringJoiner sj = new StringJoiner("; ");
+        for(Instruction i : list){
+            sj.add(i.hasX() ? i.getOpt() + " " + i.getX() : i.getOpt().toString());
+        }
+        return sj.toString();
+    }
+
+    private static List<Instruction> parse(String s){
+        List<Instruction> list = new ArrayList<>();
+        if(s.isEmpty())
+            return list;
+        for(String part : s.split(";")){
+            String[] t = part.trim().split(" ");
+            Operation op = Operation.valueOf(t[0]);
+            if(t.length == 1)
+                list.add(new Instruction(op));
+            else
+                list.add(new Instruction(op, Long.parseLong(t[1]), op == Operation.push ? 8 : 4));
+        }
+        return list;
+    }
+}
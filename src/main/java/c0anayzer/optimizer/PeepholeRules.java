@@ -0,0 +1,961 @@
+package c0anayzer.optimizer;
+
+/**
+ * 由 Superoptimizer 生成（最大长度 3），不要手动修改。
+ * 每条规则是 “指令序列 => 等价的更短序列”，指令之间用分号隔开
+ */
+public class PeepholeRules {
+    public static final String[] RULES = {
+            "push 0; pop =>",
+            "push 0; popn 2 => pop",
+            "push 0; add_i =>",
+            "push 0; sub_i =>",
+            "push 0; neg_i => push 0",
+            "push 0; or =>",
+            "push 0; xor =>",
+            "push 0; not => push 1",
+            "push 0; shl =>",
+            "push 0; shr =>",
+            "push 0; shrl =>",
+            "push 0; set_lt => push 0",
+            "push 0; set_gt => push 0",
+            "push 0; itof => push 0",
+            "push 1; pop =>",
+            "push 1; popn 2 => pop",
+            "push 1; mul_i =>",
+            "push 1; neg_i => push -1",
+            "push 1; not => push 0",
+            "push 1; set_lt => push 0",
+            "push 1; set_gt => push 1",
+            "push -1; pop =>",
+            "push -1; popn 2 => pop",
+            "push -1; mul_i => neg_i",
+            "push -1; neg_i => push 1",
+            "push -1; and =>",
+            "push -1; not => push 0",
+            "push -1; set_lt => push 1",
+            "push -1; set_gt => push 0",
+            "push 2; pop =>",
+            "push 2; popn 2 => pop",
+            "push 2; not => push 0",
+            "push 2; set_lt => push 0",
+            "push 2; set_gt => push 1",
+            "dup; pop =>",
+            "dup; popn 2 => pop",
+            "dup; and =>",
+            "dup; or =>",
+            "pop; pop => popn 2",
+            "add_i; pop => popn 2",
+            "sub_i; pop => popn 2",
+            "mul_i; pop => popn 2",
+            "neg_i; pop => pop",
+            "neg_i; popn 2 => popn 2",
+            "neg_i; add_i => sub_i",
+            "neg_i; sub_i => add_i",
+            "neg_i; neg_i =>",
+            "neg_i; not => not",
+            "and; pop => popn 2",
+            "or; pop => popn 2",
+            "xor; pop => popn 2",
+            "not; pop => pop",
+            "not; popn 2 => popn 2",
+            "not; set_gt => not",
+            "cmp_i; pop => popn 2",
+            "cmp_u; pop => popn 2",
+            "set_lt; pop => pop",
+            "set_lt; popn 2 => popn 2",
+            "set_lt; set_gt => set_lt",
+            "set_gt; pop => pop",
+            "set_gt; popn 2 => popn 2",
+            "set_gt; set_gt => set_gt",
+            "neg_f; pop => pop",
+            "neg_f; popn 2 => popn 2",
+            "neg_f; neg_f =>",
+            "itof; pop => pop",
+            "itof; popn 2 => popn 2",
+            "itof; not => not",
+            "itof; set_lt => set_lt",
+            "itof; set_gt => set_gt",
+            "push 0; push 0; mul_i => push 0",
+            "push 0; push 0; and => push 0",
+            "push 0; push 0; cmp_i => push 0",
+            "push 0; push 0; cmp_u => push 0",
+            "push 0; push 0; add_f => push 0",
+            "push 0; push 0; sub_f => push 0",
+            "push 0; push 0; mul_f => push 0",
+            "push 0; push 1; add_i => push 1",
+            "push 0; push 1; sub_i => push -1",
+            "push 0; push 1; and => push 0",
+            "push 0; push 1; or => push 1",
+            "push 0; push 1; xor => push 1",
+            "push 0; push 1; shl => push 0",
+            "push 0; push 1; shr => push 0",
+            "push 0; push 1; shrl => push 0",
+            "push 0; push 1; cmp_i => push -1",
+            "push 0; push 1; cmp_u => push -1",
+            "push 0; push 1; add_f => push 1",
+            "push 0; push 1; sub_f => push 1; neg_f",
+            "push 0; push 1; mul_f => push 0",
+            "push 0; push -1; add_i => push -1",
+            "push 0; push -1; sub_i => push 1",
+            "push 0; push -1; or => push -1",
+            "push 0; push -1; xor => push -1",
+            "push 0; push -1; cmp_i => push 1",
+            "push 0; push -1; cmp_u => push -1",
+            "push 0; push 2; add_i => push 2",
+            "push 0; push 2; sub_i => push 2; neg_i",
+            "push 0; push 2; mul_i => push 0",
+            "push 0; push 2; and => push 0",
+            "push 0; push 2; or => push 2",
+            "push 0; push 2; xor => push 2",
+            "push 0; push 2; shl => push 0",
+            "push 0; push 2; shr => push 0",
+            "push 0; push 2; shrl => push 0",
+            "push 0; push 2; cmp_i => push -1",
+            "push 0; push 2; cmp_u => push -1",
+            "push 0; push 2; add_f => push 2",
+            "push 0; push 2; sub_f => push 2; neg_f",
+            "push 0; push 2; mul_f => push 0",
+            "push 0; dup; add_i => push 0",
+            "push 0; dup; sub_i => push 0",
+            "push 0; dup; mul_i => push 0",
+            "push 0; dup; neg_i => push 0; push 0",
+            "push 0; dup; xor => push 0",
+            "push 0; dup; not => push 0; push 1",
+            "push 0; dup; shl => push 0",
+            "push 0; dup; shr => push 0",
+            "push 0; dup; shrl => push 0",
+            "push 0; dup; cmp_i => push 0",
+            "push 0; dup; cmp_u => push 0",
+            "push 0; dup; set_lt => push 0; push 0",
+            "push 0; dup; set_gt => push 0; push 0",
+            "push 0; dup; add_f => push 0",
+            "push 0; dup; sub_f => push 0",
+            "push 0; dup; mul_f => push 0",
+            "push 0; dup; itof => push 0; push 0",
+            "push 0; mul_i; popn 2 => popn 2",
+            "push 0; mul_i; add_i => pop",
+            "push 0; mul_i; sub_i => pop",
+            "push 0; mul_i; mul_i => popn 2; push 0",
+            "push 0; mul_i; neg_i => push 0; mul_i",
+            "push 0; mul_i; and => popn 2; push 0",
+            "push 0; mul_i; or => pop",
+            "push 0; mul_i; xor => pop",
+            "push 0; mul_i; not => pop; push 1",
+            "push 0; mul_i; shl => pop",
+            "push 0; mul_i; shr => pop",
+            "push 0; mul_i; shrl => pop",
+            "push 0; mul_i; set_lt => push 0; mul_i",
+            "push 0; mul_i; set_gt => push 0; mul_i",
+            "push 0; mul_i; itof => push 0; mul_i",
+            "push 0; and; popn 2 => popn 2",
+            "push 0; and; add_i => pop",
+            "push 0; and; sub_i => pop",
+            "push 0; and; mul_i => popn 2; push 0",
+            "push 0; and; neg_i => push 0; mul_i",
+            "push 0; and; and => popn 2; push 0",
+            "push 0; and; or => pop",
+            "push 0; and; xor => pop",
+            "push 0; and; not => pop; push 1",
+            "push 0; and; shl => pop",
+            "push 0; and; shr => pop",
+            "push 0; and; shrl => pop",
+            "push 0; and; set_lt => push 0; mul_i",
+            "push 0; and; set_gt => push 0; mul_i",
+            "push 0; and; itof => push 0; mul_i",
+            "push 0; cmp_i; popn 2 => popn 2",
+            "push 0; cmp_i; not => not",
+            "push 0; cmp_i; set_lt => set_lt",
+            "push 0; cmp_i; set_gt => set_gt",
+            "push 0; cmp_u; popn 2 => popn 2",
+            "push 0; cmp_u; not => not",
+            "push 0; cmp_u; set_lt => push 0; mul_i",
+            "push 0; cmp_u; set_gt => push 0; cmp_u",
+            "push 0; neg_f; add_i => neg_f",
+            "push 0; neg_f; sub_i => neg_f",
+            "push 0; neg_f; neg_i => push 0; neg_f",
+            "push 0; neg_f; xor => neg_f",
+            "push 0; neg_f; not => push 0",
+            "push 0; neg_f; set_lt => push 1",
+            "push 0; neg_f; set_gt => push 0",
+            "push 1; push 0; mul_i => push 0",
+            "push 1; push 0; and => push 0",
+            "push 1; push 0; cmp_i => push 1",
+            "push 1; push 0; cmp_u => push 1",
+            "push 1; push 0; add_f => push 1",
+            "push 1; push 0; sub_f => push 1",
+            "push 1; push 0; mul_f => push 0",
+            "push 1; push 1; add_i => push 2",
+            "push 1; push 1; sub_i => push 0",
+            "push 1; push 1; and => push 1",
+            "push 1; push 1; or => push 1",
+            "push 1; push 1; xor => push 0",
+            "push 1; push 1; shl => push 2",
+            "push 1; push 1; shr => push 0",
+            "push 1; push 1; shrl => push 0",
+            "push 1; push 1; cmp_i => push 0",
+            "push 1; push 1; cmp_u => push 0",
+            "push 1; push 1; add_f => push 2",
+            "push 1; push 1; sub_f => push 0",
+            "push 1; push 1; mul_f => push 0",
+            "push 1; push -1; add_i => push 0",
+            "push 1; push -1; sub_i => push 2",
+            "push 1; push -1; or => push -1",
+            "push 1; push -1; xor => push 2; neg_i",
+            "push 1; push -1; cmp_i => push 1",
+            "push 1; push -1; cmp_u => push -1",
+            "push 1; push 2; sub_i => push -1",
+            "push 1; push 2; mul_i => push 2",
+            "push 1; push 2; and => push 0",
+            "push 1; push 2; shr => push 0",
+            "push 1; push 2; shrl => push 0",
+            "push 1; push 2; cmp_i => push -1",
+            "push 1; push 2; cmp_u => push -1",
+            "push 1; push 2; sub_f => push 1; neg_f",
+            "push 1; push 2; mul_f => push 0",
+            "push 1; dup; add_i => push 2",
+            "push 1; dup; sub_i => push 0",
+            "push 1; dup; mul_i => push 1",
+            "push 1; dup; neg_i => push 1; push -1",
+            "push 1; dup; xor => push 0",
+            "push 1; dup; not => push 1; push 0",
+            "push 1; dup; shl => push 2",
+            "push 1; dup; shr => push 0",
+            "push 1; dup; shrl => push 0",
+            "push 1; dup; cmp_i => push 0",
+            "push 1; dup; cmp_u => push 0",
+            "push 1; dup; set_lt => push 1; push 0",
+            "push 1; dup; set_gt => push 1; push 1",
+            "push 1; dup; add_f => push 2",
+            "push 1; dup; sub_f => push 0",
+            "push 1; dup; mul_f => push 0",
+            "push 1; add_i; popn 2 => popn 2",
+            "push 1; add_i; neg_i => push -1; xor",
+            "push 1; sub_i; popn 2 => popn 2",
+            "push 1; and; popn 2 => popn 2",
+            "push 1; and; set_lt => push 0; mul_i",
+            "push 1; and; set_gt => push 1; and",
+            "push 1; or; popn 2 => popn 2",
+            "push 1; or; not => push 0; mul_i",
+            "push 1; or; set_lt => set_lt",
+            "push 1; or; set_gt => set_lt; not",
+            "push 1; xor; popn 2 => popn 2",
+            "push 1; xor; set_lt => set_lt",
+            "push 1; shl; pop => pop",
+            "push 1; shl; popn 2 => popn 2",
+            "push 1; shr; pop => pop",
+            "push 1; shr; popn 2 => popn 2",
+            "push 1; shr; set_lt => set_lt",
+            "push 1; shrl; pop => pop",
+            "push 1; shrl; popn 2 => popn 2",
+            "push 1; shrl; set_lt => push 0; mul_i",
+            "push 1; cmp_i; popn 2 => popn 2",
+            "push 1; cmp_i; set_lt => set_gt; not",
+            "push 1; cmp_u; popn 2 => popn 2",
+            "push 1; cmp_u; set_lt => not",
+            "push 1; neg_f; neg_i => push -1; neg_f",
+            "push 1; neg_f; not => push 0",
+            "push 1; neg_f; set_lt => push 1",
+            "push 1; neg_f; set_gt => push 0",
+            "push 1; itof; neg_f => push -1; itof",
+            "push -1; push 0; mul_i => push 0",
+            "push -1; push 0; and => push 0",
+            "push -1; push 0; cmp_i => push -1",
+            "push -1; push 0; cmp_u => push 1",
+            "push -1; push 1; add_i => push 0",
+            "push -1; push 1; sub_i => push 2; neg_i",
+            "push -1; push 1; and => push 1",
+            "push -1; push 1; or => push -1",
+            "push -1; push 1; xor => push 2; neg_i",
+            "push -1; push 1; shl => push 2; neg_i",
+            "push -1; push 1; shr => push -1",
+            "push -1; push 1; shrl => push -1; neg_f",
+            "push -1; push 1; cmp_i => push -1",
+            "push -1; push 1; cmp_u => push 1",
+            "push -1; push -1; add_i => push 2; neg_i",
+            "push -1; push -1; sub_i => push 0",
+            "push -1; push -1; or => push -1",
+            "push -1; push -1; xor => push 0",
+            "push -1; push -1; cmp_i => push 0",
+            "push -1; push -1; cmp_u => push 0",
+            "push -1; push 2; add_i => push 1",
+            "push -1; push 2; mul_i => push 2; neg_i",
+            "push -1; push 2; and => push 2",
+            "push -1; push 2; or => push -1",
+            "push -1; push 2; shr => push -1",
+            "push -1; push 2; cmp_i => push -1",
+            "push -1; push 2; cmp_u => push 1",
+            "push -1; dup; add_i => push 2; neg_i",
+            "push -1; dup; sub_i => push 0",
+            "push -1; dup; mul_i => push 1",
+            "push -1; dup; neg_i => push -1; push 1",
+            "push -1; dup; xor => push 0",
+            "push -1; dup; not => push -1; push 0",
+            "push -1; dup; cmp_i => push 0",
+            "push -1; dup; cmp_u => push 0",
+            "push -1; dup; set_lt => push -1; push 1",
+            "push -1; dup; set_gt => push -1; push 0",
+            "push -1; add_i; popn 2 => popn 2",
+            "push -1; sub_i; popn 2 => popn 2",
+            "push -1; sub_i; neg_i => push -1; xor",
+            "push -1; or; popn 2 => popn 2",
+            "push -1; or; mul_i => pop; neg_i",
+            "push -1; or; neg_i => pop; push 1",
+            "push -1; or; and => pop",
+            "push -1; or; or => popn 2; push -1",
+            "push -1; or; not => push 0; mul_i",
+            "push -1; or; set_lt => pop; push 1",
+            "push -1; or; set_gt => push 0; mul_i",
+            "push -1; xor; popn 2 => popn 2",
+            "push -1; xor; neg_i => push 1; add_i",
+            "push -1; xor; set_lt => set_lt; not",
+            "push -1; cmp_i; popn 2 => popn 2",
+            "push -1; cmp_i; set_gt => set_lt; not",
+            "push -1; cmp_u; popn 2 => popn 2",
+            "push -1; cmp_u; set_gt => push 0; mul_i",
+            "push -1; neg_f; neg_i => push 1; neg_f",
+            "push -1; neg_f; not => push 0",
+            "push -1; neg_f; set_lt => push 0",
+            "push -1; neg_f; set_gt => push 1",
+            "push -1; itof; neg_f => push 1; itof",
+            "push 2; push 0; mul_i => push 0",
+            "push 2; push 0; and => push 0",
+            "push 2; push 0; cmp_i => push 1",
+            "push 2; push 0; cmp_u => push 1",
+            "push 2; push 0; add_f => push 2",
+            "push 2; push 0; sub_f => push 2",
+            "push 2; push 0; mul_f => push 0",
+            "push 2; push 1; sub_i => push 1",
+            "push 2; push 1; and => push 0",
+            "push 2; push 1; shr => push 1",
+            "push 2; push 1; shrl => push 1",
+            "push 2; push 1; cmp_i => push 1",
+            "push 2; push 1; cmp_u => push 1",
+            "push 2; push 1; sub_f => push 1",
+            "push 2; push 1; mul_f => push 0",
+            "push 2; push -1; add_i => push 1",
+            "push 2; push -1; or => push -1",
+            "push 2; push -1; cmp_i => push 1",
+            "push 2; push -1; cmp_u => push -1",
+            "push 2; push 2; sub_i => push 0",
+            "push 2; push 2; and => push 2",
+            "push 2; push 2; or => push 2",
+            "push 2; push 2; xor => push 0",
+            "push 2; push 2; shr => push 0",
+            "push 2; push 2; shrl => push 0",
+            "push 2; push 2; cmp_i => push 0",
+            "push 2; push 2; cmp_u => push 0",
+            "push 2; push 2; sub_f => push 0",
+            "push 2; push 2; mul_f => push 0",
+            "push 2; dup; sub_i => push 0",
+            "push 2; dup; xor => push 0",
+            "push 2; dup; not => push 2; push 0",
+            "push 2; dup; shr => push 0",
+            "push 2; dup; shrl => push 0",
+            "push 2; dup; cmp_i => push 0",
+            "push 2; dup; cmp_u => push 0",
+            "push 2; dup; set_lt => push 2; push 0",
+            "push 2; dup; set_gt => push 2; push 1",
+            "push 2; dup; sub_f => push 0",
+            "push 2; dup; mul_f => push 0",
+            "push 2; add_i; popn 2 => popn 2",
+            "push 2; sub_i; popn 2 => popn 2",
+            "push 2; mul_i; popn 2 => popn 2",
+            "push 2; neg_i; set_lt => push 1",
+            "push 2; neg_i; set_gt => push 0",
+            "push 2; and; popn 2 => popn 2",
+            "push 2; and; set_lt => push 0; mul_i",
+            "push 2; or; popn 2 => popn 2",
+            "push 2; or; not => push 0; mul_i",
+            "push 2; or; set_lt => set_lt",
+            "push 2; or; set_gt => set_lt; not",
+            "push 2; xor; popn 2 => popn 2",
+            "push 2; xor; set_lt => set_lt",
+            "push 2; shl; pop => pop",
+            "push 2; shl; popn 2 => popn 2",
+            "push 2; shr; pop => pop",
+            "push 2; shr; popn 2 => popn 2",
+            "push 2; shr; set_lt => set_lt",
+            "push 2; shrl; pop => pop",
+            "push 2; shrl; popn 2 => popn 2",
+            "push 2; shrl; set_lt => push 0; mul_i",
+            "push 2; cmp_i; popn 2 => popn 2",
+            "push 2; cmp_u; popn 2 => popn 2",
+            "push 2; neg_f; not => push 0",
+            "push 2; neg_f; set_lt => push 1",
+            "push 2; neg_f; set_gt => push 0",
+            "dup; push 0; mul_i => push 0",
+            "dup; push 0; and => push 0",
+            "dup; push -1; or => push -1",
+            "dup; dup; sub_i => push 0",
+            "dup; dup; xor => push 0",
+            "dup; dup; cmp_i => push 0",
+            "dup; dup; cmp_u => push 0",
+            "dup; add_i; popn 2 => popn 2",
+            "dup; sub_i; popn 2 => popn 2",
+            "dup; sub_i; add_i => pop",
+            "dup; sub_i; sub_i => pop",
+            "dup; sub_i; mul_i => popn 2; push 0",
+            "dup; sub_i; neg_i => push 0; mul_i",
+            "dup; sub_i; and => popn 2; push 0",
+            "dup; sub_i; or => pop",
+            "dup; sub_i; xor => pop",
+            "dup; sub_i; not => pop; push 1",
+            "dup; sub_i; shl => pop",
+            "dup; sub_i; shr => pop",
+            "dup; sub_i; shrl => pop",
+            "dup; sub_i; set_lt => push 0; mul_i",
+            "dup; sub_i; set_gt => push 0; mul_i",
+            "dup; sub_i; itof => push 0; mul_i",
+            "dup; mul_i; popn 2 => popn 2",
+            "dup; xor; popn 2 => popn 2",
+            "dup; xor; add_i => pop",
+            "dup; xor; sub_i => pop",
+            "dup; xor; mul_i => popn 2; push 0",
+            "dup; xor; neg_i => push 0; mul_i",
+            "dup; xor; and => popn 2; push 0",
+            "dup; xor; or => pop",
+            "dup; xor; xor => pop",
+            "dup; xor; not => pop; push 1",
+            "dup; xor; shl => pop",
+            "dup; xor; shr => pop",
+            "dup; xor; shrl => pop",
+            "dup; xor; set_lt => push 0; mul_i",
+            "dup; xor; set_gt => push 0; mul_i",
+            "dup; xor; itof => push 0; mul_i",
+            "dup; not; mul_i => push 0; mul_i",
+            "dup; not; and => push 0; mul_i",
+            "dup; not; shl =>",
+            "dup; not; shr =>",
+            "dup; not; shrl =>",
+            "dup; not; set_lt => push 0",
+            "dup; cmp_i; popn 2 => popn 2",
+            "dup; cmp_i; add_i => pop",
+            "dup; cmp_i; sub_i => pop",
+            "dup; cmp_i; mul_i => popn 2; push 0",
+            "dup; cmp_i; neg_i => push 0; mul_i",
+            "dup; cmp_i; and => popn 2; push 0",
+            "dup; cmp_i; or => pop",
+            "dup; cmp_i; xor => pop",
+            "dup; cmp_i; not => pop; push 1",
+            "dup; cmp_i; shl => pop",
+            "dup; cmp_i; shr => pop",
+            "dup; cmp_i; shrl => pop",
+            "dup; cmp_i; set_lt => push 0; mul_i",
+            "dup; cmp_i; set_gt => push 0; mul_i",
+            "dup; cmp_i; itof => push 0; mul_i",
+            "dup; cmp_u; popn 2 => popn 2",
+            "dup; cmp_u; add_i => pop",
+            "dup; cmp_u; sub_i => pop",
+            "dup; cmp_u; mul_i => popn 2; push 0",
+            "dup; cmp_u; neg_i => push 0; mul_i",
+            "dup; cmp_u; and => popn 2; push 0",
+            "dup; cmp_u; or => pop",
+            "dup; cmp_u; xor => pop",
+            "dup; cmp_u; not => pop; push 1",
+            "dup; cmp_u; shl => pop",
+            "dup; cmp_u; shr => pop",
+            "dup; cmp_u; shrl => pop",
+            "dup; cmp_u; set_lt => push 0; mul_i",
+            "dup; cmp_u; set_gt => push 0; mul_i",
+            "dup; cmp_u; itof => push 0; mul_i",
+            "dup; set_lt; cmp_i => push 0; cmp_i",
+            "dup; set_lt; cmp_u => push 0; cmp_u",
+            "dup; set_lt; set_lt => push 0",
+            "dup; set_gt; set_lt => push 0",
+            "pop; push 0; mul_i => popn 2; push 0",
+            "pop; push 0; and => popn 2; push 0",
+            "pop; push -1; or => popn 2; push -1",
+            "pop; dup; sub_i => popn 2; push 0",
+            "pop; dup; xor => popn 2; push 0",
+            "pop; dup; cmp_i => popn 2; push 0",
+            "pop; dup; cmp_u => popn 2; push 0",
+            "pop; popn 2; pop => popn 2; popn 2",
+            "pop; add_i; popn 2 => popn 2; popn 2",
+            "pop; sub_i; popn 2 => popn 2; popn 2",
+            "pop; mul_i; popn 2 => popn 2; popn 2",
+            "pop; and; popn 2 => popn 2; popn 2",
+            "pop; or; popn 2 => popn 2; popn 2",
+            "pop; xor; popn 2 => popn 2; popn 2",
+            "pop; not; set_lt => popn 2; push 0",
+            "pop; cmp_i; popn 2 => popn 2; popn 2",
+            "pop; cmp_u; popn 2 => popn 2; popn 2",
+            "pop; set_lt; set_lt => popn 2; push 0",
+            "pop; set_gt; set_lt => popn 2; push 0",
+            "add_i; push 0; mul_i => popn 2; push 0",
+            "add_i; push 0; and => popn 2; push 0",
+            "add_i; push -1; or => popn 2; push -1",
+            "add_i; dup; sub_i => popn 2; push 0",
+            "add_i; dup; xor => popn 2; push 0",
+            "add_i; dup; cmp_i => popn 2; push 0",
+            "add_i; dup; cmp_u => popn 2; push 0",
+            "add_i; popn 2; pop => popn 2; popn 2",
+            "add_i; add_i; popn 2 => popn 2; popn 2",
+            "add_i; sub_i; popn 2 => popn 2; popn 2",
+            "add_i; mul_i; popn 2 => popn 2; popn 2",
+            "add_i; and; popn 2 => popn 2; popn 2",
+            "add_i; or; popn 2 => popn 2; popn 2",
+            "add_i; xor; popn 2 => popn 2; popn 2",
+            "add_i; not; set_lt => popn 2; push 0",
+            "add_i; cmp_i; popn 2 => popn 2; popn 2",
+            "add_i; cmp_u; popn 2 => popn 2; popn 2",
+            "add_i; set_lt; set_lt => popn 2; push 0",
+            "add_i; set_gt; set_lt => popn 2; push 0",
+            "sub_i; push 0; mul_i => popn 2; push 0",
+            "sub_i; push 0; and => popn 2; push 0",
+            "sub_i; push -1; or => popn 2; push -1",
+            "sub_i; dup; sub_i => popn 2; push 0",
+            "sub_i; dup; xor => popn 2; push 0",
+            "sub_i; dup; cmp_i => popn 2; push 0",
+            "sub_i; dup; cmp_u => popn 2; push 0",
+            "sub_i; popn 2; pop => popn 2; popn 2",
+            "sub_i; add_i; popn 2 => popn 2; popn 2",
+            "sub_i; sub_i; popn 2 => popn 2; popn 2",
+            "sub_i; mul_i; popn 2 => popn 2; popn 2",
+            "sub_i; and; popn 2 => popn 2; popn 2",
+            "sub_i; or; popn 2 => popn 2; popn 2",
+            "sub_i; xor; popn 2 => popn 2; popn 2",
+            "sub_i; not; set_lt => popn 2; push 0",
+            "sub_i; cmp_i; popn 2 => popn 2; popn 2",
+            "sub_i; cmp_u; popn 2 => popn 2; popn 2",
+            "sub_i; set_lt; set_lt => popn 2; push 0",
+            "sub_i; set_gt; set_lt => popn 2; push 0",
+            "mul_i; push 0; mul_i => popn 2; push 0",
+            "mul_i; push 0; and => popn 2; push 0",
+            "mul_i; push -1; or => popn 2; push -1",
+            "mul_i; dup; sub_i => popn 2; push 0",
+            "mul_i; dup; xor => popn 2; push 0",
+            "mul_i; dup; cmp_i => popn 2; push 0",
+            "mul_i; dup; cmp_u => popn 2; push 0",
+            "mul_i; popn 2; pop => popn 2; popn 2",
+            "mul_i; add_i; popn 2 => popn 2; popn 2",
+            "mul_i; sub_i; popn 2 => popn 2; popn 2",
+            "mul_i; mul_i; popn 2 => popn 2; popn 2",
+            "mul_i; and; popn 2 => popn 2; popn 2",
+            "mul_i; or; popn 2 => popn 2; popn 2",
+            "mul_i; xor; popn 2 => popn 2; popn 2",
+            "mul_i; not; set_lt => popn 2; push 0",
+            "mul_i; cmp_i; popn 2 => popn 2; popn 2",
+            "mul_i; cmp_u; popn 2 => popn 2; popn 2",
+            "mul_i; set_lt; set_lt => popn 2; push 0",
+            "mul_i; set_gt; set_lt => popn 2; push 0",
+            "neg_i; push 0; mul_i => push 0; mul_i",
+            "neg_i; push 0; and => push 0; mul_i",
+            "neg_i; push 0; cmp_u => push 0; cmp_u",
+            "neg_i; push 1; sub_i => push -1; xor",
+            "neg_i; push 1; and => push 1; and",
+            "neg_i; push -1; add_i => push -1; xor",
+            "neg_i; push -1; or => push -1; or",
+            "neg_i; push -1; xor => push 1; sub_i",
+            "neg_i; dup; sub_i => push 0; mul_i",
+            "neg_i; dup; mul_i => dup; mul_i",
+            "neg_i; dup; xor => push 0; mul_i",
+            "neg_i; dup; cmp_i => push 0; mul_i",
+            "neg_i; dup; cmp_u => push 0; mul_i",
+            "neg_i; mul_i; popn 2 => pop; popn 2",
+            "neg_i; mul_i; add_i => mul_i; sub_i",
+            "neg_i; mul_i; sub_i => mul_i; add_i",
+            "neg_i; mul_i; neg_i => mul_i",
+            "neg_i; mul_i; not => mul_i; not",
+            "neg_i; and; popn 2 => pop; popn 2",
+            "neg_i; or; popn 2 => pop; popn 2",
+            "neg_i; xor; popn 2 => pop; popn 2",
+            "neg_i; cmp_i; popn 2 => pop; popn 2",
+            "neg_i; cmp_u; popn 2 => pop; popn 2",
+            "neg_i; set_lt; set_lt => push 0; mul_i",
+            "neg_i; set_gt; set_lt => push 0; mul_i",
+            "neg_i; neg_f; add_i => sub_i; neg_f",
+            "neg_i; neg_f; sub_i => add_i; neg_f",
+            "neg_i; neg_f; neg_i => neg_f",
+            "neg_i; neg_f; not => neg_f; not",
+            "neg_i; neg_f; set_gt => set_gt",
+            "and; push 0; mul_i => popn 2; push 0",
+            "and; push 0; and => popn 2; push 0",
+            "and; push -1; or => popn 2; push -1",
+            "and; dup; sub_i => popn 2; push 0",
+            "and; dup; xor => popn 2; push 0",
+            "and; dup; cmp_i => popn 2; push 0",
+            "and; dup; cmp_u => popn 2; push 0",
+            "and; popn 2; pop => popn 2; popn 2",
+            "and; add_i; popn 2 => popn 2; popn 2",
+            "and; sub_i; popn 2 => popn 2; popn 2",
+            "and; mul_i; popn 2 => popn 2; popn 2",
+            "and; and; popn 2 => popn 2; popn 2",
+            "and; or; popn 2 => popn 2; popn 2",
+            "and; xor; popn 2 => popn 2; popn 2",
+            "and; not; set_lt => popn 2; push 0",
+            "and; cmp_i; popn 2 => popn 2; popn 2",
+            "and; cmp_u; popn 2 => popn 2; popn 2",
+            "and; set_lt; set_lt => popn 2; push 0",
+            "and; set_gt; set_lt => popn 2; push 0",
+            "or; push 0; mul_i => popn 2; push 0",
+            "or; push 0; and => popn 2; push 0",
+            "or; push -1; or => popn 2; push -1",
+            "or; dup; sub_i => popn 2; push 0",
+            "or; dup; xor => popn 2; push 0",
+            "or; dup; cmp_i => popn 2; push 0",
+            "or; dup; cmp_u => popn 2; push 0",
+            "or; popn 2; pop => popn 2; popn 2",
+            "or; add_i; popn 2 => popn 2; popn 2",
+            "or; sub_i; popn 2 => popn 2; popn 2",
+            "or; mul_i; popn 2 => popn 2; popn 2",
+            "or; and; popn 2 => popn 2; popn 2",
+            "or; or; popn 2 => popn 2; popn 2",
+            "or; xor; popn 2 => popn 2; popn 2",
+            "or; not; set_lt => popn 2; push 0",
+            "or; cmp_i; popn 2 => popn 2; popn 2",
+            "or; cmp_u; popn 2 => popn 2; popn 2",
+            "or; set_lt; set_lt => popn 2; push 0",
+            "or; set_gt; set_lt => popn 2; push 0",
+            "xor; push 0; mul_i => popn 2; push 0",
+            "xor; push 0; and => popn 2; push 0",
+            "xor; push -1; or => popn 2; push -1",
+            "xor; dup; sub_i => popn 2; push 0",
+            "xor; dup; xor => popn 2; push 0",
+            "xor; dup; cmp_i => popn 2; push 0",
+            "xor; dup; cmp_u => popn 2; push 0",
+            "xor; popn 2; pop => popn 2; popn 2",
+            "xor; add_i; popn 2 => popn 2; popn 2",
+            "xor; sub_i; popn 2 => popn 2; popn 2",
+            "xor; mul_i; popn 2 => popn 2; popn 2",
+            "xor; and; popn 2 => popn 2; popn 2",
+            "xor; or; popn 2 => popn 2; popn 2",
+            "xor; xor; popn 2 => popn 2; popn 2",
+            "xor; not; set_lt => popn 2; push 0",
+            "xor; cmp_i; popn 2 => popn 2; popn 2",
+            "xor; cmp_u; popn 2 => popn 2; popn 2",
+            "xor; set_lt; set_lt => popn 2; push 0",
+            "xor; set_gt; set_lt => popn 2; push 0",
+            "not; push 0; mul_i => push 0; mul_i",
+            "not; push 0; and => push 0; mul_i",
+            "not; push 0; cmp_i => not",
+            "not; push 0; cmp_u => not",
+            "not; push 0; add_f => not",
+            "not; push 0; sub_f => not",
+            "not; push 0; mul_f => push 0; mul_i",
+            "not; push 1; and => not",
+            "not; push 1; or => pop; push 1",
+            "not; push 1; xor => push 0; cmp_u",
+            "not; push 1; shr => push 0; mul_i",
+            "not; push 1; shrl => push 0; mul_i",
+            "not; push 1; mul_f => push 0; mul_i",
+            "not; push -1; or => push -1; or",
+            "not; push -1; cmp_i => pop; push 1",
+            "not; push -1; cmp_u => push -1; or",
+            "not; push 2; and => push 0; mul_i",
+            "not; push 2; shr => push 0; mul_i",
+            "not; push 2; shrl => push 0; mul_i",
+            "not; push 2; cmp_i => push -1; or",
+            "not; push 2; cmp_u => push -1; or",
+            "not; push 2; mul_f => push 0; mul_i",
+            "not; dup; sub_i => push 0; mul_i",
+            "not; dup; mul_i => not",
+            "not; dup; xor => push 0; mul_i",
+            "not; dup; shr => push 0; mul_i",
+            "not; dup; shrl => push 0; mul_i",
+            "not; dup; cmp_i => push 0; mul_i",
+            "not; dup; cmp_u => push 0; mul_i",
+            "not; dup; set_lt => not; push 0",
+            "not; dup; set_gt => not; dup",
+            "not; dup; sub_f => push 0; mul_i",
+            "not; dup; mul_f => push 0; mul_i",
+            "not; add_i; popn 2 => pop; popn 2",
+            "not; sub_i; popn 2 => pop; popn 2",
+            "not; mul_i; popn 2 => pop; popn 2",
+            "not; neg_i; and => not; mul_i",
+            "not; neg_i; set_lt => not",
+            "not; neg_i; set_gt => push 0; mul_i",
+            "not; and; popn 2 => pop; popn 2",
+            "not; and; set_lt => popn 2; push 0",
+            "not; and; set_gt => not; and",
+            "not; or; popn 2 => pop; popn 2",
+            "not; or; set_lt => pop; set_lt",
+            "not; xor; popn 2 => pop; popn 2",
+            "not; xor; set_lt => pop; set_lt",
+            "not; not; not => not",
+            "not; not; set_lt => push 0; mul_i",
+            "not; shl; pop => popn 2",
+            "not; shl; popn 2 => pop; popn 2",
+            "not; shr; pop => popn 2",
+            "not; shr; popn 2 => pop; popn 2",
+            "not; shr; set_lt => pop; set_lt",
+            "not; shrl; pop => popn 2",
+            "not; shrl; popn 2 => pop; popn 2",
+            "not; cmp_i; popn 2 => pop; popn 2",
+            "not; cmp_u; popn 2 => pop; popn 2",
+            "not; set_lt; add_i => pop",
+            "not; set_lt; sub_i => pop",
+            "not; set_lt; mul_i => popn 2; push 0",
+            "not; set_lt; neg_i => push 0; mul_i",
+            "not; set_lt; and => popn 2; push 0",
+            "not; set_lt; or => pop",
+            "not; set_lt; xor => pop",
+            "not; set_lt; not => pop; push 1",
+            "not; set_lt; shl => pop",
+            "not; set_lt; shr => pop",
+            "not; set_lt; shrl => pop",
+            "not; set_lt; set_lt => push 0; mul_i",
+            "not; set_lt; itof => push 0; mul_i",
+            "not; neg_f; not => push 0; mul_i",
+            "not; neg_f; set_lt => pop; push 1",
+            "not; neg_f; set_gt => push 0; mul_i",
+            "cmp_i; push 0; mul_i => popn 2; push 0",
+            "cmp_i; push 0; and => popn 2; push 0",
+            "cmp_i; push 0; cmp_i => cmp_i",
+            "cmp_i; push -1; or => popn 2; push -1",
+            "cmp_i; push 2; cmp_i => popn 2; push -1",
+            "cmp_i; dup; sub_i => popn 2; push 0",
+            "cmp_i; dup; xor => popn 2; push 0",
+            "cmp_i; dup; cmp_i => popn 2; push 0",
+            "cmp_i; dup; cmp_u => popn 2; push 0",
+            "cmp_i; popn 2; pop => popn 2; popn 2",
+            "cmp_i; add_i; popn 2 => popn 2; popn 2",
+            "cmp_i; sub_i; popn 2 => popn 2; popn 2",
+            "cmp_i; mul_i; popn 2 => popn 2; popn 2",
+            "cmp_i; neg_i; set_lt => cmp_i; set_gt",
+            "cmp_i; neg_i; set_gt => cmp_i; set_lt",
+            "cmp_i; and; popn 2 => popn 2; popn 2",
+            "cmp_i; or; popn 2 => popn 2; popn 2",
+            "cmp_i; xor; popn 2 => popn 2; popn 2",
+            "cmp_i; not; set_lt => popn 2; push 0",
+            "cmp_i; cmp_i; popn 2 => popn 2; popn 2",
+            "cmp_i; cmp_u; popn 2 => popn 2; popn 2",
+            "cmp_i; set_lt; set_lt => popn 2; push 0",
+            "cmp_i; set_gt; set_lt => popn 2; push 0",
+            "cmp_i; neg_f; not => popn 2; push 0",
+            "cmp_i; neg_f; set_gt => cmp_i; set_lt",
+            "cmp_u; push 0; mul_i => popn 2; push 0",
+            "cmp_u; push 0; and => popn 2; push 0",
+            "cmp_u; push 0; cmp_i => cmp_u",
+            "cmp_u; push -1; or => popn 2; push -1",
+            "cmp_u; push 2; cmp_i => popn 2; push -1",
+            "cmp_u; dup; sub_i => popn 2; push 0",
+            "cmp_u; dup; xor => popn 2; push 0",
+            "cmp_u; dup; cmp_i => popn 2; push 0",
+            "cmp_u; dup; cmp_u => popn 2; push 0",
+            "cmp_u; popn 2; pop => popn 2; popn 2",
+            "cmp_u; add_i; popn 2 => popn 2; popn 2",
+            "cmp_u; sub_i; popn 2 => popn 2; popn 2",
+            "cmp_u; mul_i; popn 2 => popn 2; popn 2",
+            "cmp_u; neg_i; set_lt => cmp_u; set_gt",
+            "cmp_u; neg_i; set_gt => cmp_u; set_lt",
+            "cmp_u; and; popn 2 => popn 2; popn 2",
+            "cmp_u; or; popn 2 => popn 2; popn 2",
+            "cmp_u; xor; popn 2 => popn 2; popn 2",
+            "cmp_u; not; set_lt => popn 2; push 0",
+            "cmp_u; cmp_i; popn 2 => popn 2; popn 2",
+            "cmp_u; cmp_u; popn 2 => popn 2; popn 2",
+            "cmp_u; set_lt; set_lt => popn 2; push 0",
+            "cmp_u; set_gt; set_lt => popn 2; push 0",
+            "cmp_u; neg_f; not => popn 2; push 0",
+            "cmp_u; neg_f; set_gt => cmp_u; set_lt",
+            "set_lt; push 0; mul_i => push 0; mul_i",
+            "set_lt; push 0; and => push 0; mul_i",
+            "set_lt; push 0; cmp_i => set_lt",
+            "set_lt; push 0; cmp_u => set_lt",
+            "set_lt; push 0; add_f => set_lt",
+            "set_lt; push 0; sub_f => set_lt",
+            "set_lt; push 0; mul_f => push 0; mul_i",
+            "set_lt; push 1; and => set_lt",
+            "set_lt; push 1; or => pop; push 1",
+            "set_lt; push 1; xor => set_lt; not",
+            "set_lt; push 1; shr => push 0; mul_i",
+            "set_lt; push 1; shrl => push 0; mul_i",
+            "set_lt; push 1; mul_f => push 0; mul_i",
+            "set_lt; push -1; or => push -1; or",
+            "set_lt; push -1; cmp_i => pop; push 1",
+            "set_lt; push -1; cmp_u => push -1; or",
+            "set_lt; push 2; and => push 0; mul_i",
+            "set_lt; push 2; shr => push 0; mul_i",
+            "set_lt; push 2; shrl => push 0; mul_i",
+            "set_lt; push 2; cmp_i => push -1; or",
+            "set_lt; push 2; cmp_u => push -1; or",
+            "set_lt; push 2; mul_f => push 0; mul_i",
+            "set_lt; dup; sub_i => push 0; mul_i",
+            "set_lt; dup; mul_i => set_lt",
+            "set_lt; dup; xor => push 0; mul_i",
+            "set_lt; dup; shr => push 0; mul_i",
+            "set_lt; dup; shrl => push 0; mul_i",
+            "set_lt; dup; cmp_i => push 0; mul_i",
+            "set_lt; dup; cmp_u => push 0; mul_i",
+            "set_lt; dup; set_lt => set_lt; push 0",
+            "set_lt; dup; set_gt => set_lt; dup",
+            "set_lt; dup; sub_f => push 0; mul_i",
+            "set_lt; dup; mul_f => push 0; mul_i",
+            "set_lt; add_i; popn 2 => pop; popn 2",
+            "set_lt; sub_i; popn 2 => pop; popn 2",
+            "set_lt; mul_i; popn 2 => pop; popn 2",
+            "set_lt; mul_i; set_lt => and; set_lt",
+            "set_lt; neg_i; and => set_lt; mul_i",
+            "set_lt; neg_i; set_lt => set_lt",
+            "set_lt; neg_i; set_gt => push 0; mul_i",
+            "set_lt; and; popn 2 => pop; popn 2",
+            "set_lt; and; set_lt => popn 2; push 0",
+            "set_lt; and; set_gt => set_lt; and",
+            "set_lt; or; popn 2 => pop; popn 2",
+            "set_lt; or; set_lt => pop; set_lt",
+            "set_lt; xor; popn 2 => pop; popn 2",
+            "set_lt; xor; set_lt => pop; set_lt",
+            "set_lt; not; not => set_lt",
+            "set_lt; not; set_lt => push 0; mul_i",
+            "set_lt; shl; pop => popn 2",
+            "set_lt; shl; popn 2 => pop; popn 2",
+            "set_lt; shr; pop => popn 2",
+            "set_lt; shr; popn 2 => pop; popn 2",
+            "set_lt; shr; set_lt => pop; set_lt",
+            "set_lt; shrl; pop => popn 2",
+            "set_lt; shrl; popn 2 => pop; popn 2",
+            "set_lt; cmp_i; popn 2 => pop; popn 2",
+            "set_lt; cmp_u; popn 2 => pop; popn 2",
+            "set_lt; set_lt; add_i => pop",
+            "set_lt; set_lt; sub_i => pop",
+            "set_lt; set_lt; mul_i => popn 2; push 0",
+            "set_lt; set_lt; neg_i => push 0; mul_i",
+            "set_lt; set_lt; and => popn 2; push 0",
+            "set_lt; set_lt; or => pop",
+            "set_lt; set_lt; xor => pop",
+            "set_lt; set_lt; not => pop; push 1",
+            "set_lt; set_lt; shl => pop",
+            "set_lt; set_lt; shr => pop",
+            "set_lt; set_lt; shrl => pop",
+            "set_lt; set_lt; set_lt => push 0; mul_i",
+            "set_lt; set_lt; itof => push 0; mul_i",
+            "set_lt; neg_f; not => push 0; mul_i",
+            "set_lt; neg_f; set_lt => pop; push 1",
+            "set_lt; neg_f; set_gt => push 0; mul_i",
+            "set_gt; push 0; mul_i => push 0; mul_i",
+            "set_gt; push 0; and => push 0; mul_i",
+            "set_gt; push 0; cmp_i => set_gt",
+            "set_gt; push 0; cmp_u => set_gt",
+            "set_gt; push 0; add_f => set_gt",
+            "set_gt; push 0; sub_f => set_gt",
+            "set_gt; push 0; mul_f => push 0; mul_i",
+            "set_gt; push 1; and => set_gt",
+            "set_gt; push 1; or => pop; push 1",
+            "set_gt; push 1; xor => set_gt; not",
+            "set_gt; push 1; shr => push 0; mul_i",
+            "set_gt; push 1; shrl => push 0; mul_i",
+            "set_gt; push 1; mul_f => push 0; mul_i",
+            "set_gt; push -1; or => push -1; or",
+            "set_gt; push -1; cmp_i => pop; push 1",
+            "set_gt; push -1; cmp_u => push -1; or",
+            "set_gt; push 2; and => push 0; mul_i",
+            "set_gt; push 2; shr => push 0; mul_i",
+            "set_gt; push 2; shrl => push 0; mul_i",
+            "set_gt; push 2; cmp_i => push -1; or",
+            "set_gt; push 2; cmp_u => push -1; or",
+            "set_gt; push 2; mul_f => push 0; mul_i",
+            "set_gt; dup; sub_i => push 0; mul_i",
+            "set_gt; dup; mul_i => set_gt",
+            "set_gt; dup; xor => push 0; mul_i",
+            "set_gt; dup; shr => push 0; mul_i",
+            "set_gt; dup; shrl => push 0; mul_i",
+            "set_gt; dup; cmp_i => push 0; mul_i",
+            "set_gt; dup; cmp_u => push 0; mul_i",
+            "set_gt; dup; set_lt => set_gt; push 0",
+            "set_gt; dup; set_gt => set_gt; dup",
+            "set_gt; dup; sub_f => push 0; mul_i",
+            "set_gt; dup; mul_f => push 0; mul_i",
+            "set_gt; add_i; popn 2 => pop; popn 2",
+            "set_gt; sub_i; popn 2 => pop; popn 2",
+            "set_gt; mul_i; popn 2 => pop; popn 2",
+            "set_gt; neg_i; and => set_gt; mul_i",
+            "set_gt; neg_i; set_lt => set_gt",
+            "set_gt; neg_i; set_gt => push 0; mul_i",
+            "set_gt; and; popn 2 => pop; popn 2",
+            "set_gt; and; set_lt => popn 2; push 0",
+            "set_gt; and; set_gt => set_gt; and",
+            "set_gt; or; popn 2 => pop; popn 2",
+            "set_gt; or; set_lt => pop; set_lt",
+            "set_gt; xor; popn 2 => pop; popn 2",
+            "set_gt; xor; set_lt => pop; set_lt",
+            "set_gt; not; not => set_gt",
+            "set_gt; not; set_lt => push 0; mul_i",
+            "set_gt; shl; pop => popn 2",
+            "set_gt; shl; popn 2 => pop; popn 2",
+            "set_gt; shr; pop => popn 2",
+            "set_gt; shr; popn 2 => pop; popn 2",
+            "set_gt; shr; set_lt => pop; set_lt",
+            "set_gt; shrl; pop => popn 2",
+            "set_gt; shrl; popn 2 => pop; popn 2",
+            "set_gt; cmp_i; popn 2 => pop; popn 2",
+            "set_gt; cmp_u; popn 2 => pop; popn 2",
+            "set_gt; set_lt; add_i => pop",
+            "set_gt; set_lt; sub_i => pop",
+            "set_gt; set_lt; mul_i => popn 2; push 0",
+            "set_gt; set_lt; neg_i => push 0; mul_i",
+            "set_gt; set_lt; and => popn 2; push 0",
+            "set_gt; set_lt; or => pop",
+            "set_gt; set_lt; xor => pop",
+            "set_gt; set_lt; not => pop; push 1",
+            "set_gt; set_lt; shl => pop",
+            "set_gt; set_lt; shr => pop",
+            "set_gt; set_lt; shrl => pop",
+            "set_gt; set_lt; set_lt => push 0; mul_i",
+            "set_gt; set_lt; itof => push 0; mul_i",
+            "set_gt; neg_f; not => push 0; mul_i",
+            "set_gt; neg_f; set_lt => pop; push 1",
+            "set_gt; neg_f; set_gt => push 0; mul_i",
+            "neg_f; push 0; mul_i => push 0; mul_i",
+            "neg_f; push 0; and => push 0; mul_i",
+            "neg_f; push 1; and => push 1; and",
+            "neg_f; push 1; shl => push 1; shl",
+            "neg_f; push -1; or => push -1; or",
+            "neg_f; push 2; mul_i => push 1; shl",
+            "neg_f; push 2; and => push 2; and",
+            "neg_f; push 2; shl => push 2; shl",
+            "neg_f; dup; add_i => push 1; shl",
+            "neg_f; dup; sub_i => push 0; mul_i",
+            "neg_f; dup; mul_i => dup; mul_i",
+            "neg_f; dup; xor => push 0; mul_i",
+            "neg_f; dup; cmp_i => push 0; mul_i",
+            "neg_f; dup; cmp_u => push 0; mul_i",
+            "neg_f; add_i; popn 2 => pop; popn 2",
+            "neg_f; add_i; neg_f => add_i",
+            "neg_f; sub_i; popn 2 => pop; popn 2",
+            "neg_f; sub_i; neg_f => sub_i",
+            "neg_f; mul_i; popn 2 => pop; popn 2",
+            "neg_f; neg_i; set_gt => set_gt",
+            "neg_f; neg_i; neg_f => neg_i",
+            "neg_f; and; popn 2 => pop; popn 2",
+            "neg_f; or; popn 2 => pop; popn 2",
+            "neg_f; xor; popn 2 => pop; popn 2",
+            "neg_f; xor; neg_f => xor",
+            "neg_f; not; set_lt => push 0; mul_i",
+            "neg_f; cmp_i; popn 2 => pop; popn 2",
+            "neg_f; cmp_u; popn 2 => pop; popn 2",
+            "neg_f; set_lt; not => set_lt",
+            "neg_f; set_lt; set_lt => push 0; mul_i",
+            "neg_f; set_gt; set_lt => push 0; mul_i",
+            "itof; push 0; mul_i => push 0; mul_i",
+            "itof; push 0; and => push 0; mul_i",
+            "itof; push 0; cmp_i => push 0; cmp_i",
+            "itof; push 0; cmp_u => push 0; cmp_u",
+            "itof; push 0; add_f => itof",
+            "itof; push 0; sub_f => itof",
+            "itof; push -1; or => push -1; or",
+            "itof; push -1; cmp_u => push -1; or",
+            "itof; dup; sub_i => push 0; mul_i",
+            "itof; dup; xor => push 0; mul_i",
+            "itof; dup; cmp_i => push 0; mul_i",
+            "itof; dup; cmp_u => push 0; mul_i",
+            "itof; dup; sub_f => push 0; mul_i",
+            "itof; add_i; popn 2 => pop; popn 2",
+            "itof; sub_i; popn 2 => pop; popn 2",
+            "itof; mul_i; popn 2 => pop; popn 2",
+            "itof; neg_i; set_lt => set_gt",
+            "itof; neg_i; set_gt => set_lt",
+            "itof; and; popn 2 => pop; popn 2",
+            "itof; and; set_lt => and; set_lt",
+            "itof; or; popn 2 => pop; popn 2",
+            "itof; or; set_lt => or; set_lt",
+            "itof; or; set_gt => or; set_gt",
+            "itof; xor; popn 2 => pop; popn 2",
+            "itof; xor; set_lt => xor; set_lt",
+            "itof; cmp_i; popn 2 => pop; popn 2",
+            "itof; cmp_u; popn 2 => pop; popn 2",
+            "itof; neg_f; not => push 0; mul_i",
+            "itof; neg_f; set_lt => set_lt; not",
+            "itof; neg_f; set_gt => set_lt",
+    };
+}
@@ -0,0 +1,149 @@
+package c0anayzer.optimizer;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+/**
+ * 虚拟机运行时收集的执行剖面，文本格式，每行一条记录，# 开头的行和空行忽略：
+ * <pre>
+ * function &lt;函数名&gt; &lt;调用次数&gt;
+ * block &lt;函数名&gt; &lt;块的第一条指令的位置&gt; &lt;执行次数&gt;
+ * branch &lt;函数名&gt; &lt;条件跳转指令的位置&gt; &lt;跳转次数&gt; &lt;不跳转次数&gt;
+ * </pre>
+ * 指令位置是该函数在 -O0 输出中的函数体内从 0 开始的下标，即分析器生成的原始函数体，
+ * 所以剖面要用同一份源程序 -O0 编译的结果收集。
+ * 没有运行到的函数也应该写出调用次数 0，没有记录的函数当作没有剖面信息
+ */
+public class Profile {
+    /** 调用次数达到最热函数的这个比例算热函数 */
+    private static final double HOT_RATIO = 0.1;
+
+    private HashMap<String, Long> calls = new HashMap<>();
+    private HashMap<String, HashMap<Integer, Long>> blocks = new HashMap<>();
+    private HashMap<String, HashMap<Integer, long[]>> branches = new HashMap<>();
+    private long maxCalls = 0;
+
+    /**
+     * 读取剖面文件
+     * @param fileName 文件名
+     * @return 剖面
+     * @throws IOException 文件不能读取或格式错误
+     */
+    public static Profile read(String fileName) throws IOException {
+        Profile p = new Profile();
+        try(BufferedReader in = new BufferedReader(
+                new InputStreamReader(new FileInputStream(fileName), StandardCharsets.UTF_8))){
+            String line;
+            int lineNo = 0;
+            while((line = in.readLine()) != null){
+                lineNo++;
+                line = line.trim();
+                if(line.isEmpty() || line.startsWith("#"))
+                    continue;
+                try {
+                    p.parse(line.split("\\s+"));
+                } catch (IllegalArgumentException e) {
+                    throw new IOException(fileName + ":" + lineNo + ": bad profile record: " + line);
+                }
+            }
+        }
+        return p;
+    }
+
+    private void parse(String[] t){
+        switch (t[0]) {
+            case "function":
+                expect(t, 3);
+                setCalls(t[1], count(t[2]));
+                break;
+            case "block":
+                expect(t, 4);
+                blocks.computeIfAbsent(t[1], k -> new HashMap<>()).put(Integer.parseInt(t[2]), count(t[3]));
+                break;
+            case "branch":
+                expect(t, 5);
+                branches.computeIfAbsent(t[1], k -> new HashMap<>()).
+                        put(Integer.parseInt(t[2]), new long[]{count(t[3]), count(t[4])});
+                break;
+            default:
+                throw new IllegalArgumentException();
+        }
+    }
+
+    private static void expect(String[] t, int n){
+        if(t.length != n)
+            throw new IllegalArgumentException();
+    }
+
+    private static long count(String s){
+        long c = Long.parseLong(s);
+        if(c < 0)
+            throw new IllegalArgumentException();
+        return c;
+    }
+
+    public void setCalls(String fnName, long count){
+        calls.put(fnName, count);
+        maxCalls = Math.max(maxCalls, count);
+    }
+
+    /**
+     * 函数的调用次数，特化得到的拷贝（f#0）按原函数计算
+     * @param fnName 函数名
+     * @return 调用次数，没有记录时为 -1
+     */
+    public long getCalls(String fnName){
+        return calls.getOrDefault(baseName(fnName), -1L);
+    }
+
+    /**
+     * 是否是热函数
+     */
+    public boolean isHot(String fnName){
+        long c = getCalls(fnName);
+        return c > 0 && c >= maxCalls * HOT_RATIO;
+    }
+
+    /**
+     * 是否是运行时从未调用的函数
+     */
+    public boolean isCold(String fnName){
+        return getCalls(fnName) == 0;
+    }
+
+    /**
+     * 基本块的执行次数
+     * @param fnName 函数名
+     * @param index 块的第一条指令的位置
+     * @return 执行次数，没有记录时为 -1
+     */
+    public long getBlockCount(String fnName, int index){
+        return blocks.getOrDefault(fnName, new HashMap<>()).getOrDefault(index, -1L);
+    }
+
+    /**
+     * 条件跳转的跳转次数和不跳转次数
+     * @param fnName 函数名
+     * @param index 条件跳转指令的位置
+     * @return {跳转次数, 不跳转次数}，没有记录时为 null
+     */
+    public long[] getBranchCounts(String fnName, int index){
+        return branches.getOrDefault(fnName, new HashMap<>()).get(index);
+    }
+
+    /**
+     * 函数是否有块或跳转的记录
+     */
+    public boolean hasBlockData(String fnName){
+        return blocks.containsKey(fnName) || branches.containsKey(fnName);
+    }
+
+    private static String baseName(String fnName){
+        int k = fnName.indexOf('#');
+        return k < 0 ? fnName : fnName.substring(0, k);
+    }
+}
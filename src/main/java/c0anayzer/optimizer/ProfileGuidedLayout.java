@@ -0,0 +1,250 @@
+package c0anayzer.optimizer;
+
+import c0anayzer.instruction.Instruction;
+import c0anayzer.instruction.Operation;
+import c0anayzer.midcode.FnInstruct;
+import c0anayzer.midcode.MidCode;
+
+import java.util.*;
+
+/**
+ * 按执行剖面排列代码：
+ * 剖面中的指令位置对应原始函数体，所以在优化之前先把块和边的执行次数记到块的第一条指令上（attach），
+ * 优化之后第一条指令还在的块仍然能找到自己的次数。
+ * 函数内的基本块按边的执行次数从大到小连成链（Pettis-Hansen），
+ * 边的两端能接上时让后继紧跟在前驱后面，条件跳转较常走的一边因此成为顺序执行的一边；
+ * 没有次数的块尽量保持原来的顺序执行关系。
+ * 再把链按执行次数从热到冷排列，从未执行的链放在最后，跳转和多执行的 br 的次数比原来少时才采用。
+ * 函数按调用次数从多到少排列，从未调用的函数放在最后，_start 仍然在函数表的末尾
+ */
+public class ProfileGuidedLayout {
+    private Profile profile;
+    /** 块的第一条指令 -> 块的执行次数 */
+    private IdentityHashMap<Instruction, Long> blockCounts = new IdentityHashMap<>();
+    /** 前驱块的第一条指令 -> 后继块的第一条指令 -> 边的执行次数 */
+    private IdentityHashMap<Instruction, IdentityHashMap<Instruction, Long>> edgeCounts = new IdentityHashMap<>();
+
+    /** 控制流图的一条边和它的执行次数 */
+    private static class Edge {
+        BasicBlock from;
+        BasicBlock to;
+        long count;
+
+        Edge(BasicBlock from, BasicBlock to, long count){
+            this.from = from;
+            this.to = to;
+            this.count = count;
+        }
+    }
+
+    public ProfileGuidedLayout(Profile profile){
+        this.profile = profile;
+    }
+
+    /**
+     * 把剖面中块和条件跳转的次数记到原始函数体的指令上，要在其他优化之前调用
+     * @param m 中间代码
+     * @return 找到次数的块的个数
+     */
+    public int attach(MidCode m){
+        int attached = 0;
+        for(FnInstruct f : m.fnList){
+            String name = f.getFnName();
+            if(!profile.hasBlockData(name))
+                continue;
+            ArrayList<Instruction> body = f.getFnBody();
+            IdentityHashMap<Instruction, Integer> index = new IdentityHashMap<>();
+            for(int i=0; i<body.size(); i++){
+                index.put(body.get(i), i);
+            }
+            ControlFlowGraph cfg = ControlFlowGraph.build(f);
+            for(BasicBlock b : cfg.blocks){
+                if(b == cfg.exit)
+                    continue;
+                long count = profile.getBlockCount(name, index.get(first(b)));
+                if(count >= 0){
+                    blockCounts.put(first(b), count);
+                    attached++;
+                }
+                long[] c = b.endsWithCondBr() ? profile.getBranchCounts(name, index.get(b.terminator)) : null;
+                if(c != null){
+                    putEdge(b, b.jumpTarget, c[0]);
+                    putEdge(b, b.fallThrough, c[1]);
+                }
+                else if(count >= 0 && b.getSuccessors().size() == 1){
+                    putEdge(b, b.getSuccessors().get(0), count);
+                }
+            }
+        }
+        return attached;
+    }
+
+    private void putEdge(BasicBlock from, BasicBlock to, long count){
+        if(to.instructions.isEmpty() && to.terminator == null)
+            return;
+        edgeCounts.computeIfAbsent(first(from), k -> new IdentityHashMap<>()).merge(first(to), count, Long::sum);
+    }
+
+    private static Instruction first(BasicBlock b){
+        return b.isEmpty() ? b.terminator : b.instructions.get(0);
+    }
+
+    /**
+     * 按剖面重新排列一个函数的基本块
+     * @param f 函数
+     * @return 位置改变的块的个数
+     */
+    public int layoutBlocks(FnInstruct f){
+        ControlFlowGraph cfg = ControlFlowGraph.build(f);
+        HashMap<BasicBlock, Long> heat = new HashMap<>();
+        ArrayList<Edge> edges = new ArrayList<>();
+        for(BasicBlock b : cfg.blocks){
+            if(b == cfg.exit)
+                continue;
+            heat.put(b, blockCounts.getOrDefault(first(b), -1L));
+            IdentityHashMap<Instruction, Long> out = edgeCounts.get(first(b));
+            if(out == null)
+                continue;
+            for(BasicBlock s : b.getSuccessors()){
+                Long count = s == cfg.exit ? null : out.get(first(s));
+                if(count != null)
+                    edges.add(new Edge(b, s, count));
+            }
+        }
+        if(edges.isEmpty())
+            return 0;
+
+        // 按执行次数从大到小连接链，再按原来的顺序执行关系连接没有次数的块，入口块必须在链首。
+        // 没有次数的顺序执行边不一定冷，按块的次数或者函数中最大的次数估计
+        edges.sort(Comparator.comparingLong((Edge e) -> e.count).reversed());
+        long max = edges.get(0).count;
+        HashSet<BasicBlock> counted = new HashSet<>();
+        for(Edge e : edges){
+            if(e.to == e.from.fallThrough)
+                counted.add(e.from);
+        }
+        edges.removeIf(e -> e.count <= 0);
+        for(int k=0; k+1<cfg.blocks.size(); k++){
+            BasicBlock b = cfg.blocks.get(k);
+            if(b.fallThrough == cfg.blocks.get(k + 1) && b.fallThrough != cfg.exit && !counted.contains(b))
+                edges.add(new Edge(b, b.fallThrough, heat.get(b) >= 0 ? heat.get(b) : max));
+        }
+        HashMap<BasicBlock, ArrayList<BasicBlock>> chainOf = new HashMap<>();
+        for(BasicBlock b : heat.keySet()){
+            chainOf.put(b, new ArrayList<>(Collections.singletonList(b)));
+        }
+        for(Edge e : edges){
+            if(e.to == cfg.exit || e.to == cfg.entry)
+                continue;
+            ArrayList<BasicBlock> a = chainOf.get(e.from);
+            ArrayList<BasicBlock> b = chainOf.get(e.to);
+            if(a == b || a.get(a.size() - 1) != e.from || b.get(0) != e.to)
+                continue;
+            a.addAll(b);
+            for(BasicBlock x : b){
+                chainOf.put(x, a);
+            }
+        }
+
+        // 入口所在的链在最前，其余的链按原来的顺序稳定地从热到冷排列
+        ArrayList<ArrayList<BasicBlock>> chains = new ArrayList<>();
+        for(BasicBlock b : cfg.blocks){
+            if(b != cfg.exit && b != cfg.entry && chainOf.get(b).get(0) == b)
+                chains.add(chainOf.get(b));
+        }
+        chains.sort(Comparator.comparingLong((ArrayList<BasicBlock> c) -> chainHeat(c, heat)).reversed());
+        ArrayList<BasicBlock> order = new ArrayList<>(chainOf.get(cfg.entry));
+        for(ArrayList<BasicBlock> c : chains){
+            order.addAll(c);
+        }
+        order.add(cfg.exit);
+
+        // 其他优化已经排好的循环等结构可能比按链排列更好，只在代价减少时采用新的顺序
+        if(cost(order, edges) >= cost(cfg.blocks, edges))
+            return 0;
+        int moved = 0;
+        for(int i=0; i<order.size(); i++){
+            if(order.get(i) != cfg.blocks.get(i))
+                moved++;
+        }
+        cfg.blocks = order;
+        cfg.writeBack();
+        return moved;
+    }
+
+    /**
+     * 按某个顺序排列时的代价：发生跳转（后继不是下一块）的次数，加上多执行的 br 指令的次数。
+     * 条件跳转的两个后继都不是下一块时，不成立的一边要多执行一条 br
+     */
+    private static long cost(ArrayList<BasicBlock> order, ArrayList<Edge> edges){
+        HashMap<BasicBlock, BasicBlock> next = new HashMap<>();
+        for(int k=0; k+1<order.size(); k++){
+            next.put(order.get(k), order.get(k + 1));
+        }
+        long cost = 0;
+        for(Edge e : edges){
+            BasicBlock n = next.get(e.from);
+            if(n == e.to)
+                continue;
+            cost += e.count;
+            if(!e.from.endsWithCondBr() || e.to == e.from.fallThrough && e.from.jumpTarget != n)
+                cost += e.count;
+        }
+        return cost;
+    }
+
+    /**
+     * 链中执行次数最多的块的次数，从未执行的链排在没有次数的链之后
+     */
+    private static long chainHeat(ArrayList<BasicBlock> chain, HashMap<BasicBlock, Long> heat){
+        long max = -1;
+        for(BasicBlock b : chain){
+            max = Math.max(max, heat.get(b));
+        }
+        return max == 0 ? -2 : max;
+    }
+
+    /**
+     * 按调用次数重新排列函数，修正所有 call 的函数编号
+     * @param m 中间代码
+     * @return 位置改变的函数的个数
+     */
+    public int orderFunctions(MidCode m){
+        IdentityHashMap<Instruction, FnInstruct> callees = new IdentityHashMap<>();
+        for(FnInstruct f : m.fnList){
+            for(Instruction i : f.getFnBody()){
+                if(i.getOpt() == Operation.call)
+                    callees.put(i, m.getFnByAddress(i.getIntX()));
+            }
+        }
+
+        ArrayList<FnInstruct> order = new ArrayList<>();
+        FnInstruct start = null;
+        for(FnInstruct f : m.fnList){
+            if(f.getFnName().equals("_start"))
+                start = f;
+            else
+                order.add(f);
+        }
+        order.sort(Comparator.comparingLong((FnInstruct f) -> {
+            long c = profile.getCalls(f.getFnName());
+            return c == 0 ? -2 : c;
+        }).reversed());
+        if(start != null)
+            order.add(start);
+
+        int moved = 0;
+        for(int i=0; i<order.size(); i++){
+            if(order.get(i) != m.fnList.get(i))
+                moved++;
+        }
+        if(moved == 0)
+            return 0;
+        m.fnList.clear();
+        m.fnList.addAll(order);
+        for(Map.Entry<Instruction, FnInstruct> e : callees.entrySet()){
+            e.getKey().setX(m.fnList.indexOf(e.getValue()) + 1);
+        }
+        return moved;
+    }
+}
@@ -0,0 +1,90 @@
+package c0anayzer.optimizer;
+
+import c0anayzer.instruction.Instruction;
+import c0anayzer.instruction.Operation;
+import c0anayzer.midcode.FnInstruct;
+import c0anayzer.midcode.MidCode;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+/**
+ * 删除结果被丢弃（后面跟着 popn 1）的无副作用计算，
+ * 其中的函数调用要求被调函数不写全局变量、不做输入输出并且一定返回
+ */
+public class PureCallElimination {
+
+    /**
+     * 对所有函数做删除
+     * @param m 中间代码
+     * @return 删除的表达式语句个数
+     */
+    public static int optimize(MidCode m){
+        SideEffectAnalysis effects = SideEffectAnalysis.analyse(m);
+        int removed = 0;
+        for(FnInstruct f : m.fnList){
+            removed += optimize(f, m, effects);
+        }
+        return removed;
+    }
+
+    private static int optimize(FnInstruct f, MidCode m, SideEffectAnalysis effects){
+        ArrayList<Instruction> body = f.getFnBody();
+        int removed = 0;
+        for(int i=body.size()-1; i>=0; i--){
+            if(body.get(i).getOpt() != Operation.popn || body.get(i).getIntX() != 1)
+                continue;
+            ArrayList<Integer> stack = StackEffect.operandStarts(body, 0, i);
+            if(stack.isEmpty())
+                continue;
+            int start = stack.get(stack.size() - 1);
+            if(start < 0 || crossesLabel(body, start, i) ||
+                    StackEffect.heightAfter(body.subList(start, i), 0) != 1)
+                continue;
+            boolean removable = true;
+            for(int k=start; k<i && removable; k++){
+                removable = isRemovable(body.get(k), m, effects);
+            }
+            if(!removable)
+                continue;
+            f.replaceInstructions(start, i, new ArrayList<>());
+            removed++;
+            i = start;
+        }
+        return removed;
+    }
+
+    private static boolean isRemovable(Instruction ins, MidCode m, SideEffectAnalysis effects){
+        Operation op = ins.getOpt();
+        switch (op) {
+            case push:
+            case loca:
+            case arga:
+            case globa:
+            case load_64:
+            case stackalloc:
+                return true;
+            case call:
+                return effects.isRemovable(m.getFnByAddress(ins.getIntX()));
+            default:
+                return StackEffect.isPureArith(op) && op != Operation.div_i && op != Operation.div_u;
+        }
+    }
+
+    /**
+     * 区间 (start, end] 中是否有跳转目标，或区间中是否有跳转
+     */
+    private static boolean crossesLabel(ArrayList<Instruction> body, int start, int end){
+        HashSet<Integer> targets = new HashSet<>();
+        for(int k=0; k<body.size(); k++){
+            Instruction b = body.get(k);
+            if(ControlFlowGraph.isBranch(b.getOpt()))
+                targets.add(k + b.getIntX() + 1);
+        }
+        for(int k=start; k<=end; k++){
+            if(ControlFlowGraph.isTerminator(body.get(k).getOpt()) || (k > start && targets.contains(k)))
+                return true;
+        }
+        return false;
+    }
+}
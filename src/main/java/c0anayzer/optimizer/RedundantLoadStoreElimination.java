@@ -0,0 +1,223 @@
+package c0anayzer.optimizer;
+
+import c0anayzer.instruction.Instruction;
+import c0anayzer.instruction.Operation;
+import c0anayzer.midcode.FnInstruct;
+import c0anayzer.midcode.MidCode;
+
+import java.util.*;
+
+/**
+ * 基本块内的冗余读写消除，在块内模拟操作数栈并记录每个变量当前保存的值：
+ * 栈顶已经是变量的值时 A; load_64 改为 dup；
+ * 写入变量已经保存着的值时删掉整个赋值；
+ * 写入后在读之前又被覆盖的赋值删掉（值有副作用时只丢弃结果）
+ */
+public class RedundantLoadStoreElimination {
+
+    /** 栈上的一个值 */
+    private static class Val {
+        int vn;
+        /** 计算这个值的指令区间，start < 0 表示不连续 */
+        int start = -1;
+        int end = -1;
+        /** 计算过程没有副作用，可以删掉 */
+        boolean pure;
+        /** 如果这是一个地址，记录取地址的指令 */
+        Instruction loc;
+    }
+
+    /** 还没有被读过的一次赋值 */
+    private static class Store {
+        /** 取地址指令的位置 */
+        int address;
+        /** store_64 的位置 */
+        int store;
+        /** 写入的值可以整体删掉 */
+        boolean pure;
+    }
+
+    private int nextVn = 0;
+    private HashMap<Instruction, Integer> content = new HashMap<>();
+    private HashMap<Instruction, Store> pending = new HashMap<>();
+
+    /**
+     * 对所有函数做冗余读写消除
+     * @param m 中间代码
+     * @return 删除的指令条数
+     */
+    public static int optimize(MidCode m){
+        int removed = 0;
+        for(FnInstruct f : m.fnList){
+            removed += optimize(f);
+        }
+        return removed;
+    }
+
+    public static int optimize(FnInstruct f){
+        ControlFlowGraph cfg = ControlFlowGraph.build(f);
+        int removed = 0;
+        for(BasicBlock b : cfg.blocks){
+            while(true){
+                int n = new RedundantLoadStoreElimination().rewrite(b.instructions);
+                if(n == 0)
+                    break;
+                removed += n;
+            }
+        }
+        if(removed > 0)
+            cfg.writeBack();
+        return removed;
+    }
+
+    private Val opaque(){
+        Val v = new Val();
+        v.vn = nextVn++;
+        return v;
+    }
+
+    private Val pop(ArrayDeque<Val> stack){
+        return stack.isEmpty() ? opaque() : stack.pop();
+    }
+
+    private static boolean isAddress(Operation op){
+        return op == Operation.loca || op == Operation.arga || op == Operation.globa;
+    }
+
+    /**
+     * 符号执行一个块，找到第一处可以改写的地方就改写
+     * @param block 指令
+     * @return 删除的指令条数，没有可以改写的地方时为 0
+     */
+    private int rewrite(ArrayList<Instruction> block){
+        ArrayDeque<Val> stack = new ArrayDeque<>();
+        HashMap<String, Integer> table = new HashMap<>();
+        for(int i=0; i<block.size(); i++){
+            Instruction ins = block.get(i);
+            Operation op = ins.getOpt();
+            if(op == Operation.push || isAddress(op)){
+                Val v = new Val();
+                if(isAddress(op))
+                    v.loc = new Instruction(op, ins.getX(), 4);
+                v.vn = table.computeIfAbsent(ins.toString(), k -> nextVn++);
+                v.start = v.end = i;
+                v.pure = true;
+                stack.push(v);
+            }
+            else if(op == Operation.load_64){
+                Val a = pop(stack);
+                if(a.loc == null){
+                    // 不知道读哪里，之前的赋值都可能被读到
+                    pending.clear();
+                    stack.push(opaque());
+                    continue;
+                }
+                pending.remove(a.loc);
+                Integer c = content.get(a.loc);
+                if(c != null && a.start == i - 1 && !stack.isEmpty() && stack.peek().vn == c){
+                    block.set(i - 1, new Instruction(Operation.dup));
+                    block.remove(i);
+                    return 1;
+                }
+                Val v = c != null ? new Val() : opaque();
+                if(c != null)
+                    v.vn = c;
+                else
+                    content.put(a.loc, v.vn);
+                if(a.start >= 0 && a.end == i - 1){
+                    v.start = a.start;
+                    v.end = i;
+                    v.pure = a.pure;
+                }
+                stack.push(v);
+            }
+            else if(op == Operation.store_64){
+                Val v = pop(stack);
+                Val a = pop(stack);
+                if(a.loc == null || a.start != a.end){
+                    content.clear();
+                    continue;
+                }
+                boolean whole = v.pure && v.start == a.start + 1 && v.end == i - 1;
+                Integer c = content.get(a.loc);
+                if(whole && c != null && c == v.vn){
+                    block.subList(a.start, i + 1).clear();
+                    return i + 1 - a.start;
+                }
+                Store s = pending.get(a.loc);
+                if(s != null){
+                    if(s.pure){
+                        block.subList(s.address, s.store + 1).clear();
+                        return s.store + 1 - s.address;
+                    }
+                    block.set(s.store, new Instruction(Operation.pop));
+                    block.remove(s.address);
+                    return 1;
+                }
+                s = new Store();
+                s.address = a.start;
+                s.store = i;
+                s.pure = whole;
+                pending.put(a.loc, s);
+                content.put(a.loc, v.vn);
+            }
+            else if(op == Operation.dup){
+                Val a = pop(stack);
+                Val c = new Val();
+                c.vn = a.vn;
+                // 复制出的值只由 dup 产生，和原值一起用掉时整体仍然连续
+                if(a.start >= 0 && a.end == i - 1){
+                    c.start = c.end = i;
+                    c.pure = a.pure;
+                }
+                stack.push(a);
+                stack.push(c);
+            }
+            else if(StackEffect.isPureArith(op)){
+                int n = StackEffect.pops(ins);
+                Val b = pop(stack);
+                Val a = n == 2 ? pop(stack) : null;
+                Val v = new Val();
+                String key = a == null ? op + " " + b.vn : op + " " + a.vn + " " + b.vn;
+                v.vn = table.computeIfAbsent(key, k -> nextVn++);
+                if(b.start >= 0 && b.end == i - 1 && (a == null || (a.start >= 0 && a.end == b.start - 1))){
+                    v.start = a == null ? b.start : a.start;
+                    v.end = i;
+                    // 除法可能因为除数为 0 出错，不能删掉
+                    v.pure = b.pure && (a == null || a.pure) && op != Operation.div_i && op != Operation.div_u;
+                }
+                stack.push(v);
+            }
+            else {
+                for(int k=StackEffect.pops(ins); k>0; k--)
+                    pop(stack);
+                if(op == Operation.call){
+                    int ret = MidCode.getMidCode().getFnByAddress(ins.getIntX()).getReturnSlots();
+                    for(int k=0; k<ret; k++)
+                        pop(stack);
+                    for(int k=0; k<ret; k++)
+                        stack.push(opaque());
+                    // 被调函数可能读写全局变量
+                    content.keySet().removeIf(l -> l.getOpt() == Operation.globa);
+                    pending.keySet().removeIf(l -> l.getOpt() == Operation.globa);
+                    continue;
+                }
+                if(op == Operation.callname){
+                    int ret = StackEffect.libReturns(MidCode.getMidCode().globalSymbol.get(ins.getIntX()));
+                    for(int k=0; k<ret; k++)
+                        pop(stack);
+                    for(int k=0; k<ret; k++)
+                        stack.push(opaque());
+                    continue;
+                }
+                for(int k=StackEffect.pushes(ins); k>0; k--)
+                    stack.push(opaque());
+                if(op != Operation.pop && op != Operation.popn && op != Operation.stackalloc && op != Operation.nop){
+                    content.clear();
+                    pending.clear();
+                }
+            }
+        }
+        return 0;
+    }
+}
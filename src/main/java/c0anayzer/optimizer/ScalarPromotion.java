@@ -0,0 +1,169 @@
+package c0anayzer.optimizer;
+
+import c0anayzer.instruction.Instruction;
+import c0anayzer.instruction.Operation;
+import c0anayzer.midcode.FnInstruct;
+import c0anayzer.midcode.MidCode;
+
+import java.util.*;
+
+/**
+ * 循环中全局变量的标量替换：
+ * 循环中被写入的全局变量，如果循环里的函数调用都不会用到它，
+ * 就在前置块中读到一个新的局部变量里，循环中改为读写这个局部变量，
+ * 在每个离开循环的地方（出口边和 ret）写回全局变量
+ */
+public class ScalarPromotion {
+
+    private MidCode m;
+    /** 每个函数（包括它调用的函数）用到的全局变量 */
+    private HashMap<FnInstruct, HashSet<Integer>> usedGlobals = new HashMap<>();
+
+    private ScalarPromotion(MidCode m){
+        this.m = m;
+    }
+
+    /**
+     * 对所有函数做标量替换
+     * @param m 中间代码
+     * @return 替换的（循环，全局变量）对数
+     */
+    public static int optimize(MidCode m){
+        ScalarPromotion sp = new ScalarPromotion(m);
+        sp.computeUsedGlobals();
+        int promoted = 0;
+        for(FnInstruct f : m.fnList){
+            promoted += sp.optimize(f);
+        }
+        return promoted;
+    }
+
+    /**
+     * 沿调用关系求每个函数可能读写的全局变量
+     */
+    private void computeUsedGlobals(){
+        for(FnInstruct f : m.fnList){
+            HashSet<Integer> set = new HashSet<>();
+            for(Instruction i : f.getFnBody()){
+                if(i.getOpt() == Operation.globa)
+                    set.add(i.getIntX());
+            }
+            usedGlobals.put(f, set);
+        }
+        boolean changed = true;
+        while(changed){
+            changed = false;
+            for(FnInstruct f : m.fnList){
+                HashSet<Integer> set = usedGlobals.get(f);
+                for(Instruction i : f.getFnBody()){
+                    if(i.getOpt() == Operation.call && set.addAll(usedGlobals.get(m.getFnByAddress(i.getIntX()))))
+                        changed = true;
+                }
+            }
+        }
+    }
+
+    private int optimize(FnInstruct f){
+        int promoted = 0;
+        boolean changed = true;
+        while(changed){
+            changed = false;
+            ControlFlowGraph cfg = ControlFlowGraph.build(f);
+            ArrayList<Loop> loops = Loop.find(cfg);
+            // 外层循环先处理，替换后内层循环里就没有这个全局变量了
+            Collections.reverse(loops);
+            for(Loop l : loops){
+                int n = promote(f, cfg, l);
+                if(n > 0){
+                    cfg.writeBack();
+                    promoted += n;
+                    changed = true;
+                    break;
+                }
+            }
+        }
+        return promoted;
+    }
+
+    /**
+     * 找出循环中可以替换的全局变量
+     */
+    private TreeSet<Integer> candidates(Loop l){
+        TreeSet<Integer> written = new TreeSet<>();
+        HashSet<Integer> clobbered = new HashSet<>();
+        for(BasicBlock b : l.blocks){
+            ArrayList<Instruction> list = b.instructions;
+            for(int i=0; i<list.size(); i++){
+                Instruction ins = list.get(i);
+                if(ins.getOpt() == Operation.globa &&
+                        (i + 1 >= list.size() || list.get(i + 1).getOpt() != Operation.load_64))
+                    written.add(ins.getIntX());
+                else if(ins.getOpt() == Operation.call)
+                    clobbered.addAll(usedGlobals.get(m.getFnByAddress(ins.getIntX())));
+            }
+        }
+        written.removeAll(clobbered);
+        return written;
+    }
+
+    /**
+     * 替换一个循环中的全局变量
+     * @return 替换的全局变量个数
+     */
+    private int promote(FnInstruct f, ControlFlowGraph cfg, Loop l){
+        TreeSet<Integer> globals = candidates(l);
+        if(globals.isEmpty())
+            return 0;
+
+        HashMap<Integer, Integer> temps = new HashMap<>();
+        for(int g : globals){
+            f.addLoc();
+            temps.put(g, f.getNextLocOffset());
+        }
+        for(BasicBlock b : l.blocks){
+            ArrayList<Instruction> list = b.instructions;
+            for(int i=0; i<list.size(); i++){
+                Instruction ins = list.get(i);
+                if(ins.getOpt() == Operation.globa && temps.containsKey(ins.getIntX()))
+                    list.set(i, new Instruction(Operation.loca, temps.get(ins.getIntX()), 4));
+            }
+            if(b.terminator != null && b.terminator.getOpt() == Operation.ret)
+                storeBack(b.instructions, temps);
+        }
+
+        // 同一个出口块的所有出口边共用一个写回块
+        LinkedHashMap<BasicBlock, BasicBlock> exits = new LinkedHashMap<>();
+        for(BasicBlock b : l.blocks){
+            for(BasicBlock s : b.getSuccessors()){
+                if(l.blocks.contains(s))
+                    continue;
+                BasicBlock e = exits.get(s);
+                if(e == null){
+                    e = cfg.insertBlockBefore(s);
+                    e.fallThrough = s;
+                    storeBack(e.instructions, temps);
+                    exits.put(s, e);
+                }
+                b.replaceSuccessor(s, e);
+            }
+        }
+
+        BasicBlock pre = l.insertPreheader(cfg);
+        for(Map.Entry<Integer, Integer> e : temps.entrySet()){
+            pre.instructions.add(new Instruction(Operation.loca, e.getValue(), 4));
+            pre.instructions.add(new Instruction(Operation.globa, e.getKey(), 4));
+            pre.instructions.add(new Instruction(Operation.load_64));
+            pre.instructions.add(new Instruction(Operation.store_64));
+        }
+        return globals.size();
+    }
+
+    private static void storeBack(ArrayList<Instruction> list, HashMap<Integer, Integer> temps){
+        for(Map.Entry<Integer, Integer> e : temps.entrySet()){
+            list.add(new Instruction(Operation.globa, e.getKey(), 4));
+            list.add(new Instruction(Operation.loca, e.getValue(), 4));
+            list.add(new Instruction(Operation.load_64));
+            list.add(new Instruction(Operation.store_64));
+        }
+    }
+}
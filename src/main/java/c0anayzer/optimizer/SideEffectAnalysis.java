@@ -0,0 +1,175 @@
+package c0anayzer.optimizer;
+
+import c0anayzer.instruction.Instruction;
+import c0anayzer.instruction.Operation;
+import c0anayzer.midcode.FnInstruct;
+import c0anayzer.midcode.MidCode;
+
+import java.util.*;
+
+/**
+ * 过程间副作用分析：沿调用图求每个函数（包括它调用的函数）
+ * 是否读全局变量、写全局变量、做输入输出，以及是否可能不返回。
+ * 递归调用按不动点处理，在调用环上的函数都可能不返回
+ */
+public class SideEffectAnalysis {
+
+    public enum Effect {
+        /** 读全局变量 */
+        READS_GLOBALS,
+        /** 写全局变量 */
+        WRITES_GLOBALS,
+        /** 调用库函数做输入输出 */
+        IO,
+        /** 有循环、递归、除法或 panic，可能不返回 */
+        MAY_NOT_RETURN
+    }
+
+    private MidCode m;
+    private HashMap<FnInstruct, EnumSet<Effect>> effects = new HashMap<>();
+
+    private SideEffectAnalysis(MidCode m){
+        this.m = m;
+    }
+
+    /**
+     * 分析整个程序
+     * @param m 中间代码
+     * @return 分析结果
+     */
+    public static SideEffectAnalysis analyse(MidCode m){
+        SideEffectAnalysis a = new SideEffectAnalysis(m);
+        for(FnInstruct f : m.fnList){
+            a.effects.put(f, localEffects(f));
+        }
+        for(FnInstruct f : m.fnList){
+            if(a.callees(f).contains(f) || a.reaches(f, f))
+                a.effects.get(f).add(Effect.MAY_NOT_RETURN);
+        }
+        boolean changed = true;
+        while(changed){
+            changed = false;
+            for(FnInstruct f : m.fnList){
+                EnumSet<Effect> set = a.effects.get(f);
+                for(FnInstruct g : a.callees(f)){
+                    if(set.addAll(a.effects.get(g)))
+                        changed = true;
+                }
+            }
+        }
+        return a;
+    }
+
+    /**
+     * 只看函数自己的指令得到的副作用
+     */
+    private static EnumSet<Effect> localEffects(FnInstruct f){
+        EnumSet<Effect> set = EnumSet.noneOf(Effect.class);
+        ArrayList<Instruction> body = f.getFnBody();
+        for(int i=0; i<body.size(); i++){
+            Instruction ins = body.get(i);
+            switch (ins.getOpt()) {
+                case globa:
+                    if(i + 1 < body.size() && body.get(i + 1).getOpt() == Operation.load_64)
+                        set.add(Effect.READS_GLOBALS);
+                    else
+                        set.add(Effect.WRITES_GLOBALS);
+                    break;
+                case callname:
+                case scan_i:
+                case scan_c:
+                case scan_f:
+                case print_i:
+                case print_c:
+                case print_f:
+                case print_s:
+                case println:
+                    set.add(Effect.IO);
+                    break;
+                case div_i:
+                case div_u:
+                case panic:
+                    set.add(Effect.MAY_NOT_RETURN);
+                    break;
+                default:
+                    // 向后跳转是循环
+                    if(ControlFlowGraph.isBranch(ins.getOpt()) && ins.getIntX() < 0)
+                        set.add(Effect.MAY_NOT_RETURN);
+            }
+        }
+        return set;
+    }
+
+    private LinkedHashSet<FnInstruct> callees(FnInstruct f){
+        LinkedHashSet<FnInstruct> set = new LinkedHashSet<>();
+        for(Instruction i : f.getFnBody()){
+            if(i.getOpt() == Operation.call)
+                set.add(m.getFnByAddress(i.getIntX()));
+        }
+        return set;
+    }
+
+    /**
+     * 从 from 调用的函数出发能否到达 to
+     */
+    private boolean reaches(FnInstruct from, FnInstruct to){
+        HashSet<FnInstruct> seen = new HashSet<>();
+        Deque<FnInstruct> work = new ArrayDeque<>(callees(from));
+        while(!work.isEmpty()){
+            FnInstruct g = work.pop();
+            if(g == to)
+                return true;
+            if(seen.add(g))
+                work.addAll(callees(g));
+        }
+        return false;
+    }
+
+    /**
+     * 函数（包括它调用的函数）的所有副作用
+     */
+    public EnumSet<Effect> effects(FnInstruct f){
+        return EnumSet.copyOf(effects.get(f));
+    }
+
+    /**
+     * 不读写全局变量也不做输入输出，结果只由参数决定
+     */
+    public boolean isPure(FnInstruct f){
+        EnumSet<Effect> set = effects.get(f);
+        return !set.contains(Effect.READS_GLOBALS) && !set.contains(Effect.WRITES_GLOBALS) && !set.contains(Effect.IO);
+    }
+
+    public boolean readsGlobals(FnInstruct f){
+        return effects.get(f).contains(Effect.READS_GLOBALS);
+    }
+
+    public boolean writesGlobals(FnInstruct f){
+        return effects.get(f).contains(Effect.WRITES_GLOBALS);
+    }
+
+    public boolean doesIO(FnInstruct f){
+        return effects.get(f).contains(Effect.IO);
+    }
+
+    /**
+     * 调用是否可以在结果不用时删除：不写全局变量、不做输入输出并且一定返回
+     */
+    public boolean isRemovable(FnInstruct f){
+        EnumSet<Effect> set = effects.get(f);
+        return !set.contains(Effect.WRITES_GLOBALS) && !set.contains(Effect.IO) && !set.contains(Effect.MAY_NOT_RETURN);
+    }
+
+    /**
+     * 函数的分类：pure、reads globals、writes globals 或 io
+     */
+    public String label(FnInstruct f){
+        if(doesIO(f))
+            return "io";
+        if(writesGlobals(f))
+            return "writes globals";
+        if(readsGlobals(f))
+            return "reads globals";
+        return "pure";
+    }
+}
@@ -0,0 +1,272 @@
+package c0anayzer.optimizer;
+
+import c0anayzer.instruction.Instruction;
+import c0anayzer.instruction.Operation;
+import c0anayzer.midcode.FnInstruct;
+import c0anayzer.midcode.MidCode;
+
+import java.util.*;
+
+/**
+ * 局部变量槽位着色：
+ * 对每个 loca 槽位做活跃分析，建立冲突图后贪心着色，
+ * 生命周期不重叠的变量共用一个槽位，从而减小 locSlots
+ */
+public class SlotColoring {
+
+    /** 一次对局部变量的读或写 */
+    private static class Access {
+        int slot;
+        boolean def;
+
+        Access(int slot, boolean def){
+            this.slot = slot;
+            this.def = def;
+        }
+    }
+
+    private FnInstruct fn;
+    private ControlFlowGraph cfg;
+    /** 每个块的入口处栈上哪些元素是局部变量地址（-1 表示不是） */
+    private HashMap<BasicBlock, ArrayList<Integer>> entryStack = new HashMap<>();
+    private HashMap<BasicBlock, ArrayList<Access>> accesses = new HashMap<>();
+    /** 地址被 load/store 以外的指令用到的槽位，不参与合并 */
+    private HashSet<Integer> pinned = new HashSet<>();
+    private HashMap<BasicBlock, HashSet<Integer>> liveIn = new HashMap<>();
+    private HashMap<BasicBlock, HashSet<Integer>> liveOut = new HashMap<>();
+
+    private SlotColoring(FnInstruct fn){
+        this.fn = fn;
+        this.cfg = ControlFlowGraph.build(fn);
+    }
+
+    /**
+     * 对所有函数做槽位着色
+     * @param m 中间代码
+     * @return 一共减少的槽位数
+     */
+    public static int optimize(MidCode m){
+        int saved = 0;
+        for(FnInstruct f : m.fnList){
+            saved += optimize(f);
+        }
+        return saved;
+    }
+
+    public static int optimize(FnInstruct f){
+        if(f.getLocSlots() <= 1)
+            return 0;
+        SlotColoring sc = new SlotColoring(f);
+        if(!sc.collectAccesses())
+            return 0;
+        int before = f.getLocSlots();
+        int after = sc.color();
+        return before - after;
+    }
+
+    /**
+     * 沿控制流传播栈上的地址，找出每次 load/store 访问的槽位
+     * @return 栈高度不一致等无法分析的情况返回 false
+     */
+    private boolean collectAccesses(){
+        entryStack.put(cfg.entry, new ArrayList<>());
+        Deque<BasicBlock> work = new ArrayDeque<>(cfg.reversePostOrder());
+        while(!work.isEmpty()){
+            BasicBlock b = work.poll();
+            ArrayList<Integer> stack = new ArrayList<>(entryStack.get(b));
+            ArrayList<Access> list = new ArrayList<>();
+            for(Instruction i : b.instructions){
+                if(!transfer(i, stack, list))
+                    return false;
+            }
+            if(b.terminator != null && !transfer(b.terminator, stack, list))
+                return false;
+            accesses.put(b, list);
+
+            for(BasicBlock s : b.getSuccessors()){
+                ArrayList<Integer> old = entryStack.get(s);
+                if(old == null){
+                    entryStack.put(s, new ArrayList<>(stack));
+                    work.add(s);
+                }
+                else {
+                    // 汇合处栈高度或栈上的地址不一致，放弃
+                    if(!old.equals(stack))
+                        return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean transfer(Instruction i, ArrayList<Integer> stack, ArrayList<Access> list){
+        switch (i.getOpt()) {
+            case loca:
+                stack.add(i.getIntX());
+                return true;
+            case load_64: {
+                if(stack.isEmpty())
+                    return false;
+                int a = stack.remove(stack.size() - 1);
+                if(a >= 0)
+                    list.add(new Access(a, false));
+                stack.add(-1);
+                return true;
+            }
+            case store_64: {
+                if(stack.size() < 2)
+                    return false;
+                int v = stack.remove(stack.size() - 1);
+                int a = stack.remove(stack.size() - 1);
+                if(v >= 0)
+                    pinned.add(v);
+                if(a >= 0)
+                    list.add(new Access(a, true));
+                return true;
+            }
+            case dup: {
+                if(stack.isEmpty())
+                    return false;
+                stack.add(stack.get(stack.size() - 1));
+                return true;
+            }
+            default: {
+                int pops = StackEffect.pops(i);
+                if(stack.size() < pops)
+                    return false;
+                for(int k=0; k<pops; k++){
+                    int a = stack.remove(stack.size() - 1);
+                    if(a >= 0)
+                        pinned.add(a);
+                }
+                for(int k=StackEffect.pushes(i); k>0; k--)
+                    stack.add(-1);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 获取函数入口处就活跃的槽位（依赖初始 0 值）以及地址逃逸的槽位
+     * @param f 函数
+     * @return 槽位集合，无法分析时返回 null
+     */
+    public static HashSet<Integer> entryLiveSlots(FnInstruct f){
+        SlotColoring sc = new SlotColoring(f);
+        if(!sc.collectAccesses())
+            return null;
+        sc.computeLiveness();
+        HashSet<Integer> slots = new HashSet<>(sc.liveIn.get(sc.cfg.entry));
+        slots.addAll(sc.pinned);
+        return slots;
+    }
+
+    /**
+     * 以块为单位的活跃变量分析
+     */
+    private void computeLiveness(){
+        for(BasicBlock b : cfg.blocks){
+            liveIn.put(b, new HashSet<>());
+            liveOut.put(b, new HashSet<>());
+        }
+        ArrayList<BasicBlock> order = cfg.reversePostOrder();
+        Collections.reverse(order);
+        boolean changed = true;
+        while(changed){
+            changed = false;
+            for(BasicBlock b : order){
+                HashSet<Integer> out = new HashSet<>();
+                for(BasicBlock s : b.getSuccessors())
+                    out.addAll(liveIn.get(s));
+                HashSet<Integer> in = new HashSet<>(out);
+                ArrayList<Access> list = accesses.getOrDefault(b, new ArrayList<>());
+                for(int k=list.size()-1; k>=0; k--){
+                    Access a = list.get(k);
+                    if(a.def)
+                        in.remove(a.slot);
+                    else
+                        in.add(a.slot);
+                }
+                if(!out.equals(liveOut.get(b)) || !in.equals(liveIn.get(b))){
+                    liveOut.put(b, out);
+                    liveIn.put(b, in);
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * 活跃分析、建立冲突图并着色，然后改写 loca 指令
+     * @return 新的槽位数
+     */
+    private int color(){
+        int n = fn.getLocSlots();
+        computeLiveness();
+
+        // 在入口处就活跃的变量依赖初始的 0 值，不能和别的变量共用
+        pinned.addAll(liveIn.get(cfg.entry));
+
+        ArrayList<HashSet<Integer>> graph = new ArrayList<>();
+        for(int k=0; k<n; k++)
+            graph.add(new HashSet<>());
+        HashSet<Integer> used = new HashSet<>();
+        for(BasicBlock b : cfg.blocks){
+            HashSet<Integer> live = new HashSet<>(liveOut.get(b));
+            ArrayList<Access> list = accesses.getOrDefault(b, new ArrayList<>());
+            for(int k=list.size()-1; k>=0; k--){
+                Access a = list.get(k);
+                used.add(a.slot);
+                if(a.def){
+                    for(int l : live){
+                        if(l != a.slot){
+                            graph.get(a.slot).add(l);
+                            graph.get(l).add(a.slot);
+                        }
+                    }
+                    live.remove(a.slot);
+                }
+                else {
+                    live.add(a.slot);
+                }
+            }
+        }
+        used.addAll(pinned);
+
+        int[] color = new int[n];
+        Arrays.fill(color, -1);
+        int colors = 0;
+        for(int s = 0; s < n; s++){
+            if(pinned.contains(s))
+                color[s] = colors++;
+        }
+        for(int s = 0; s < n; s++){
+            if(!used.contains(s) || color[s] >= 0)
+                continue;
+            HashSet<Integer> taken = new HashSet<>();
+            for(int t : graph.get(s)){
+                if(color[t] >= 0)
+                    taken.add(color[t]);
+            }
+            for(int p : pinned)
+                taken.add(color[p]);
+            int c = 0;
+            while(taken.contains(c))
+                c++;
+            color[s] = c;
+            colors = Math.max(colors, c + 1);
+        }
+
+        if(colors >= n)
+            return n;
+        for(BasicBlock b : cfg.blocks){
+            for(Instruction i : b.instructions){
+                if(i.getOpt() == Operation.loca)
+                    i.setX(color[i.getIntX()]);
+            }
+        }
+        fn.setLocSlots(colors);
+        cfg.writeBack();
+        return colors;
+    }
+}
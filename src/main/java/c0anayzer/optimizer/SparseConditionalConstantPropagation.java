@@ -0,0 +1,308 @@
+package c0anayzer.optimizer;
+
+import c0anayzer.instruction.Instruction;
+import c0anayzer.instruction.Operation;
+import c0anayzer.midcode.FnInstruct;
+import c0anayzer.midcode.MidCode;
+import c0anayzer.optimizer.SsaForm.Value;
+
+import java.util.*;
+
+/**
+ * 稀疏条件常量传播（Wegman-Zadeck）：
+ * 在 SSA 形式上同时求值的常量格和边的可达性，phi 只合并可达的前驱传来的值。
+ * 结果写回栈式代码：值为常量的纯表达式（包括读变量）换成 push，
+ * 条件是常量的跳转改成无条件跳转或直接顺序执行，不可达的块删除
+ */
+public class SparseConditionalConstantPropagation {
+
+    /** 格的三种状态：还不知道、常量、不是常量 */
+    private enum Kind {TOP, CONST, BOTTOM}
+
+    private static class Lattice {
+        Kind kind;
+        long c;
+
+        Lattice(Kind kind, long c){
+            this.kind = kind;
+            this.c = c;
+        }
+
+        boolean same(Lattice o){
+            return kind == o.kind && (kind != Kind.CONST || c == o.c);
+        }
+    }
+
+    private static final Lattice TOP = new Lattice(Kind.TOP, 0);
+    private static final Lattice BOTTOM = new Lattice(Kind.BOTTOM, 0);
+
+    /** 一段可以换成 push 的指令 */
+    private static class Range {
+        int start;
+        int end;
+        long c;
+
+        Range(int start, int end, long c){
+            this.start = start;
+            this.end = end;
+            this.c = c;
+        }
+    }
+
+    private SsaForm ssa;
+    private HashMap<Value, Lattice> lattice = new HashMap<>();
+    private HashMap<Value, ArrayList<Value>> users;
+    private HashSet<BasicBlock> executable = new HashSet<>();
+    /** 可达的边，记为 前驱 -> 后继集合 */
+    private HashMap<BasicBlock, HashSet<BasicBlock>> executableEdges = new HashMap<>();
+    private Deque<BasicBlock> blockWork = new ArrayDeque<>();
+    private Deque<Value> valueWork = new ArrayDeque<>();
+    /** 每个块的条件跳转所用的条件值 -> 块 */
+    private HashMap<Value, ArrayList<BasicBlock>> conditionUsers = new HashMap<>();
+
+    private SparseConditionalConstantPropagation(SsaForm ssa){
+        this.ssa = ssa;
+        this.users = ssa.users();
+        for(Map.Entry<BasicBlock, Value> e : ssa.conditions.entrySet()){
+            conditionUsers.computeIfAbsent(e.getValue(), k -> new ArrayList<>()).add(e.getKey());
+        }
+    }
+
+    /**
+     * 对所有函数做常量传播
+     * @param m 中间代码
+     * @return 换成常量的表达式和折叠的跳转个数
+     */
+    public static int optimize(MidCode m){
+        int folded = 0;
+        for(FnInstruct f : m.fnList){
+            folded += optimize(f);
+        }
+        return folded;
+    }
+
+    public static int optimize(FnInstruct f){
+        ControlFlowGraph cfg = ControlFlowGraph.build(f);
+        SsaForm ssa = SsaForm.build(cfg);
+        if(ssa == null)
+            return 0;
+        SparseConditionalConstantPropagation sccp = new SparseConditionalConstantPropagation(ssa);
+        sccp.solve();
+        int folded = sccp.rewrite();
+        if(folded > 0){
+            cfg.removeUnreachable();
+            cfg.writeBack();
+        }
+        return folded;
+    }
+
+    private Lattice get(Value v){
+        // 变量的入口值和跨块传过来的地址不会被求值
+        if(v.ins == null && !v.phi)
+            return BOTTOM;
+        return lattice.getOrDefault(v, TOP);
+    }
+
+    private void solve(){
+        markEdge(null, ssa.cfg.entry);
+        while(!blockWork.isEmpty() || !valueWork.isEmpty()){
+            while(!blockWork.isEmpty()){
+                BasicBlock b = blockWork.pop();
+                for(Value v : ssa.phis.get(b)){
+                    update(v);
+                }
+                for(Value v : ssa.blockValues.get(b)){
+                    update(v);
+                }
+                visitTerminator(b);
+            }
+            while(!valueWork.isEmpty()){
+                Value v = valueWork.pop();
+                for(Value u : users.getOrDefault(v, new ArrayList<>())){
+                    if(executable.contains(u.block))
+                        update(u);
+                }
+                for(BasicBlock b : conditionUsers.getOrDefault(v, new ArrayList<>())){
+                    if(executable.contains(b))
+                        visitTerminator(b);
+                }
+            }
+        }
+    }
+
+    private void markEdge(BasicBlock from, BasicBlock to){
+        if(from != null && !executableEdges.computeIfAbsent(from, k -> new HashSet<>()).add(to))
+            return;
+        if(executable.add(to)){
+            blockWork.push(to);
+        }
+        else {
+            // 新的可达前驱可能改变 phi 的值
+            for(Value v : ssa.phis.get(to)){
+                update(v);
+            }
+        }
+    }
+
+    private void visitTerminator(BasicBlock b){
+        Value cond = ssa.conditions.get(b);
+        if(cond == null){
+            for(BasicBlock s : b.getSuccessors()){
+                markEdge(b, s);
+            }
+            return;
+        }
+        Lattice l = get(cond);
+        if(l.kind == Kind.TOP)
+            return;
+        if(l.kind == Kind.BOTTOM){
+            markEdge(b, b.fallThrough);
+            markEdge(b, b.jumpTarget);
+            return;
+        }
+        markEdge(b, taken(b, l.c) ? b.jumpTarget : b.fallThrough);
+    }
+
+    private static boolean taken(BasicBlock b, long c){
+        return (b.terminator.getOpt() == Operation.br_true) == (c != 0);
+    }
+
+    private void update(Value v){
+        Lattice l = evaluate(v);
+        if(!l.same(get(v))){
+            lattice.put(v, l);
+            valueWork.push(v);
+        }
+    }
+
+    private Lattice evaluate(Value v){
+        if(v.phi){
+            Lattice r = TOP;
+            ArrayList<BasicBlock> preds = v.block.predecessors;
+            for(int k=0; k<preds.size(); k++){
+                if(!executableEdges.getOrDefault(preds.get(k), new HashSet<>()).contains(v.block))
+                    continue;
+                Lattice a = get(v.args.get(k));
+                if(a.kind == Kind.TOP)
+                    continue;
+                if(a.kind == Kind.BOTTOM || (r.kind == Kind.CONST && r.c != a.c))
+                    return BOTTOM;
+                r = a;
+            }
+            return r;
+        }
+        if(!v.isPure())
+            return BOTTOM;
+        if(v.ins.getOpt() == Operation.push)
+            return new Lattice(Kind.CONST, v.ins.getX());
+        for(Value a : v.args){
+            if(get(a).kind == Kind.BOTTOM)
+                return BOTTOM;
+        }
+        for(Value a : v.args){
+            if(get(a).kind == Kind.TOP)
+                return TOP;
+        }
+        Long r = v.args.size() == 2 ?
+                ConstantFolding.apply(v.ins.getOpt(), get(v.args.get(0)).c, get(v.args.get(1)).c) :
+                ConstantFolding.apply(v.ins.getOpt(), get(v.args.get(0)).c);
+        return r == null ? BOTTOM : new Lattice(Kind.CONST, r);
+    }
+
+    /**
+     * 把结果写回栈式代码
+     * @return 修改的个数
+     */
+    private int rewrite(){
+        int folded = 0;
+        for(BasicBlock b : ssa.cfg.blocks){
+            if(!executable.contains(b))
+                continue;
+            folded += replaceConstants(b);
+            Value cond = ssa.conditions.get(b);
+            if(cond != null && get(cond).kind == Kind.CONST){
+                boolean t = taken(b, get(cond).c);
+                ArrayList<Instruction> list = b.instructions;
+                if(!list.isEmpty() && list.get(list.size() - 1).getOpt() == Operation.push)
+                    list.remove(list.size() - 1);
+                else
+                    list.add(new Instruction(Operation.pop));
+                if(t){
+                    b.terminator = new Instruction(Operation.br, 0, 4);
+                    b.fallThrough = null;
+                }
+                else {
+                    b.terminator = null;
+                    b.jumpTarget = null;
+                }
+                folded++;
+            }
+        }
+        return folded;
+    }
+
+    /**
+     * 在块内模拟操作数栈，把值为常量的极大纯表达式换成 push
+     * @return 替换的个数
+     */
+    private int replaceConstants(BasicBlock b){
+        ArrayList<Instruction> list = b.instructions;
+        ArrayList<Range> ranges = new ArrayList<>();
+        // 栈上每个元素的计算区间 {start, end}，start < 0 表示不是连续的纯计算
+        ArrayList<int[]> stack = new ArrayList<>();
+        for(int i=0; i<list.size(); i++){
+            Instruction ins = list.get(i);
+            Operation op = ins.getOpt();
+            int start = -1;
+            if(op == Operation.push){
+                stack.add(new int[]{i, i});
+                continue;
+            }
+            if(op == Operation.load_64 && !stack.isEmpty() && stack.get(stack.size() - 1)[0] == i - 1 &&
+                    SsaForm.isVariable(list.get(i - 1).toString())){
+                start = i - 1;
+                stack.remove(stack.size() - 1);
+            }
+            else if(StackEffect.isPureArith(op)){
+                // 操作数必须都是紧挨着的纯计算
+                int next = i;
+                for(int k=StackEffect.pops(ins); k>0; k--){
+                    int[] a = stack.isEmpty() ? new int[]{-1, -1} : stack.remove(stack.size() - 1);
+                    next = (next < 0 || a[0] < 0 || a[1] != next - 1 || isAddress(list, a[0])) ? -1 : a[0];
+                }
+                start = next;
+            }
+            else {
+                for(int k=StackEffect.pops(ins); k>0 && !stack.isEmpty(); k--){
+                    stack.remove(stack.size() - 1);
+                }
+                for(int k=StackEffect.pushes(ins); k>0; k--){
+                    stack.add(op == Operation.loca || op == Operation.arga ? new int[]{i, i} : new int[]{-1, -1});
+                }
+                continue;
+            }
+            stack.add(new int[]{start, i});
+            Value v = ssa.defs.get(ins);
+            if(start >= 0 && v != null && get(v).kind == Kind.CONST){
+                int s = start;
+                ranges.removeIf(r -> r.start >= s);
+                ranges.add(new Range(start, i, get(v).c));
+            }
+        }
+        for(int k=ranges.size()-1; k>=0; k--){
+            Range r = ranges.get(k);
+            list.subList(r.start, r.end + 1).clear();
+            list.add(r.start, new Instruction(Operation.push, r.c, 8));
+        }
+        return ranges.size();
+    }
+
+    /**
+     * 从 s 开始的栈元素是否只是一个地址（loca/arga 后面没有 load_64）
+     */
+    private static boolean isAddress(ArrayList<Instruction> list, int s){
+        Operation op = list.get(s).getOpt();
+        return (op == Operation.loca || op == Operation.arga) &&
+                (s + 1 >= list.size() || list.get(s + 1).getOpt() != Operation.load_64);
+    }
+}
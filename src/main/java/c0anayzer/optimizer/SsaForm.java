@@ -0,0 +1,401 @@
+package c0anayzer.optimizer;
+
+import c0anayzer.instruction.Instruction;
+import c0anayzer.instruction.Operation;
+
+import java.util.*;
+
+/**
+ * 函数的 SSA 形式。
+ * 局部变量（loca）和参数（arga）是 SSA 变量，每次 store_64 产生一个新定义；
+ * 操作数栈上的元素变成临时值，块入口处栈上已有的元素也当作变量（stack d）处理。
+ * 全局变量以及调用、输入输出等仍然看作读写内存，结果是不透明的值。
+ * 构造方法是 Braun 等人的算法，按逆后序填充基本块，前驱都填充完的块封闭，
+ * 最后删除只有一个不同参数的 phi。
+ * 每个值都记着产生它的指令，优化直接修改原来的栈式代码，
+ * 再由控制流图写回函数体，操作数的计算顺序不会改变
+ */
+public class SsaForm {
+
+    /** SSA 值 */
+    public static class Value {
+        public int id;
+        /** 产生这个值的指令，phi 和变量入口值为 null */
+        public Instruction ins;
+        public BasicBlock block;
+        /** 操作数，phi 的参数与 block.predecessors 一一对应 */
+        public ArrayList<Value> args = new ArrayList<>();
+        public boolean phi;
+        /** phi 和入口值所属的变量 */
+        public String var;
+        /** 地址值指向的位置（如 loca 3），不是地址时为 null */
+        public String address;
+        /** phi 被删除后用来代替它的值 */
+        Value replacement;
+
+        /**
+         * 是否是纯运算或常量，结果只由操作数决定
+         */
+        public boolean isPure(){
+            return ins != null && (ins.getOpt() == Operation.push || StackEffect.isPureArith(ins.getOpt()));
+        }
+
+        @Override
+        public String toString() {
+            if(phi)
+                return "v" + id + " = phi " + var + " " + names(args);
+            if(ins == null)
+                return "v" + id + " = entry " + (var == null ? address : var);
+            return "v" + id + " = " + ins + " " + names(args);
+        }
+
+        private static String names(ArrayList<Value> list){
+            StringBuilder sb = new StringBuilder();
+            for(Value v : list){
+                sb.append(" v").append(v.id);
+            }
+            return sb.toString();
+        }
+    }
+
+    public ControlFlowGraph cfg;
+    /** 所有值（包括被删除的 phi），按创建顺序 */
+    public ArrayList<Value> values = new ArrayList<>();
+    /** 每个块的 phi */
+    public HashMap<BasicBlock, ArrayList<Value>> phis = new HashMap<>();
+    /** 每个块内由指令产生的值，按指令顺序 */
+    public HashMap<BasicBlock, ArrayList<Value>> blockValues = new HashMap<>();
+    /** 压入一个值的指令 -> 这个值；读 SSA 变量的 load_64 对应变量当时的值 */
+    public IdentityHashMap<Instruction, Value> defs = new IdentityHashMap<>();
+    /** 以条件跳转结束的块 -> 条件 */
+    public HashMap<BasicBlock, Value> conditions = new HashMap<>();
+
+    private HashMap<String, HashMap<BasicBlock, Value>> currentDef = new HashMap<>();
+    private HashSet<BasicBlock> filled = new HashSet<>();
+    private HashSet<BasicBlock> sealed = new HashSet<>();
+    private HashMap<BasicBlock, LinkedHashMap<String, Value>> incompletePhis = new HashMap<>();
+    private HashMap<String, Value> entryValues = new HashMap<>();
+
+    private SsaForm(ControlFlowGraph cfg){
+        this.cfg = cfg;
+    }
+
+    /**
+     * 构造 SSA 形式
+     * @param cfg 控制流图
+     * @return SSA 形式，块入口栈高度不一致时返回 null
+     */
+    public static SsaForm build(ControlFlowGraph cfg){
+        // 入口块有前驱时（如尾递归改成的循环跳回入口），在前面加一个空的入口块，
+        // 变量的入口值从这个块进入原入口块的 phi，不会被回边上的值代替
+        if(!cfg.entry.predecessors.isEmpty()){
+            BasicBlock entry = cfg.entry;
+            cfg.insertBlockBefore(entry).fallThrough = entry;
+            cfg.computePredecessors();
+        }
+        HashMap<BasicBlock, Integer> heights = StackEffect.entryHeights(cfg);
+        if(heights == null)
+            return null;
+        SsaForm ssa = new SsaForm(cfg);
+        ArrayList<BasicBlock> order = cfg.reversePostOrder();
+        HashMap<BasicBlock, String[]> addresses = entryAddresses(order);
+        for(BasicBlock b : order){
+            ssa.phis.put(b, new ArrayList<>());
+            ssa.blockValues.put(b, new ArrayList<>());
+        }
+        for(BasicBlock b : order){
+            ssa.trySeal(order);
+            if(!ssa.fill(b, heights.get(b), addresses.get(b)))
+                return null;
+            ssa.filled.add(b);
+        }
+        ssa.trySeal(order);
+        ssa.removeTrivialPhis();
+        return ssa;
+    }
+
+    /**
+     * 计算块入口处栈上每个元素是不是地址。
+     * 取地址的指令和 load/store 可能不在同一个块里（比如内联的函数体在赋值表达式中间），
+     * 地址都是编译期已知的，直接跟着栈传过去
+     * @return 块 -> 每个栈元素指向的位置，不是地址为 null，不同路径上不一致为 "?"
+     */
+    private static HashMap<BasicBlock, String[]> entryAddresses(ArrayList<BasicBlock> order){
+        HashMap<BasicBlock, String[]> entry = new HashMap<>();
+        entry.put(order.get(0), new String[0]);
+        boolean changed = true;
+        while(changed){
+            changed = false;
+            for(BasicBlock b : order){
+                String[] in = entry.get(b);
+                if(in == null)
+                    continue;
+                ArrayList<String> stack = new ArrayList<>(Arrays.asList(in));
+                ArrayList<Instruction> list = new ArrayList<>(b.instructions);
+                if(b.terminator != null)
+                    list.add(b.terminator);
+                for(Instruction ins : list){
+                    if(ins.getOpt() == Operation.dup){
+                        stack.add(stack.get(stack.size() - 1));
+                        continue;
+                    }
+                    for(int k=StackEffect.pops(ins); k>0; k--){
+                        stack.remove(stack.size() - 1);
+                    }
+                    boolean address = ins.getOpt() == Operation.loca || ins.getOpt() == Operation.arga ||
+                            ins.getOpt() == Operation.globa;
+                    for(int k=StackEffect.pushes(ins); k>0; k--){
+                        stack.add(address ? ins.toString() : null);
+                    }
+                }
+                for(BasicBlock s : b.getSuccessors()){
+                    String[] old = entry.get(s);
+                    if(old == null){
+                        entry.put(s, stack.toArray(new String[0]));
+                        changed = true;
+                        continue;
+                    }
+                    for(int d=0; d<old.length; d++){
+                        if(!Objects.equals(old[d], stack.get(d)) && !"?".equals(old[d])){
+                            old[d] = "?";
+                            changed = true;
+                        }
+                    }
+                }
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * 判断位置是否是 SSA 变量（局部变量和参数）
+     */
+    public static boolean isVariable(String address){
+        return address != null &&
+                (address.startsWith(Operation.loca.toString()) || address.startsWith(Operation.arga.toString()));
+    }
+
+    /**
+     * 找到删除 phi 之后真正的值
+     */
+    public static Value resolve(Value v){
+        while(v.replacement != null){
+            v = v.replacement;
+        }
+        return v;
+    }
+
+    private Value newValue(BasicBlock b, Instruction ins){
+        Value v = new Value();
+        v.id = values.size();
+        v.block = b;
+        v.ins = ins;
+        values.add(v);
+        return v;
+    }
+
+    /**
+     * 模拟一个块的操作数栈
+     * @return 遇到指向不确定的 load/store 时返回 false
+     */
+    private boolean fill(BasicBlock b, int height, String[] addresses){
+        ArrayList<Value> stack = new ArrayList<>();
+        for(int d=0; d<height; d++){
+            if(addresses[d] == null){
+                stack.add(readVariable("stack " + d, b));
+            }
+            else {
+                Value v = newValue(b, null);
+                v.address = addresses[d];
+                stack.add(v);
+            }
+        }
+        for(Instruction ins : b.instructions){
+            Operation op = ins.getOpt();
+            if(op == Operation.load_64 || op == Operation.store_64){
+                Value addr = stack.get(stack.size() - (op == Operation.load_64 ? 1 : 2));
+                if(addr.address == null || addr.address.equals("?"))
+                    return false;
+                if(isVariable(addr.address)){
+                    if(op == Operation.load_64){
+                        stack.remove(stack.size() - 1);
+                        Value v = readVariable(addr.address, b);
+                        defs.put(ins, v);
+                        stack.add(v);
+                    }
+                    else {
+                        Value v = stack.remove(stack.size() - 1);
+                        stack.remove(stack.size() - 1);
+                        writeVariable(addr.address, b, v);
+                    }
+                    continue;
+                }
+            }
+            if(op == Operation.dup){
+                stack.add(top(stack));
+                continue;
+            }
+            ArrayList<Value> args = new ArrayList<>();
+            for(int k=StackEffect.pops(ins); k>0; k--){
+                args.add(0, stack.remove(stack.size() - 1));
+            }
+            for(int k=StackEffect.pushes(ins); k>0; k--){
+                Value v = newValue(b, ins);
+                v.args = args;
+                if(op == Operation.loca || op == Operation.arga || op == Operation.globa)
+                    v.address = ins.toString();
+                blockValues.get(b).add(v);
+                stack.add(v);
+                defs.put(ins, v);
+            }
+        }
+        if(b.endsWithCondBr())
+            conditions.put(b, stack.remove(stack.size() - 1));
+        for(int d=0; d<stack.size(); d++){
+            if(stack.get(d).address == null)
+                writeVariable("stack " + d, b, stack.get(d));
+        }
+        return true;
+    }
+
+    private static Value top(ArrayList<Value> stack){
+        return stack.get(stack.size() - 1);
+    }
+
+    private void writeVariable(String var, BasicBlock b, Value v){
+        currentDef.computeIfAbsent(var, k -> new HashMap<>()).put(b, v);
+    }
+
+    private Value readVariable(String var, BasicBlock b){
+        HashMap<BasicBlock, Value> defsOfVar = currentDef.get(var);
+        if(defsOfVar != null && defsOfVar.containsKey(b))
+            return defsOfVar.get(b);
+        Value v;
+        if(b.predecessors.isEmpty()){
+            v = entryValues.computeIfAbsent(var, k -> {
+                Value e = newValue(cfg.entry, null);
+                e.var = k;
+                return e;
+            });
+        }
+        else if(!sealed.contains(b)){
+            v = newPhi(b, var);
+            incompletePhis.computeIfAbsent(b, k -> new LinkedHashMap<>()).put(var, v);
+        }
+        else if(b.predecessors.size() == 1){
+            v = readVariable(var, b.predecessors.get(0));
+        }
+        else {
+            v = newPhi(b, var);
+            writeVariable(var, b, v);
+            addPhiOperands(v);
+        }
+        writeVariable(var, b, v);
+        return v;
+    }
+
+    private Value newPhi(BasicBlock b, String var){
+        Value v = newValue(b, null);
+        v.phi = true;
+        v.var = var;
+        phis.get(b).add(v);
+        return v;
+    }
+
+    private void addPhiOperands(Value phi){
+        for(BasicBlock p : phi.block.predecessors){
+            phi.args.add(readVariable(phi.var, p));
+        }
+    }
+
+    /**
+     * 封闭所有前驱都已填充的块，补全其中的 phi
+     */
+    private void trySeal(ArrayList<BasicBlock> order){
+        for(BasicBlock b : order){
+            if(sealed.contains(b) || !filled.containsAll(b.predecessors))
+                continue;
+            sealed.add(b);
+            LinkedHashMap<String, Value> incomplete = incompletePhis.remove(b);
+            if(incomplete != null){
+                for(Value phi : incomplete.values()){
+                    addPhiOperands(phi);
+                }
+            }
+        }
+    }
+
+    /**
+     * 删除除了自己以外只有一个不同参数的 phi，直到不再变化，
+     * 然后把所有操作数换成真正的值
+     */
+    private void removeTrivialPhis(){
+        boolean changed = true;
+        while(changed){
+            changed = false;
+            for(ArrayList<Value> list : phis.values()){
+                for(Value phi : list){
+                    if(phi.replacement != null)
+                        continue;
+                    Value same = null;
+                    boolean trivial = true;
+                    for(Value a : phi.args){
+                        a = resolve(a);
+                        if(a == phi || a == same)
+                            continue;
+                        if(same != null){
+                            trivial = false;
+                            break;
+                        }
+                        same = a;
+                    }
+                    if(trivial && same != null){
+                        phi.replacement = same;
+                        changed = true;
+                    }
+                }
+            }
+        }
+        for(ArrayList<Value> list : phis.values()){
+            list.removeIf(phi -> phi.replacement != null);
+        }
+        for(Value v : values){
+            v.args.replaceAll(SsaForm::resolve);
+        }
+        defs.replaceAll((i, v) -> resolve(v));
+        conditions.replaceAll((b, v) -> resolve(v));
+    }
+
+    /**
+     * 计算每个值被哪些值使用（条件跳转不计入）
+     * @return 值 -> 使用者
+     */
+    public HashMap<Value, ArrayList<Value>> users(){
+        HashMap<Value, ArrayList<Value>> users = new HashMap<>();
+        for(Value v : values){
+            if(v.replacement != null)
+                continue;
+            for(Value a : v.args){
+                users.computeIfAbsent(a, k -> new ArrayList<>()).add(v);
+            }
+        }
+        return users;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for(BasicBlock b : cfg.reversePostOrder()){
+            sb.append("B").append(b.id).append(":\n");
+            for(Value v : phis.get(b)){
+                sb.append("  ").append(v).append("\n");
+            }
+            for(Value v : blockValues.get(b)){
+                sb.append("  ").append(v).append("\n");
+            }
+            if(conditions.containsKey(b))
+                sb.append("  ").append(b.terminator.getOpt()).append(" v").append(conditions.get(b).id).append("\n");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,67 @@
+package c0anayzer.optimizer;
+
+import c0anayzer.instruction.Instruction;
+import c0anayzer.midcode.FnInstruct;
+import c0anayzer.midcode.MidCode;
+
+import java.util.HashMap;
+
+/**
+ * 操作数栈的最大深度：
+ * 按 StackEffect 中每条指令的栈效果沿所有分支传播栈高度（函数开始时为 0，不含参数和局部变量），
+ * 取所有位置的最大值，虚拟机可以据此一次分配好操作数栈而不用每次 push 都检查。
+ * 汇合处的栈高度不一致或者栈下溢说明生成的代码有错，作为编译器内部错误报告
+ */
+public class StackDepthAnalysis {
+
+    /**
+     * 计算所有函数的最大栈深度，记录到 FnInstruct 中
+     * @param m 中间代码
+     * @return 所有函数中的最大值
+     */
+    public static int analyse(MidCode m){
+        int max = 0;
+        for(FnInstruct f : m.fnList){
+            f.setMaxStackDepth(maxDepth(f));
+            max = Math.max(max, f.getMaxStackDepth());
+        }
+        return max;
+    }
+
+    /**
+     * 计算一个函数的最大栈深度
+     * @param f 函数
+     * @return 最大栈深度
+     * @throws IllegalStateException 汇合处栈高度不一致或栈下溢
+     */
+    public static int maxDepth(FnInstruct f){
+        ControlFlowGraph cfg = ControlFlowGraph.build(f);
+        HashMap<BasicBlock, Integer> heights = new HashMap<>();
+        heights.put(cfg.entry, 0);
+        int max = 0;
+        for(BasicBlock b : cfg.reversePostOrder()){
+            int h = heights.get(b);
+            for(Instruction i : b.instructions){
+                h = step(f, b, i, h);
+                max = Math.max(max, h);
+            }
+            if(b.terminator != null)
+                h = step(f, b, b.terminator, h);
+            for(BasicBlock s : b.getSuccessors()){
+                Integer old = heights.putIfAbsent(s, h);
+                if(old != null && old != h)
+                    throw new IllegalStateException("internal error: inconsistent stack height at B" + s.id +
+                            " in " + f.getFnName() + " (" + old + " and " + h + ")");
+            }
+        }
+        return max;
+    }
+
+    private static int step(FnInstruct f, BasicBlock b, Instruction i, int h){
+        h -= StackEffect.pops(i);
+        if(h < 0)
+            throw new IllegalStateException("internal error: stack underflow at " + i + " in B" + b.id +
+                    " of " + f.getFnName());
+        return h + StackEffect.pushes(i);
+    }
+}
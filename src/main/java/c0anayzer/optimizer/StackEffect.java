@@ -0,0 +1,321 @@
+package c0anayzer.optimizer;
+
+import c0anayzer.instruction.Instruction;
+import c0anayzer.instruction.Operation;
+import c0anayzer.midcode.FnInstruct;
+import c0anayzer.midcode.MidCode;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * 每条指令对操作数栈的影响（弹出个数、压入个数）
+ */
+public class StackEffect {
+
+    /**
+     * 指令弹出的栈元素个数
+     * @param i 指令
+     * @return 个数
+     */
+    public static int pops(Instruction i){
+        switch (i.getOpt()) {
+            case pop:
+            case load_8:
+            case load_16:
+            case load_32:
+            case load_64:
+            case alloc:
+            case free:
+            case neg_i:
+            case neg_f:
+            case not:
+            case inv:
+            case itof:
+            case ftoi:
+            case set_lt:
+            case set_gt:
+            case dup:
+            case br_true:
+            case br_false:
+            case print_i:
+            case print_c:
+            case print_f:
+            case print_s:
+                return 1;
+            case store_8:
+            case store_16:
+            case store_32:
+            case store_64:
+            case add_i:
+            case sub_i:
+            case mul_i:
+            case div_i:
+            case add_f:
+            case sub_f:
+            case mul_f:
+            case div_f:
+            case div_u:
+            case shl:
+            case shr:
+            case shrl:
+            case and:
+            case or:
+            case xor:
+            case cmp_i:
+            case cmp_u:
+            case cmp_f:
+                return 2;
+            case popn:
+                return i.getIntX();
+            case call:
+                return MidCode.getMidCode().getFnByAddress(i.getIntX()).getParamSlots();
+            case callname:
+                return libParams(MidCode.getMidCode().globalSymbol.get(i.getIntX()));
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * 指令压入的栈元素个数
+     * @param i 指令
+     * @return 个数
+     */
+    public static int pushes(Instruction i){
+        switch (i.getOpt()) {
+            case push:
+            case loca:
+            case arga:
+            case globa:
+            case load_8:
+            case load_16:
+            case load_32:
+            case load_64:
+            case alloc:
+            case neg_i:
+            case neg_f:
+            case not:
+            case inv:
+            case itof:
+            case ftoi:
+            case set_lt:
+            case set_gt:
+            case add_i:
+            case sub_i:
+            case mul_i:
+            case div_i:
+            case add_f:
+            case sub_f:
+            case mul_f:
+            case div_f:
+            case div_u:
+            case shl:
+            case shr:
+            case shrl:
+            case and:
+            case or:
+            case xor:
+            case cmp_i:
+            case cmp_u:
+            case cmp_f:
+            case scan_i:
+            case scan_c:
+            case scan_f:
+                return 1;
+            case dup:
+                return 2;
+            case stackalloc:
+                return i.getIntX();
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * 不读写内存、不做输入输出的计算指令
+     * @param op 指令
+     * @return 是否纯
+     */
+    public static boolean isPureArith(Operation op){
+        switch (op) {
+            case add_i:
+            case sub_i:
+            case mul_i:
+            case div_i:
+            case add_f:
+            case sub_f:
+            case mul_f:
+            case div_f:
+            case div_u:
+            case shl:
+            case shr:
+            case shrl:
+            case and:
+            case or:
+            case xor:
+            case cmp_i:
+            case cmp_u:
+            case cmp_f:
+            case neg_i:
+            case neg_f:
+            case not:
+            case itof:
+            case ftoi:
+            case set_lt:
+            case set_gt:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 交换两个操作数不影响结果的指令
+     */
+    public static boolean isCommutative(Operation op){
+        switch (op) {
+            case add_i:
+            case mul_i:
+            case add_f:
+            case mul_f:
+            case and:
+            case or:
+            case xor:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 库函数的参数个数
+     * @param name 库函数名
+     * @return 参数个数
+     */
+    public static int libParams(String name){
+        switch (name) {
+            case "putint":
+            case "putchar":
+            case "putdouble":
+            case "putstr":
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * 库函数的返回值个数
+     * @param name 库函数名
+     * @return 返回值个数
+     */
+    public static int libReturns(String name){
+        return FnInstruct.libFn.getOrDefault(name, "void").equals("void") ? 0 : 1;
+    }
+
+    /**
+     * 依次执行一段指令后的栈高度
+     * @param list 指令
+     * @param height 开始时的栈高度
+     * @return 栈高度，出现下溢时返回 -1
+     */
+    public static int heightAfter(List<Instruction> list, int height){
+        for(Instruction i : list){
+            height -= pops(i);
+            if(height < 0)
+                return -1;
+            height += pushes(i);
+        }
+        return height;
+    }
+
+    /**
+     * 计算每个基本块入口处的栈高度（相对函数开始时为 0）
+     * @param cfg 控制流图
+     * @return 栈高度，汇合处不一致或出现下溢时返回 null
+     */
+    public static HashMap<BasicBlock, Integer> entryHeights(ControlFlowGraph cfg){
+        HashMap<BasicBlock, Integer> heights = new HashMap<>();
+        heights.put(cfg.entry, 0);
+        for(BasicBlock b : cfg.reversePostOrder()){
+            int h = heightAfter(b.instructions, heights.get(b));
+            if(h < 0)
+                return null;
+            if(b.terminator != null){
+                h -= pops(b.terminator);
+                if(h < 0)
+                    return null;
+            }
+            for(BasicBlock s : b.getSuccessors()){
+                Integer old = heights.get(s);
+                if(old == null)
+                    heights.put(s, h);
+                else if(old != h)
+                    return null;
+            }
+        }
+        return heights;
+    }
+
+    /**
+     * 模拟一段指令，记录栈上每个元素是从哪条指令开始计算的
+     * @param list 指令
+     * @param from 开始位置
+     * @param to 结束位置（不含）
+     * @return 栈，-1 表示未知
+     */
+    public static ArrayList<Integer> operandStarts(List<Instruction> list, int from, int to){
+        ArrayList<Integer> stack = new ArrayList<>();
+        for(int i=from; i<to; i++){
+            Instruction ins = list.get(i);
+            int start = i;
+            for(int k=pops(ins); k>0; k--){
+                int s = stack.isEmpty() ? -1 : stack.remove(stack.size() - 1);
+                start = (s < 0 || start < 0) ? -1 : Math.min(start, s);
+            }
+            if(ins.getOpt() == Operation.dup)
+                start = -1;
+            for(int k=pushes(ins); k>0; k--){
+                stack.add(start);
+            }
+        }
+        return stack;
+    }
+
+    /**
+     * 检查调用点 stackalloc r; 参数...; call k 的形状，要求整个调用都在 call 所在的基本块内
+     * @param list 函数体
+     * @param call call 指令的位置
+     * @param r 返回值个数
+     * @param p 参数个数
+     * @return stackalloc 和每个参数表达式的起始位置（共 p + 1 个），不满足时返回 null
+     */
+    public static int[] callSite(List<Instruction> list, int call, int r, int p){
+        int blockStart = 0;
+        for(int k=0; k<list.size(); k++){
+            Instruction b = list.get(k);
+            if(ControlFlowGraph.isTerminator(b.getOpt()) && k < call)
+                blockStart = Math.max(blockStart, k + 1);
+            if(ControlFlowGraph.isBranch(b.getOpt()) && k + b.getIntX() + 1 <= call)
+                blockStart = Math.max(blockStart, k + b.getIntX() + 1);
+        }
+        ArrayList<Integer> stack = operandStarts(list, blockStart, call);
+        if(stack.size() < p + r)
+            return null;
+        int[] starts = new int[p + 1];
+        for(int j=0; j<p; j++){
+            starts[j + 1] = stack.get(stack.size() - p + j);
+            if(starts[j + 1] < 0 || starts[j + 1] <= starts[j])
+                return null;
+        }
+        int s = (p > 0 ? starts[1] : call) - 1;
+        if(s < blockStart || list.get(s).getOpt() != Operation.stackalloc || list.get(s).getIntX() != r)
+            return null;
+        if(r > 0 && stack.get(stack.size() - p - 1) != s)
+            return null;
+        starts[0] = s;
+        return starts;
+    }
+}
@@ -0,0 +1,373 @@
+package c0anayzer.optimizer;
+
+import c0anayzer.instruction.Instruction;
+import c0anayzer.instruction.Operation;
+import c0anayzer.midcode.FnInstruct;
+import c0anayzer.midcode.MidCode;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * 强度削弱：
+ * 乘以 2 的幂改为左移，乘 1、加减 0、除以 1 直接删掉，
+ * 被除数一定非负时除以 2 的幂改为右移；
+ * 循环中归纳变量 i（每轮只有一次 i = i ± c）的乘法 i * s
+ * 改为一个随 i 一起累加的局部变量。
+ * 虚拟机按指令条数计费，只在指令数变少时才做替换
+ */
+public class StrengthReduction {
+
+    /** 归纳变量在一个块中的更新：A; A; load_64; push c; add_i/sub_i; store_64 */
+    private static class Induction {
+        Instruction address;
+        BasicBlock block;
+        /** store_64 的位置 */
+        int update;
+        long step;
+    }
+
+    /** 循环中一次 i * s */
+    private static class Use {
+        BasicBlock block;
+        int start;
+        int end;
+        /** 乘数的指令（push c 或 loca x; load_64） */
+        List<Instruction> factor;
+    }
+
+    /**
+     * 对所有函数做强度削弱
+     * @param m 中间代码
+     * @return 替换的个数
+     */
+    public static int optimize(MidCode m){
+        int reduced = 0;
+        for(FnInstruct f : m.fnList){
+            reduced += optimize(f);
+        }
+        return reduced;
+    }
+
+    public static int optimize(FnInstruct f){
+        int reduced = 0;
+        boolean changed = true;
+        while(changed){
+            changed = false;
+            ControlFlowGraph cfg = ControlFlowGraph.build(f);
+            for(Loop l : Loop.find(cfg)){
+                if(reduceInduction(f, cfg, l)){
+                    cfg.writeBack();
+                    reduced++;
+                    changed = true;
+                    break;
+                }
+            }
+        }
+
+        ControlFlowGraph cfg = ControlFlowGraph.build(f);
+        int n = 0;
+        for(BasicBlock b : cfg.blocks){
+            n += peephole(b.instructions);
+        }
+        if(n > 0)
+            cfg.writeBack();
+        return reduced + n;
+    }
+
+    private static boolean isPush(Instruction i){
+        return i.getOpt() == Operation.push;
+    }
+
+    private static boolean isAddress(Instruction i){
+        return i.getOpt() == Operation.loca || i.getOpt() == Operation.arga || i.getOpt() == Operation.globa;
+    }
+
+    /**
+     * 是 2 的正整数次幂时返回指数，否则返回 -1
+     */
+    private static int log2(long c){
+        if(c <= 1 || (c & (c - 1)) != 0)
+            return -1;
+        return Long.numberOfTrailingZeros(c);
+    }
+
+    /**
+     * 计算 list[0..end] 之后栈顶的值是否一定非负（只看产生它的最后几条指令）
+     */
+    private static boolean nonNegative(ArrayList<Instruction> list, int end){
+        if(end < 0)
+            return false;
+        Instruction last = list.get(end);
+        switch (last.getOpt()) {
+            case push:
+                return last.getX() >= 0;
+            case not:
+            case set_lt:
+            case set_gt:
+                return true;
+            case shrl:
+                return end > 0 && isPush(list.get(end - 1)) && (list.get(end - 1).getX() & 63) > 0;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 块内的代数化简
+     * @return 化简的个数
+     */
+    private static int peephole(ArrayList<Instruction> list){
+        int n = 0;
+        // 常数在左边的乘法 push c; A; load_64; mul_i 交换成 A; load_64; push c; mul_i
+        for(int i=3; i<list.size(); i++){
+            if(list.get(i).getOpt() == Operation.mul_i && isPush(list.get(i - 3)) &&
+                    isAddress(list.get(i - 2)) && list.get(i - 1).getOpt() == Operation.load_64){
+                long x = list.get(i - 3).getX();
+                if(x == 1 || x == -1 || log2(x) > 0)
+                    list.add(i - 1, list.remove(i - 3));
+            }
+        }
+        for(int i=1; i<list.size(); i++){
+            Instruction c = list.get(i - 1);
+            Instruction op = list.get(i);
+            if(!isPush(c))
+                continue;
+            long x = c.getX();
+            switch (op.getOpt()) {
+                case mul_i:
+                    if(x == 1){
+                        list.subList(i - 1, i + 1).clear();
+                        i = Math.max(0, i - 2);
+                        n++;
+                    }
+                    else if(x == -1){
+                        list.subList(i - 1, i + 1).clear();
+                        list.add(i - 1, new Instruction(Operation.neg_i));
+                        n++;
+                    }
+                    else if(log2(x) > 0){
+                        list.set(i - 1, new Instruction(Operation.push, (long) log2(x), 8));
+                        list.set(i, new Instruction(Operation.shl));
+                        n++;
+                    }
+                    break;
+                case add_i:
+                case sub_i:
+                    if(x == 0){
+                        list.subList(i - 1, i + 1).clear();
+                        i = Math.max(0, i - 2);
+                        n++;
+                    }
+                    break;
+                case div_i:
+                    if(x == 1){
+                        list.subList(i - 1, i + 1).clear();
+                        i = Math.max(0, i - 2);
+                        n++;
+                    }
+                    else if(log2(x) > 0 && nonNegative(list, i - 2)){
+                        list.set(i - 1, new Instruction(Operation.push, (long) log2(x), 8));
+                        list.set(i, new Instruction(Operation.shr));
+                        n++;
+                    }
+                    break;
+                case div_u:
+                    if(log2(x) > 0){
+                        list.set(i - 1, new Instruction(Operation.push, (long) log2(x), 8));
+                        list.set(i, new Instruction(Operation.shrl));
+                        n++;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * 找出循环中只在一处更新的归纳变量
+     */
+    private static ArrayList<Induction> inductions(Loop l){
+        ArrayList<Induction> list = new ArrayList<>();
+        HashSet<String> multiple = new HashSet<>();
+        HashSet<String> found = new HashSet<>();
+        for(BasicBlock b : l.blocks){
+            ArrayList<Instruction> ins = b.instructions;
+            for(int i=0; i+5<ins.size(); i++){
+                Instruction a = ins.get(i);
+                if(a.getOpt() != Operation.loca && a.getOpt() != Operation.arga)
+                    continue;
+                Operation op = ins.get(i + 4).getOpt();
+                if(ins.get(i + 1).equals(a) && ins.get(i + 2).getOpt() == Operation.load_64 &&
+                        isPush(ins.get(i + 3)) && (op == Operation.add_i || op == Operation.sub_i) &&
+                        ins.get(i + 5).getOpt() == Operation.store_64){
+                    if(!found.add(a.toString()))
+                        multiple.add(a.toString());
+                    Induction iv = new Induction();
+                    iv.address = a;
+                    iv.block = b;
+                    iv.update = i + 5;
+                    iv.step = op == Operation.add_i ? ins.get(i + 3).getX() : -ins.get(i + 3).getX();
+                    list.add(iv);
+                }
+            }
+        }
+        // 更新之外不能再有别的写入
+        HashSet<String> written = new HashSet<>();
+        for(BasicBlock b : l.blocks){
+            ArrayList<Instruction> ins = b.instructions;
+            for(int i=0; i<ins.size(); i++){
+                if(isAddress(ins.get(i)) && (i + 1 >= ins.size() || ins.get(i + 1).getOpt() != Operation.load_64) &&
+                        !written.add(ins.get(i).toString()))
+                    multiple.add(ins.get(i).toString());
+            }
+        }
+        list.removeIf(iv -> multiple.contains(iv.address.toString()));
+        return list;
+    }
+
+    /**
+     * 找出循环中所有 i * s，s 是常量或循环中只读的变量
+     */
+    private static ArrayList<Use> uses(Loop l, Instruction iv, HashSet<String> readOnly){
+        ArrayList<Use> list = new ArrayList<>();
+        for(BasicBlock b : l.blocks){
+            ArrayList<Instruction> ins = b.instructions;
+            for(int i=0; i<ins.size(); i++){
+                if(ins.get(i).getOpt() != Operation.mul_i)
+                    continue;
+                for(int len=1; len<=2; len++){
+                    // i 在左边：A; load_64; s; mul_i
+                    int s = i - len;
+                    if(s - 2 >= 0 && isFactor(ins, s, len, readOnly) &&
+                            ins.get(s - 2).equals(iv) && ins.get(s - 1).getOpt() == Operation.load_64){
+                        Use u = new Use();
+                        u.block = b;
+                        u.start = s - 2;
+                        u.end = i;
+                        u.factor = new ArrayList<>(ins.subList(s, i));
+                        list.add(u);
+                        break;
+                    }
+                    // i 在右边：s; A; load_64; mul_i
+                    if(s - 2 >= 0 && ins.get(i - 2).equals(iv) && ins.get(i - 1).getOpt() == Operation.load_64 &&
+                            isFactor(ins, s - 2, len, readOnly)){
+                        Use u = new Use();
+                        u.block = b;
+                        u.start = s - 2;
+                        u.end = i;
+                        u.factor = new ArrayList<>(ins.subList(s - 2, i - 2));
+                        list.add(u);
+                        break;
+                    }
+                }
+            }
+        }
+        return list;
+    }
+
+    private static boolean isFactor(ArrayList<Instruction> ins, int s, int len, HashSet<String> readOnly){
+        if(len == 1)
+            return isPush(ins.get(s));
+        return isAddress(ins.get(s)) && readOnly.contains(ins.get(s).toString()) &&
+                ins.get(s + 1).getOpt() == Operation.load_64;
+    }
+
+    /**
+     * 对一个循环做归纳变量的强度削弱
+     * @return 是否有修改
+     */
+    private static boolean reduceInduction(FnInstruct f, ControlFlowGraph cfg, Loop l){
+        HashSet<String> readOnly = l.readOnlyLocations();
+        for(Induction iv : inductions(l)){
+            ArrayList<Use> all = uses(l, iv.address, readOnly);
+            // 按乘数分组，每组一个新变量
+            while(!all.isEmpty()){
+                List<Instruction> factor = all.get(0).factor;
+                ArrayList<Use> group = new ArrayList<>();
+                for(Use u : all){
+                    if(u.factor.equals(factor) && sameSizes(u.factor, factor))
+                        group.add(u);
+                }
+                all.removeAll(group);
+
+                boolean constant = factor.size() == 1;
+                // 每轮更新的指令：loca t; loca t; load_64; 增量; add_i; store_64
+                int updateCost = constant ? 6 : 5 + factor.size() + (iv.step == 1 ? 0 : 2);
+                int gain = 0;
+                for(Use u : group){
+                    gain += u.end - u.start + 1 - 2;
+                }
+                if(gain <= updateCost)
+                    continue;
+                apply(f, cfg, l, iv, group, factor);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean sameSizes(List<Instruction> a, List<Instruction> b){
+        for(int k=0; k<a.size(); k++){
+            if(a.get(k).getSize() != b.get(k).getSize())
+                return false;
+        }
+        return true;
+    }
+
+    private static Instruction copy(Instruction i){
+        return new Instruction(i.getOpt(), i.getX(), i.getSize());
+    }
+
+    private static void apply(FnInstruct f, ControlFlowGraph cfg, Loop l, Induction iv, ArrayList<Use> group,
+                              List<Instruction> factor){
+        f.addLoc();
+        int t = f.getNextLocOffset();
+
+        // 先在更新之后插入 t 的累加，再从后往前替换每个使用
+        ArrayList<Instruction> update = new ArrayList<>();
+        update.add(new Instruction(Operation.loca, t, 4));
+        update.add(new Instruction(Operation.loca, t, 4));
+        update.add(new Instruction(Operation.load_64));
+        if(factor.size() == 1){
+            update.add(new Instruction(Operation.push, iv.step * factor.get(0).getX(), 8));
+        }
+        else {
+            for(Instruction i : factor)
+                update.add(copy(i));
+            if(iv.step != 1){
+                update.add(new Instruction(Operation.push, iv.step, 8));
+                update.add(new Instruction(Operation.mul_i));
+            }
+        }
+        update.add(new Instruction(Operation.add_i));
+        update.add(new Instruction(Operation.store_64));
+
+        ArrayList<Use> sorted = new ArrayList<>(group);
+        sorted.sort((a, b) -> b.start - a.start);
+        boolean inserted = false;
+        for(Use u : sorted){
+            if(!inserted && u.block == iv.block && u.start < iv.update){
+                iv.block.instructions.addAll(iv.update + 1, update);
+                inserted = true;
+            }
+            u.block.instructions.subList(u.start, u.end + 1).clear();
+            u.block.instructions.add(u.start, new Instruction(Operation.loca, t, 4));
+            u.block.instructions.add(u.start + 1, new Instruction(Operation.load_64));
+        }
+        if(!inserted)
+            iv.block.instructions.addAll(iv.update + 1, update);
+
+        BasicBlock pre = l.insertPreheader(cfg);
+        pre.instructions.add(new Instruction(Operation.loca, t, 4));
+        pre.instructions.add(copy(iv.address));
+        pre.instructions.add(new Instruction(Operation.load_64));
+        for(Instruction i : factor)
+            pre.instructions.add(copy(i));
+        pre.instructions.add(new Instruction(Operation.mul_i));
+        pre.instructions.add(new Instruction(Operation.store_64));
+    }
+}
@@ -0,0 +1,293 @@
+package c0anayzer.optimizer;
+
+import c0anayzer.instruction.Instruction;
+import c0anayzer.instruction.Operation;
+
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.util.*;
+
+/**
+ * 离线的超级优化器，生成 PeepholeRules：
+ * 枚举由整数/浮点栈操作组成的短指令序列，按虚拟机的语义（ConstantFolding）在一组输入栈上求值，
+ * 对每个序列找结果完全相同的更短序列，再用边界值的全部组合和大量随机输入验证，
+ * 把 “序列 => 更短的序列” 写成规则表。
+ * 规则的左边不包含其他规则的左边（反复应用时已经覆盖），
+ * 左边在某些输入上不能求值（如移位位数越界、浮点运算得到载荷不确定的 NaN）时不生成规则。
+ * 用法：Superoptimizer [输出文件] [最大长度，默认 3]
+ */
+public class Superoptimizer {
+    /** 输入栈的深度，序列最多用到这么多个输入 */
+    private static final int INPUTS = 4;
+    /** 求指纹用的输入栈个数 */
+    private static final int FINGERPRINT_VECTORS = 24;
+    /** 验证时的随机输入栈个数 */
+    private static final int RANDOM_VECTORS = 20000;
+
+    /** 枚举用到的指令 */
+    private static final Instruction[] ALPHABET = {
+            new Instruction(Operation.push, 0L, 8),
+            new Instruction(Operation.push, 1L, 8),
+            new Instruction(Operation.push, -1L, 8),
+            new Instruction(Operation.push, 2L, 8),
+            new Instruction(Operation.dup),
+            new Instruction(Operation.pop),
+            new Instruction(Operation.popn, 2, 4),
+            new Instruction(Operation.add_i),
+            new Instruction(Operation.sub_i),
+            new Instruction(Operation.mul_i),
+            new Instruction(Operation.neg_i),
+            new Instruction(Operation.and),
+            new Instruction(Operation.or),
+            new Instruction(Operation.xor),
+            new Instruction(Operation.not),
+            new Instruction(Operation.shl),
+            new Instruction(Operation.shr),
+            new Instruction(Operation.shrl),
+            new Instruction(Operation.cmp_i),
+            new Instruction(Operation.cmp_u),
+            new Instruction(Operation.set_lt),
+            new Instruction(Operation.set_gt),
+            new Instruction(Operation.add_f),
+            new Instruction(Operation.sub_f),
+            new Instruction(Operation.mul_f),
+            new Instruction(Operation.neg_f),
+            new Instruction(Operation.itof),
+    };
+
+    /**
+     * 边界值，验证时取它们的全部组合。
+     * 浮点数按二进制表示比较，除了常见的值还要有正负的非规格化数和带载荷的 NaN。
+     * Long.MIN_VALUE 是 -0.0，-1 和 Long.MAX_VALUE 也是负的和正的 NaN
+     */
+    private static final long[] EDGES = {
+            0, 1, -1, 2, 63, 64, Long.MIN_VALUE, Long.MAX_VALUE, (1L << 53) + 1,
+            Double.doubleToRawLongBits(1.0), Double.doubleToRawLongBits(-1.0),
+            Double.doubleToRawLongBits(Double.POSITIVE_INFINITY), Double.doubleToRawLongBits(Double.NEGATIVE_INFINITY),
+            Double.doubleToRawLongBits(Double.MIN_NORMAL), Double.doubleToRawLongBits(Double.MAX_VALUE),
+            0x8000000000000001L, 0x000FFFFFFFFFFFFFL, 0x800FFFFFFFFFFFFFL,
+            0x7FF8000000000000L, 0xFFF8000000000000L, 0x7FF0000000000001L, 0x7FF8000000000001L,
+    };
+
+    /** 序列在某个输入上不能求值 */
+    private static final long[] UNDEFINED = new long[0];
+
+    private final Random random = new Random(0xC0);
+    private final long[][] fingerprintInputs = new long[FINGERPRINT_VECTORS][];
+
+    public static void main(String[] args) throws FileNotFoundException, UnsupportedEncodingException {
+        int maxLength = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        List<String[]> rules = new Superoptimizer().search(maxLength);
+        PrintStream out = args.length > 0 ? new PrintStream(args[0], "UTF-8") : new PrintStream(System.out, true, "UTF-8");
+        write(out, rules, maxLength);
+        out.close();
+    }
+
+    private Superoptimizer(){
+        for(int k=0; k<FINGERPRINT_VECTORS; k++){
+            fingerprintInputs[k] = randomInput();
+        }
+    }
+
+    private long[] randomInput(){
+        long[] in = new long[INPUTS];
+        for(int j=0; j<INPUTS; j++){
+            switch (random.nextInt(4)) {
+                case 0:
+                case 1:
+                    in[j] = EDGES[random.nextInt(EDGES.length)];
+                    break;
+                case 2:
+                    in[j] = random.nextLong() >> random.nextInt(64);
+                    break;
+                default:
+                    // 阶码全 0 或全 1：非规格化数、无穷和 NaN
+                    in[j] = (random.nextLong() & 0x800FFFFFFFFFFFFFL) | (random.nextBoolean() ? 0x7FF0000000000000L : 0);
+            }
+        }
+        return in;
+    }
+
+    /**
+     * 枚举并生成规则
+     * @param maxLength 左边的最大长度
+     * @return 规则（左边，右边），按左边的长度排列
+     */
+    private List<String[]> search(int maxLength){
+        // 指纹 -> 最短的序列
+        HashMap<Long, List<Instruction>> shortest = new HashMap<>();
+        HashSet<String> reducible = new HashSet<>();
+        List<String[]> rules = new ArrayList<>();
+        List<List<Instruction>> current = new ArrayList<>();
+        current.add(new ArrayList<>());
+        shortest.put(fingerprint(current.get(0)), current.get(0));
+        for(int n=1; n<=maxLength; n++){
+            List<List<Instruction>> next = new ArrayList<>();
+            for(List<Instruction> prefix : current){
+                for(Instruction i : ALPHABET){
+                    List<Instruction> s = new ArrayList<>(prefix);
+                    s.add(i);
+                    if(containsReducible(s, reducible))
+                        continue;
+                    next.add(s);
+                    Long f = fingerprint(s);
+                    if(f == null)
+                        continue;
+                    List<Instruction> t = shortest.get(f);
+                    if(t == null){
+                        if(n < maxLength)
+                            shortest.put(f, s);
+                    }
+                    else if(t.size() < s.size() && depth(t) <= depth(s) && verify(s, t)){
+                        reducible.add(text(s));
+                        rules.add(new String[]{text(s), text(t)});
+                    }
+                }
+            }
+            current = next;
+        }
+        return rules;
+    }
+
+    /**
+     * 序列中是否有连续的一段已经是规则的左边
+     */
+    private static boolean containsReducible(List<Instruction> s, HashSet<String> reducible){
+        for(int i=0; i<s.size(); i++){
+            for(int j=i+1; j<=s.size(); j++){
+                if(j - i < s.size() && reducible.contains(text(s.subList(i, j))))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 在求指纹用的输入上的全部结果的散列值，栈下溢或有不能求值的输入时返回 null。
+     * 散列值相同的序列还要经过 verify 才算等价
+     */
+    private Long fingerprint(List<Instruction> s){
+        long h = 0xcbf29ce484222325L;
+        for(long[] in : fingerprintInputs){
+            long[] out = run(s, in, INPUTS);
+            if(out == null || out == UNDEFINED)
+                return null;
+            h = (h ^ out.length) * 0x100000001b3L;
+            for(long v : out){
+                h = (h ^ v) * 0x100000001b3L;
+                h ^= h >>> 29;
+            }
+        }
+        return h;
+    }
+
+    /**
+     * 用边界值的全部组合和随机输入验证两个序列等价。
+     * 序列只读栈顶的 depth 个输入，这几个输入取边界值的全部组合，其余的输入不变
+     */
+    private boolean verify(List<Instruction> s, List<Instruction> t){
+        int d = Math.max(depth(s), depth(t));
+        long[] in = randomInput();
+        int[] index = new int[d];
+        while(true){
+            for(int j=0; j<d; j++){
+                in[INPUTS - 1 - j] = EDGES[index[j]];
+            }
+            if(!same(s, t, in))
+                return false;
+            int j = 0;
+            while(j < d && ++index[j] == EDGES.length){
+                index[j++] = 0;
+            }
+            if(j == d)
+                break;
+        }
+        for(int k=0; k<RANDOM_VECTORS; k++){
+            if(!same(s, t, randomInput()))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean same(List<Instruction> s, List<Instruction> t, long[] in){
+        long[] a = run(s, in, INPUTS);
+        return a != UNDEFINED && Arrays.equals(a, run(t, in, INPUTS));
+    }
+
+    /**
+     * 序列最少需要栈上有几个值
+     */
+    private static int depth(List<Instruction> s){
+        long[] in = new long[INPUTS];
+        for(int d=0; d<INPUTS; d++){
+            if(run(s, in, d) != null)
+                return d;
+        }
+        return INPUTS;
+    }
+
+    /**
+     * 参考求值器：在栈上放 inputs 中的前 depth 个值后执行序列
+     * @return 执行后的栈，栈下溢时返回 null，不能求值时返回 UNDEFINED
+     */
+    private static long[] run(List<Instruction> s, long[] inputs, int depth){
+        long[] stack = new long[depth + 2 * s.size()];
+        int sp = 0;
+        for(int j=0; j<depth; j++){
+            stack[sp++] = inputs[j];
+        }
+        for(Instruction i : s){
+            Operation op = i.getOpt();
+            int pops = StackEffect.pops(i);
+            if(sp < pops)
+                return null;
+            switch (op) {
+                case push:
+                    stack[sp++] = i.getX();
+                    break;
+                case dup:
+                    stack[sp] = stack[sp - 1];
+                    sp++;
+                    break;
+                case pop:
+                case popn:
+                    sp -= pops;
+                    break;
+                default: {
+                    Long r = pops == 2 ? ConstantFolding.apply(op, stack[sp - 2], stack[sp - 1]) :
+                            ConstantFolding.apply(op, stack[sp - 1]);
+                    if(r == null)
+                        return UNDEFINED;
+                    sp -= pops;
+                    stack[sp++] = r;
+                }
+            }
+        }
+        return Arrays.copyOf(stack, sp);
+    }
+
+    private static String text(List<Instruction> s){
+        StringJoiner sj = new StringJoiner("; ");
+        for(Instruction i : s){
+            sj.add(i.hasX() ? i.getOpt() + " " + i.getX() : i.getOpt().toString());
+        }
+        return sj.toString();
+    }
+
+    private static void write(PrintStream out, List<String[]> rules, int maxLength){
+        out.println("package c0anayzer.optimizer;");
+        out.println();
+        out.println("/**");
+        out.println(" * 由 Superoptimizer 生成（最大长度 " + maxLength + "），不要手动修改。");
+        out.println(" * 每条规则是 “指令序列 => 等价的更短序列”，指令之间用分号隔开");
+        out.println(" */");
+        out.println("public class PeepholeRules {");
+        out.println("    public static final String[] RULES = {");
+        for(String[] r : rules){
+            out.println("            \"" + r[0] + " =>" + (r[1].isEmpty() ? "" : " " + r[1]) + "\",");
+        }
+        out.println("    };");
+        out.println("}");
+    }
+}
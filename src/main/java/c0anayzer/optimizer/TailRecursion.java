@@ -0,0 +1,139 @@
+package c0anayzer.optimizer;
+
+import c0anayzer.instruction.Instruction;
+import c0anayzer.instruction.Operation;
+import c0anayzer.midcode.FnInstruct;
+import c0anayzer.midcode.MidCode;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * 尾递归消除：
+ * 处于尾位置的自递归调用（call 之后只剩把结果存入返回值并 ret）
+ * 改为给参数重新赋值，然后跳回函数入口。
+ * 新的实参全部算完后才写回参数，依赖初始 0 值的局部变量在跳回前清零
+ */
+public class TailRecursion {
+
+    /**
+     * 对所有函数做尾递归消除
+     * @param m 中间代码
+     * @return 改成循环的调用个数
+     */
+    public static int optimize(MidCode m){
+        int converted = 0;
+        for(FnInstruct f : m.fnList){
+            converted += optimize(m, f);
+        }
+        return converted;
+    }
+
+    public static int optimize(MidCode m, FnInstruct f){
+        ControlFlowGraph cfg = ControlFlowGraph.build(f);
+        HashMap<BasicBlock, Integer> heights = StackEffect.entryHeights(cfg);
+        if(heights == null)
+            return 0;
+        HashSet<Integer> live = SlotColoring.entryLiveSlots(f);
+
+        int converted = 0;
+        for(BasicBlock b : cfg.blocks){
+            if(heights.get(b) == null || heights.get(b) != 0 || !returnsNext(cfg, b))
+                continue;
+            if(rewrite(m, f, b, live)){
+                b.terminator = new Instruction(Operation.br, 0, 4);
+                b.jumpTarget = cfg.entry;
+                b.fallThrough = null;
+                converted++;
+            }
+        }
+        if(converted > 0){
+            cfg.removeUnreachable();
+            cfg.writeBack();
+        }
+        return converted;
+    }
+
+    /**
+     * 块执行完之后是否紧接着 ret
+     */
+    private static boolean returnsNext(ControlFlowGraph cfg, BasicBlock b){
+        if(b.terminator != null && b.terminator.getOpt() == Operation.ret)
+            return true;
+        if(b.terminator != null && !b.endsWithBr())
+            return false;
+        BasicBlock s = b.endsWithBr() ? b.jumpTarget : b.fallThrough;
+        HashSet<BasicBlock> seen = new HashSet<>();
+        while(s != null && s != cfg.exit && s.isEmpty() && seen.add(s)){
+            if(s.terminator != null && s.terminator.getOpt() == Operation.ret)
+                return true;
+            if(s.endsWithBr())
+                s = s.jumpTarget;
+            else if(s.terminator == null)
+                s = s.fallThrough;
+            else
+                return false;
+        }
+        return false;
+    }
+
+    /**
+     * 如果块以尾位置的自递归调用结束，改写成参数赋值
+     * arga 0; stackalloc 1; 参数...; call f; store_64
+     * 改为 arga r; 参数0; arga r+1; 参数1; ...; store_64 ...
+     * @return 是否改写了
+     */
+    private static boolean rewrite(MidCode m, FnInstruct f, BasicBlock b, HashSet<Integer> live){
+        ArrayList<Instruction> list = b.instructions;
+        int p = f.getParamSlots();
+        int r = f.getReturnSlots();
+        int c = list.size() - 1 - r;
+        if(c < 0 || list.get(c).getOpt() != Operation.call || m.getFnByAddress(list.get(c).getIntX()) != f)
+            return false;
+        if(r == 1 && list.get(c + 1).getOpt() != Operation.store_64)
+            return false;
+
+        ArrayList<Integer> stack = StackEffect.operandStarts(list, 0, c);
+        if(stack.size() != p + 2 * r || stack.contains(-1))
+            return false;
+        int s;
+        if(r == 1){
+            int a = stack.get(0);
+            s = stack.get(1);
+            if(a + 1 != s || list.get(a).getOpt() != Operation.arga || list.get(a).getIntX() != 0)
+                return false;
+        }
+        else {
+            s = (p > 0 ? stack.get(0) : c) - 1;
+            if(s < 0)
+                return false;
+        }
+        if(list.get(s).getOpt() != Operation.stackalloc || list.get(s).getIntX() != r ||
+                (p > 0 ? stack.get(2 * r) : c) != s + 1)
+            return false;
+
+        ArrayList<Instruction> tail = new ArrayList<>();
+        for(int j=0; j<p; j++){
+            int from = stack.get(2 * r + j);
+            int to = j + 1 < p ? stack.get(2 * r + j + 1) : c;
+            tail.add(new Instruction(Operation.arga, r + j, 4));
+            tail.addAll(list.subList(from, to));
+        }
+        for(int j=0; j<p; j++){
+            tail.add(new Instruction(Operation.store_64));
+        }
+        for(int k=0; k<f.getLocSlots(); k++){
+            if(live == null || live.contains(k)){
+                tail.add(new Instruction(Operation.loca, k, 4));
+                tail.add(new Instruction(Operation.push, 0L, 8));
+                tail.add(new Instruction(Operation.store_64));
+            }
+        }
+
+        int head = r == 1 ? s - 1 : s;
+        list.subList(head, list.size()).clear();
+        list.addAll(tail);
+        return true;
+    }
+}
@@ -0,0 +1,224 @@
+package c0anayzer.optimizer;
+
+import c0anayzer.instruction.Instruction;
+import c0anayzer.instruction.Operation;
+import c0anayzer.midcode.FnInstruct;
+import c0anayzer.midcode.GlobalVar;
+import c0anayzer.midcode.MidCode;
+
+import java.util.*;
+
+/**
+ * 删除从 _start 出发不可达的函数、没有被用到的全局变量，
+ * 以及只被这些函数用到的库函数名和字符串，然后重新编号。
+ * 只被 _start 中无副作用的初始化语句写入的全局变量连同初始化语句一起删除
+ */
+public class TreeShaking {
+
+    /** _start 中一条全局变量的初始化：globa k; 表达式; store_64 */
+    private static class Initializer {
+        int global;
+        int start;
+        int end;
+        /** 表达式中读到的全局变量 */
+        HashSet<Integer> reads = new HashSet<>();
+    }
+
+    private MidCode m;
+    private FnInstruct start;
+    private LinkedHashSet<FnInstruct> reachable = new LinkedHashSet<>();
+
+    private TreeShaking(MidCode m){
+        this.m = m;
+    }
+
+    /**
+     * 对整个程序做删除
+     * @param m 中间代码
+     * @return 删除的函数和全局变量个数
+     */
+    public static int optimize(MidCode m){
+        TreeShaking ts = new TreeShaking(m);
+        for(FnInstruct f : m.fnList){
+            if(f.getFnName().equals("_start"))
+                ts.start = f;
+        }
+        if(ts.start == null)
+            return 0;
+        ts.markFunctions(ts.start);
+        int removed = m.fnList.size() - ts.reachable.size();
+        boolean[] liveGlobals = ts.liveGlobals();
+        for(boolean live : liveGlobals){
+            if(!live)
+                removed++;
+        }
+        if(removed > 0)
+            ts.renumber(liveGlobals);
+        return removed;
+    }
+
+    private void markFunctions(FnInstruct f){
+        if(!reachable.add(f))
+            return;
+        for(Instruction i : f.getFnBody()){
+            if(i.getOpt() == Operation.call)
+                markFunctions(m.getFnByAddress(i.getIntX()));
+        }
+    }
+
+    /**
+     * 找出 _start 中可以删掉的初始化语句
+     */
+    private ArrayList<Initializer> initializers(){
+        ArrayList<Initializer> list = new ArrayList<>();
+        ArrayList<Instruction> body = start.getFnBody();
+        for(Instruction i : body){
+            if(ControlFlowGraph.isBranch(i.getOpt()))
+                return list;
+        }
+        for(int j=0; j<body.size(); j++){
+            if(body.get(j).getOpt() != Operation.store_64)
+                continue;
+            ArrayList<Integer> stack = StackEffect.operandStarts(body, 0, j);
+            if(stack.size() < 2)
+                continue;
+            int a = stack.get(stack.size() - 2);
+            if(a < 0 || body.get(a).getOpt() != Operation.globa || stack.get(stack.size() - 1) != a + 1)
+                continue;
+            Initializer init = new Initializer();
+            init.global = body.get(a).getIntX();
+            init.start = a;
+            init.end = j;
+            boolean pure = true;
+            for(int k=a+1; k<j && pure; k++){
+                Instruction ins = body.get(k);
+                if(ins.getOpt() == Operation.globa && body.get(k + 1).getOpt() == Operation.load_64)
+                    init.reads.add(ins.getIntX());
+                else if(ins.getOpt() != Operation.push && ins.getOpt() != Operation.load_64 &&
+                        !StackEffect.isPureArith(ins.getOpt()))
+                    pure = false;
+                // 除法可能因为除数为 0 出错，不能删掉
+                else if(ins.getOpt() == Operation.div_i || ins.getOpt() == Operation.div_u)
+                    pure = false;
+            }
+            if(pure)
+                list.add(init);
+        }
+        return list;
+    }
+
+    /**
+     * 计算每个全局变量是否被用到，并删除没用到的变量的初始化语句
+     * @return 每个全局变量是否保留
+     */
+    private boolean[] liveGlobals(){
+        boolean[] live = new boolean[m.gdList.size()];
+        ArrayList<Initializer> inits = initializers();
+        HashSet<Integer> inInit = new HashSet<>();
+        for(Initializer init : inits){
+            for(int k=init.start; k<=init.end; k++)
+                inInit.add(k);
+        }
+        for(FnInstruct f : reachable){
+            ArrayList<Instruction> body = f.getFnBody();
+            for(int i=0; i<body.size(); i++){
+                if(body.get(i).getOpt() == Operation.globa && !(f == start && inInit.contains(i)))
+                    live[body.get(i).getIntX()] = true;
+            }
+        }
+        boolean changed = true;
+        while(changed){
+            changed = false;
+            for(Initializer init : inits){
+                if(!live[init.global])
+                    continue;
+                for(int g : init.reads){
+                    if(!live[g]){
+                        live[g] = true;
+                        changed = true;
+                    }
+                }
+            }
+        }
+
+        ArrayList<Instruction> body = start.getFnBody();
+        for(int k=inits.size()-1; k>=0; k--){
+            Initializer init = inits.get(k);
+            if(!live[init.global])
+                body.subList(init.start, init.end + 1).clear();
+        }
+        return live;
+    }
+
+    /**
+     * 删除不可达的函数和没用到的全局符号，修正所有编号
+     */
+    private void renumber(boolean[] liveGlobals){
+        int globals = m.gdList.size();
+        HashSet<String> fnNames = new HashSet<>();
+        for(FnInstruct f : reachable){
+            fnNames.add(f.getFnName());
+        }
+
+        // 先记下所有引用全局符号的指令，再改编号
+        boolean[] keep = new boolean[m.globalSymbol.size()];
+        IdentityHashMap<Instruction, Integer> symbolRefs = new IdentityHashMap<>();
+        for(FnInstruct f : reachable){
+            ArrayList<Instruction> body = f.getFnBody();
+            for(int i=0; i<body.size(); i++){
+                if(m.isSymbolReference(body, i)){
+                    symbolRefs.put(body.get(i), body.get(i).getIntX());
+                    keep[body.get(i).getIntX()] = true;
+                }
+            }
+        }
+        for(int i=0; i<keep.length; i++){
+            if(i < globals)
+                keep[i] = liveGlobals[i];
+            else if(fnNames.contains(m.globalSymbol.get(i)))
+                keep[i] = true;
+        }
+
+        int[] newIndex = new int[keep.length];
+        ArrayList<String> symbols = new ArrayList<>();
+        ArrayList<GlobalVar> vars = new ArrayList<>();
+        for(int i=0; i<keep.length; i++){
+            newIndex[i] = symbols.size();
+            if(keep[i]){
+                symbols.add(m.globalSymbol.get(i));
+                if(i < globals)
+                    vars.add(m.gdList.get(i));
+            }
+        }
+
+        HashMap<FnInstruct, Integer> newAddress = new HashMap<>();
+        ArrayList<FnInstruct> fns = new ArrayList<>();
+        for(FnInstruct f : m.fnList){
+            if(reachable.contains(f)){
+                fns.add(f);
+                newAddress.put(f, fns.size());
+            }
+        }
+
+        IdentityHashMap<Instruction, Integer> updates = new IdentityHashMap<>();
+        for(FnInstruct f : fns){
+            for(Instruction i : f.getFnBody()){
+                if(i.getOpt() == Operation.globa)
+                    updates.put(i, newIndex[i.getIntX()]);
+                else if(i.getOpt() == Operation.call)
+                    updates.put(i, newAddress.get(m.getFnByAddress(i.getIntX())));
+                else if(symbolRefs.containsKey(i))
+                    updates.put(i, newIndex[symbolRefs.get(i)]);
+            }
+        }
+        for(Map.Entry<Instruction, Integer> e : updates.entrySet()){
+            e.getKey().setX(e.getValue());
+        }
+        m.fnList.clear();
+        m.fnList.addAll(fns);
+        m.globalSymbol.clear();
+        m.globalSymbol.addAll(symbols);
+        m.gdList.clear();
+        m.gdList.addAll(vars);
+    }
+}
@@ -0,0 +1,85 @@
+package c0anayzer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Scanner;
+
+import org.junit.Test;
+
+import c0anayzer.analyser.Analyser;
+import c0anayzer.error.CompileError;
+import c0anayzer.instruction.Instruction;
+import c0anayzer.instruction.Operation;
+import c0anayzer.midcode.FnInstruct;
+import c0anayzer.midcode.MidCode;
+import c0anayzer.optimizer.CompileTimeEvaluation;
+import c0anayzer.tokenizer.StringIter;
+import c0anayzer.tokenizer.Tokenizer;
+
+public class CompileTimeEvaluationTest {
+
+    private static final String FUNCTIONS =
+            "fn spin(k: int) -> int {\n" +
+            "    let i: int = 0;\n" +
+            "    while i < 100000000 {\n" +
+            "        i = i + 1;\n" +
+            "    }\n" +
+            "    return i + k;\n" +
+            "}\n" +
+            "fn count(k: int) -> int {\n" +
+            "    let i: int = 0;\n" +
+            "    while i < 50000 {\n" +
+            "        i = i + 1;\n" +
+            "    }\n" +
+            "    return i + k;\n" +
+            "}\n" +
+            "fn sq(k: int) -> int {\n" +
+            "    return k * k;\n" +
+            "}\n";
+
+    private static MidCode compile(String source) throws CompileError {
+        MidCode.reset();
+        return new Analyser(new Tokenizer(new StringIter(new Scanner(source)))).analyse();
+    }
+
+    /** main 中依次用 0..n-1 调用 callee */
+    private static String calls(String callee, int n) {
+        StringBuilder sb = new StringBuilder();
+        for(int k=0; k<n; k++){
+            sb.append("    putint(").append(callee).append("(").append(k).append("));\n");
+        }
+        return sb.toString();
+    }
+
+    private static int remainingCalls(MidCode m) {
+        int n = 0;
+        for(FnInstruct f : m.fnList){
+            if(!f.getFnName().equals("main"))
+                continue;
+            for(Instruction i : f.getFnBody()){
+                if(i.getOpt() == Operation.call)
+                    n++;
+            }
+        }
+        return n;
+    }
+
+    @Test
+    public void testGivesUpOnExhaustedCallee() throws CompileError {
+        MidCode m = compile(FUNCTIONS + "fn main() -> void {\n" + calls("spin", 200) + calls("sq", 3) + "}\n");
+        // spin 的第一次调用用完步数后不再尝试它的其他调用，sq 仍然求值
+        assertEquals(3, CompileTimeEvaluation.optimize(m));
+        assertEquals(200, remainingCalls(m));
+    }
+
+    @Test
+    public void testTotalStepBudget() throws CompileError {
+        MidCode m = compile(FUNCTIONS + "fn main() -> void {\n" + calls("count", 200) + "}\n");
+        // 每次调用都在单次上限以内，总步数用完后剩下的调用保留
+        int evaluated = CompileTimeEvaluation.optimize(m);
+        assertTrue(evaluated > 0);
+        assertTrue(evaluated < 20);
+        assertEquals(200 - evaluated, remainingCalls(m));
+    }
+}
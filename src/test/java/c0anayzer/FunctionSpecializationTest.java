@@ -0,0 +1,78 @@
+package c0anayzer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.IdentityHashMap;
+import java.util.Scanner;
+
+import org.junit.Test;
+
+import c0anayzer.analyser.Analyser;
+import c0anayzer.error.CompileError;
+import c0anayzer.instruction.Instruction;
+import c0anayzer.instruction.Operation;
+import c0anayzer.midcode.FnInstruct;
+import c0anayzer.midcode.MidCode;
+import c0anayzer.optimizer.FunctionSpecialization;
+import c0anayzer.tokenizer.StringIter;
+import c0anayzer.tokenizer.Tokenizer;
+
+public class FunctionSpecializationTest {
+
+    private static final String PROGRAM =
+            "fn add(a: int, b: int) -> int {\n" +
+            "    return a + b;\n" +
+            "}\n" +
+            "fn scale(a: int, k: int) -> int {\n" +
+            "    return add(a, 0) * k;\n" +
+            "}\n" +
+            "fn main() -> void {\n" +
+            "    putint(add(getint(), 2));\n" +
+            "    putint(add(getint(), 2));\n" +
+            "    putint(scale(getint(), 3));\n" +
+            "    putint(add(1, getint()));\n" +
+            "}\n";
+
+    private static MidCode compile(String source) throws CompileError {
+        MidCode.reset();
+        return new Analyser(new Tokenizer(new StringIter(new Scanner(source)))).analyse();
+    }
+
+    private static String baseName(String fnName) {
+        int k = fnName.indexOf('#');
+        return k < 0 ? fnName : fnName.substring(0, k);
+    }
+
+    @Test
+    public void testStartStaysLast() throws CompileError {
+        MidCode m = compile(PROGRAM);
+        IdentityHashMap<Instruction, String> callees = new IdentityHashMap<>();
+        for(FnInstruct f : m.fnList){
+            for(Instruction i : f.getFnBody()){
+                if(i.getOpt() == Operation.call)
+                    callees.put(i, m.getFnByAddress(i.getIntX()).getFnName());
+            }
+        }
+        int functions = m.fnList.size();
+
+        assertTrue(FunctionSpecialization.optimize(m) > 0);
+        assertTrue(m.fnList.size() > functions);
+
+        // o0 文件中 _start 是第 0 个函数，其余函数按 fnList 编号，所以 _start 必须在最后
+        FnInstruct start = m.fnList.get(m.fnList.size() - 1);
+        assertEquals("_start", start.getFnName());
+        for(FnInstruct f : m.fnList){
+            assertTrue(f.getFnName(), m.getFnNumber(f.getFnName()) >= 0);
+            for(Instruction i : f.getFnBody()){
+                if(i.getOpt() != Operation.call)
+                    continue;
+                assertTrue(i.getIntX() >= 1 && i.getIntX() < m.fnList.size());
+                String callee = m.getFnByAddress(i.getIntX()).getFnName();
+                // 原来的调用点仍然调用原函数或它的特化版本
+                if(callees.containsKey(i))
+                    assertEquals(callees.get(i), baseName(callee));
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package c0anayzer;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import c0anayzer.instruction.Instruction;
+import c0anayzer.instruction.Operation;
+import c0anayzer.midcode.FnInstruct;
+import c0anayzer.optimizer.JumpThreading;
+
+public class JumpThreadingTest {
+
+    private static Instruction push(long x) {
+        return new Instruction(Operation.push, x, 8);
+    }
+
+    private static Instruction branch(Operation op, int offset) {
+        return new Instruction(op, offset, 4);
+    }
+
+    private static Instruction ret() {
+        return new Instruction(Operation.ret);
+    }
+
+    private static List<Instruction> optimize(Instruction... body) {
+        FnInstruct f = new FnInstruct("f");
+        f.setFnBody(new ArrayList<>(Arrays.asList(body)));
+        JumpThreading.optimize(f);
+        return f.getFnBody();
+    }
+
+    @Test
+    public void testThreadsJumpThroughEmptyBlock() {
+        // 顺序执行到只有 br 的块，改为直接到最终目标；
+        // 条件跳转的目标成为下一块，反转条件跳到另一侧
+        List<Instruction> body = optimize(
+                push(1),
+                branch(Operation.br_true, 1),
+                branch(Operation.br, 2),
+                push(3),
+                ret(),
+                push(5),
+                ret());
+        assertEquals(Arrays.asList(
+                push(1),
+                branch(Operation.br_false, 2),
+                push(3),
+                ret(),
+                push(5),
+                ret()), body);
+    }
+
+    @Test
+    public void testReplacesBranchToReturn() {
+        List<Instruction> body = optimize(
+                push(1),
+                branch(Operation.br_true, 2),
+                push(2),
+                branch(Operation.br, 1),
+                push(3),
+                ret());
+        assertEquals(Arrays.asList(
+                push(1),
+                branch(Operation.br_true, 2),
+                push(2),
+                ret(),
+                push(3),
+                ret()), body);
+    }
+
+    @Test
+    public void testMergesSinglePredecessorBlock() {
+        // br 的目标只有一个前驱，合并后不可达的块也被删除
+        List<Instruction> body = optimize(
+                push(1),
+                branch(Operation.br, 1),
+                push(9),
+                push(2),
+                ret());
+        assertEquals(Arrays.asList(push(1), push(2), ret()), body);
+    }
+}
@@ -0,0 +1,129 @@
+package c0anayzer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Scanner;
+
+import org.junit.Test;
+
+import c0anayzer.analyser.Analyser;
+import c0anayzer.analyser.FunctionSkimmer;
+import c0anayzer.error.CompileError;
+import c0anayzer.midcode.FnInstruct;
+import c0anayzer.midcode.MidCode;
+import c0anayzer.tokenizer.StringIter;
+import c0anayzer.tokenizer.Token;
+import c0anayzer.tokenizer.Tokenizer;
+
+public class LazyAnalysisTest {
+
+    /** 从 main 和全局变量初始化可达的函数 */
+    private static final String LIVE =
+            "fn init(a: int) -> int {\n" +
+            "    return a * 2;\n" +
+            "}\n" +
+            "let g: int = init(3);\n" +
+            "fn leaf(a: int) -> int {\n" +
+            "    return a + g;\n" +
+            "}\n" +
+            "fn helper(a: int) -> int {\n" +
+            "    return leaf(a) - 1;\n" +
+            "}\n" +
+            "fn main() -> void {\n" +
+            "    putint(helper(4));\n" +
+            "}\n";
+
+    /** 不可达的函数，有语义错误（未声明的变量）但语法正确 */
+    private static final String DEAD_SEMANTIC =
+            "fn dead(a: int) -> int {\n" +
+            "    return a + undeclared;\n" +
+            "}\n";
+
+    /** 不可达的函数，有语法错误 */
+    private static final String DEAD_SYNTAX =
+            "fn broken(a: int) -> int {\n" +
+            "    let x: int = ;\n" +
+            "    return x;\n" +
+            "}\n";
+
+    private static MidCode compile(String source, boolean lazy, boolean strict) throws CompileError {
+        MidCode.reset();
+        Tokenizer tokenizer = new Tokenizer(new StringIter(new Scanner(source)));
+        return new Analyser(tokenizer, lazy, strict).analyse();
+    }
+
+    private static void assertRejected(String source, boolean lazy, boolean strict) {
+        try {
+            compile(source, lazy, strict);
+        } catch (CompileError e) {
+            return;
+        }
+        fail("expected a compile error (lazy=" + lazy + ", strict=" + strict + ")");
+    }
+
+    private static HashSet<String> functionNames(MidCode m) {
+        HashSet<String> names = new HashSet<>();
+        for(FnInstruct f : m.fnList){
+            names.add(f.getFnName());
+        }
+        return names;
+    }
+
+    @Test
+    public void testSkipsUnreachableFunctions() throws CompileError {
+        MidCode m = compile(DEAD_SEMANTIC + LIVE + DEAD_SYNTAX.replace("= ;", "= 1;"), true, false);
+        assertEquals(new HashSet<>(Arrays.asList("init", "leaf", "helper", "main", "_start")), functionNames(m));
+        assertEquals("_start", m.fnList.get(m.fnList.size() - 1).getFnName());
+    }
+
+    @Test
+    public void testSameCodeForReachableFunctions() throws CompileError {
+        String full = compile(LIVE, false, false).toString();
+        assertEquals(full, compile(DEAD_SEMANTIC + LIVE, true, false).toString());
+    }
+
+    @Test
+    public void testSemanticErrorsInSkippedFunctions() throws CompileError {
+        assertRejected(DEAD_SEMANTIC + LIVE, false, false);
+        compile(DEAD_SEMANTIC + LIVE, true, false);
+        // 严格模式只检查语法
+        compile(DEAD_SEMANTIC + LIVE, true, true);
+    }
+
+    @Test
+    public void testStrictChecksSyntaxOfSkippedFunctions() throws CompileError {
+        assertRejected(LIVE + DEAD_SYNTAX, false, false);
+        compile(LIVE + DEAD_SYNTAX, true, false);
+        assertRejected(LIVE + DEAD_SYNTAX, true, true);
+    }
+
+    @Test
+    public void testFallsBackToFullAnalysis() {
+        // 有同名函数
+        assertRejected(DEAD_SEMANTIC.replace("undeclared", "1") + DEAD_SEMANTIC.replace("undeclared", "2") + LIVE,
+                true, false);
+        // 括号不配对
+        assertRejected(LIVE + "fn open() -> void {\n    {\n}\n", true, false);
+    }
+
+    @Test
+    public void testUnreachableSpans() throws CompileError {
+        ArrayList<Token> tokens = FunctionSkimmer.readAll(
+                new Tokenizer(new StringIter(new Scanner(DEAD_SEMANTIC + LIVE + DEAD_SYNTAX))));
+        HashMap<Integer, FunctionSkimmer.Span> spans = FunctionSkimmer.unreachable(tokens);
+        HashSet<String> names = new HashSet<>();
+        for(FunctionSkimmer.Span s : spans.values()){
+            names.add(s.name);
+            assertEquals("fn", tokens.get(s.start).getValueString());
+            assertEquals("}", tokens.get(s.end - 1).getValueString());
+        }
+        assertEquals(new HashSet<>(Arrays.asList("dead", "broken")), names);
+        assertTrue(spans.containsKey(0));
+    }
+}
@@ -0,0 +1,136 @@
+package c0anayzer;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Scanner;
+
+import org.junit.Test;
+
+import c0anayzer.analyser.Analyser;
+import c0anayzer.error.CompileError;
+import c0anayzer.instruction.Instruction;
+import c0anayzer.instruction.Operation;
+import c0anayzer.midcode.FnInstruct;
+import c0anayzer.midcode.MidCode;
+import c0anayzer.optimizer.LoopUnrolling;
+import c0anayzer.tokenizer.StringIter;
+import c0anayzer.tokenizer.Tokenizer;
+
+public class LoopUnrollingTest {
+
+    private static final String PROGRAM =
+            "fn up() -> void {\n" +
+            "    let i: int = 3;\n" +
+            "    while i <= 10 {\n" +
+            "        putint(i);\n" +
+            "        i = i + 2;\n" +
+            "    }\n" +
+            "}\n" +
+            "fn down() -> void {\n" +
+            "    let i: int = 10;\n" +
+            "    while 0 <= i {\n" +
+            "        putint(i);\n" +
+            "        i = i - 3;\n" +
+            "    }\n" +
+            "}\n" +
+            "fn equal() -> void {\n" +
+            "    let i: int = 0;\n" +
+            "    while i != 12 {\n" +
+            "        putint(i);\n" +
+            "        i = i + 3;\n" +
+            "    }\n" +
+            "}\n" +
+            "fn skip() -> void {\n" +
+            "    let i: int = 0;\n" +
+            "    while i != 11 {\n" +
+            "        putint(i);\n" +
+            "        i = i + 3;\n" +
+            "    }\n" +
+            "}\n" +
+            "fn spin(k: int) -> int {\n" +
+            "    let i: int = 0;\n" +
+            "    let s: int = k;\n" +
+            "    while i < 100000000 {\n" +
+            "        s = s + i;\n" +
+            "        i = i + 1;\n" +
+            "    }\n" +
+            "    return s;\n" +
+            "}\n" +
+            "fn odd(k: int) -> int {\n" +
+            "    let i: int = 0;\n" +
+            "    let s: int = k;\n" +
+            "    while i < 100000003 {\n" +
+            "        s = s + i;\n" +
+            "        i = i + 1;\n" +
+            "    }\n" +
+            "    return s;\n" +
+            "}\n" +
+            "fn main() -> void {\n" +
+            "    up();\n" +
+            "}\n";
+
+    private static MidCode compile(String source) throws CompileError {
+        MidCode.reset();
+        return new Analyser(new Tokenizer(new StringIter(new Scanner(source)))).analyse();
+    }
+
+    private static FnInstruct function(MidCode m, String name) {
+        for(FnInstruct f : m.fnList){
+            if(f.getFnName().equals(name))
+                return f;
+        }
+        throw new AssertionError("no function " + name);
+    }
+
+    private static int count(FnInstruct f, Operation op) {
+        int n = 0;
+        for(Instruction i : f.getFnBody()){
+            if(i.getOpt() == op)
+                n++;
+        }
+        return n;
+    }
+
+    private static int backEdges(FnInstruct f) {
+        int n = 0;
+        for(Instruction i : f.getFnBody()){
+            Operation op = i.getOpt();
+            if((op == Operation.br || op == Operation.br_true || op == Operation.br_false) && i.getIntX() < 0)
+                n++;
+        }
+        return n;
+    }
+
+    @Test
+    public void testFullyUnrollsComputedTripCounts() throws CompileError {
+        MidCode m = compile(PROGRAM);
+        // 3 5 7 9、10 7 4 1、0 3 6 9，每轮输出一次
+        for(String name : new String[]{"up", "down", "equal"}){
+            FnInstruct f = function(m, name);
+            assertEquals(name, 1, LoopUnrolling.optimize(f, LoopUnrolling.DEFAULT_FACTOR));
+            assertEquals(name, 4, count(f, Operation.callname));
+            assertEquals(name, 0, backEdges(f));
+        }
+    }
+
+    @Test
+    public void testKeepsLoopThatSkipsBound() throws CompileError {
+        MidCode m = compile(PROGRAM);
+        FnInstruct f = function(m, "skip");
+        assertEquals(0, LoopUnrolling.optimize(f, LoopUnrolling.DEFAULT_FACTOR));
+        assertEquals(1, backEdges(f));
+    }
+
+    @Test
+    public void testPartiallyUnrollsLongLoop() throws CompileError {
+        MidCode m = compile(PROGRAM);
+        // 1e8 轮是 4 的倍数，循环中有 4 份；多 3 轮时剥离 3 份到循环前面
+        FnInstruct spin = function(m, "spin");
+        int adds = count(spin, Operation.add_i);
+        assertEquals(1, LoopUnrolling.optimize(spin, 4));
+        assertEquals(4 * adds, count(spin, Operation.add_i));
+        FnInstruct odd = function(m, "odd");
+        assertEquals(1, LoopUnrolling.optimize(odd, 4));
+        assertEquals(7 * adds, count(odd, Operation.add_i));
+    }
+}
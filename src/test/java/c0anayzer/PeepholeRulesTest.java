@@ -0,0 +1,215 @@
+package c0anayzer;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import c0anayzer.optimizer.PeepholeRules;
+
+/**
+ * 用独立于 ConstantFolding 的求值器检查规则表中的每条规则：
+ * 浮点数按二进制表示比较，neg_f 只翻转符号位，浮点运算得到 NaN 时载荷由硬件决定，算作不能求值。
+ * 左边在所有输入上都要能求值，并且和右边的结果完全相同
+ */
+public class PeepholeRulesTest {
+    /** 输入栈的深度 */
+    private static final int INPUTS = 4;
+
+    /** 对浮点数不利的二进制表示，和整数的边界值 */
+    private static final long[] ADVERSARIAL = {
+            0, 1, -1, 2, 3, 63, 64, 65, Long.MIN_VALUE, Long.MAX_VALUE,
+            (1L << 53) + 1, -(1L << 53) - 1,
+            Double.doubleToRawLongBits(1.0), Double.doubleToRawLongBits(-1.0),
+            Double.doubleToRawLongBits(0.5), Double.doubleToRawLongBits(-2.0),
+            // 正负的最小和最大非规格化数，最小规格化数
+            0x0000000000000001L, 0x8000000000000001L, 0x000FFFFFFFFFFFFFL, 0x800FFFFFFFFFFFFFL,
+            0x0010000000000000L, 0x8010000000000000L,
+            // 最大的有限数和无穷
+            0x7FEFFFFFFFFFFFFFL, 0xFFEFFFFFFFFFFFFFL, 0x7FF0000000000000L, 0xFFF0000000000000L,
+            // 正负的 quiet / signaling NaN，带不同的载荷
+            0x7FF8000000000000L, 0xFFF8000000000000L, 0x7FF0000000000001L, 0xFFF0000000000001L,
+            0x7FF8000000000001L, 0xFFF8000000000001L, 0x7FF4000000000000L,
+    };
+
+    private static final long[] UNDEFINED = new long[0];
+
+    @Test
+    public void testEveryRuleOnAdversarialInputs() {
+        Random random = new Random(46);
+        for(String rule : PeepholeRules.RULES){
+            String[][] lhs = side(rule, 0);
+            String[][] rhs = side(rule, 1);
+            long[] in = new long[INPUTS];
+            // 栈顶三个输入取全部组合
+            for(long a : ADVERSARIAL){
+                for(long b : ADVERSARIAL){
+                    for(long c : ADVERSARIAL){
+                        in[0] = random.nextLong();
+                        in[1] = a;
+                        in[2] = b;
+                        in[3] = c;
+                        check(rule, lhs, rhs, in);
+                    }
+                }
+            }
+            for(int k=0; k<2000; k++){
+                for(int j=0; j<INPUTS; j++){
+                    in[j] = random.nextBoolean() ? ADVERSARIAL[random.nextInt(ADVERSARIAL.length)] : random.nextLong();
+                }
+                check(rule, lhs, rhs, in);
+            }
+        }
+    }
+
+    @Test
+    public void testCheckerRejectsUnsoundRules() {
+        // x = -最小非规格化数：x + 最小非规格化数 = +0.0，左边得到 1，右边得到 0
+        long[] in = {0, 0, 0, 0x8000000000000001L};
+        assertFalse(Arrays.equals(
+                run(side("push 1; add_f; not => push 0; mul_i", 0), in),
+                run(side("push 1; add_f; not => push 0; mul_i", 1), in)));
+        // neg_f 两次得到原来的二进制表示
+        in[3] = -1;
+        assertFalse(Arrays.equals(
+                run(side("push -1; neg_f; neg_f => push -1; neg_f", 0), in),
+                run(side("push -1; neg_f; neg_f => push -1; neg_f", 1), in)));
+    }
+
+    @Test
+    public void testRulesAreWellFormed() {
+        for(String rule : PeepholeRules.RULES){
+            String[][] lhs = side(rule, 0);
+            String[][] rhs = side(rule, 1);
+            if(lhs.length <= rhs.length)
+                fail("rule does not shrink: " + rule);
+            assertNotNull(run(lhs, new long[INPUTS]));
+        }
+    }
+
+    private static void check(String rule, String[][] lhs, String[][] rhs, long[] in) {
+        long[] a = run(lhs, in);
+        if(a == null || a == UNDEFINED)
+            fail(rule + ": left side undefined on " + hex(in));
+        long[] b = run(rhs, in);
+        if(b == null || b == UNDEFINED)
+            fail(rule + ": right side undefined on " + hex(in));
+        if(!Arrays.equals(a, b))
+            fail(rule + ": different results on " + hex(in));
+    }
+
+    private static String[][] side(String rule, int k) {
+        String s = rule.split("=>", -1)[k].trim();
+        if(s.isEmpty())
+            return new String[0][];
+        String[] text = s.split(";");
+        String[][] code = new String[text.length][];
+        for(int j=0; j<text.length; j++){
+            code[j] = text[j].trim().split(" ");
+        }
+        return code;
+    }
+
+    /**
+     * 在栈上放 inputs 后执行指令序列
+     * @return 执行后的栈，栈下溢时返回 null，不能求值时返回 UNDEFINED
+     */
+    private static long[] run(String[][] code, long[] inputs) {
+        long[] stack = Arrays.copyOf(inputs, inputs.length + code.length);
+        int sp = inputs.length;
+        for(String[] t : code){
+            String op = t[0];
+            if(op.equals("push")){
+                stack[sp++] = Long.parseLong(t[1]);
+                continue;
+            }
+            int pops = pops(op, t);
+            if(sp < pops)
+                return null;
+            long b = stack[sp - 1];
+            long a = pops == 2 ? stack[sp - 2] : 0;
+            if(op.equals("dup")){
+                stack[sp++] = b;
+                continue;
+            }
+            sp -= pops;
+            if(op.equals("pop") || op.equals("popn"))
+                continue;
+            Long r = pops == 2 ? binary(op, a, b) : unary(op, b);
+            if(r == null)
+                return UNDEFINED;
+            stack[sp++] = r;
+        }
+        return Arrays.copyOf(stack, sp);
+    }
+
+    private static int pops(String op, String[] t) {
+        switch (op) {
+            case "dup": case "pop": case "neg_i": case "neg_f": case "not":
+            case "set_lt": case "set_gt": case "itof":
+                return 1;
+            case "popn":
+                return Integer.parseInt(t[1]);
+            case "add_i": case "sub_i": case "mul_i": case "and": case "or": case "xor":
+            case "shl": case "shr": case "shrl": case "cmp_i": case "cmp_u":
+            case "add_f": case "sub_f": case "mul_f":
+                return 2;
+            default:
+                throw new AssertionError("unknown instruction in rule: " + op);
+        }
+    }
+
+    private static Long unary(String op, long a) {
+        switch (op) {
+            case "neg_i":
+                return -a;
+            case "neg_f":
+                return a ^ Long.MIN_VALUE;
+            case "not":
+                return a == 0 ? 1L : 0L;
+            case "set_lt":
+                return a < 0 ? 1L : 0L;
+            case "set_gt":
+                return a > 0 ? 1L : 0L;
+            default:
+                return Double.doubleToRawLongBits((double) a);
+        }
+    }
+
+    private static Long binary(String op, long a, long b) {
+        double x = Double.longBitsToDouble(a);
+        double y = Double.longBitsToDouble(b);
+        switch (op) {
+            case "add_i": return a + b;
+            case "sub_i": return a - b;
+            case "mul_i": return a * b;
+            case "and": return a & b;
+            case "or": return a | b;
+            case "xor": return a ^ b;
+            case "cmp_i": return (long) Long.compare(a, b);
+            case "cmp_u": return (long) Long.compareUnsigned(a, b);
+            case "shl": return b < 0 || b >= 64 ? null : a << b;
+            case "shr": return b < 0 || b >= 64 ? null : a >> b;
+            case "shrl": return b < 0 || b >= 64 ? null : a >>> b;
+            case "add_f": return floatBits(x + y);
+            case "sub_f": return floatBits(x - y);
+            default: return floatBits(x * y);
+        }
+    }
+
+    private static Long floatBits(double d) {
+        return Double.isNaN(d) ? null : Double.doubleToRawLongBits(d);
+    }
+
+    private static String hex(long[] in) {
+        StringBuilder sb = new StringBuilder("[");
+        for(long v : in){
+            sb.append(String.format(" %016x", v));
+        }
+        return sb.append(" ]").toString();
+    }
+}
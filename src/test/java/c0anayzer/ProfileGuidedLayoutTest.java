@@ -0,0 +1,96 @@
+package c0anayzer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Scanner;
+
+import org.junit.Test;
+
+import c0anayzer.analyser.Analyser;
+import c0anayzer.error.CompileError;
+import c0anayzer.instruction.Instruction;
+import c0anayzer.instruction.Operation;
+import c0anayzer.midcode.FnInstruct;
+import c0anayzer.midcode.MidCode;
+import c0anayzer.optimizer.Profile;
+import c0anayzer.optimizer.ProfileGuidedLayout;
+import c0anayzer.tokenizer.StringIter;
+import c0anayzer.tokenizer.Tokenizer;
+
+public class ProfileGuidedLayoutTest {
+
+    private static final String PROGRAM =
+            "fn never(a: int) -> int {\n" +
+            "    return a - 1;\n" +
+            "}\n" +
+            "fn warm(a: int) -> int {\n" +
+            "    return a * 2;\n" +
+            "}\n" +
+            "fn unknown(a: int) -> int {\n" +
+            "    return warm(a) + 1;\n" +
+            "}\n" +
+            "fn hot(a: int) -> int {\n" +
+            "    return a + 1;\n" +
+            "}\n" +
+            "fn main() -> void {\n" +
+            "    let i: int = 0;\n" +
+            "    while i < 100 {\n" +
+            "        i = hot(i);\n" +
+            "    }\n" +
+            "    if i < 0 {\n" +
+            "        putint(never(i));\n" +
+            "    }\n" +
+            "    putint(unknown(i));\n" +
+            "}\n";
+
+    private static MidCode compile(String source) throws CompileError {
+        MidCode.reset();
+        return new Analyser(new Tokenizer(new StringIter(new Scanner(source)))).analyse();
+    }
+
+    private static ArrayList<String> functionNames(MidCode m) {
+        ArrayList<String> names = new ArrayList<>();
+        for(FnInstruct f : m.fnList){
+            names.add(f.getFnName());
+        }
+        return names;
+    }
+
+    @Test
+    public void testOrderFunctionsKeepsStartLast() throws CompileError {
+        MidCode m = compile(PROGRAM);
+        IdentityHashMap<Instruction, FnInstruct> callees = new IdentityHashMap<>();
+        for(FnInstruct f : m.fnList){
+            for(Instruction i : f.getFnBody()){
+                if(i.getOpt() == Operation.call)
+                    callees.put(i, m.getFnByAddress(i.getIntX()));
+            }
+        }
+
+        // unknown 没有记录，排在调用过的函数之后、从未调用的函数之前
+        Profile profile = new Profile();
+        profile.setCalls("never", 0);
+        profile.setCalls("warm", 1);
+        profile.setCalls("hot", 100);
+        profile.setCalls("main", 1);
+        new ProfileGuidedLayout(profile).orderFunctions(m);
+
+        assertEquals(Arrays.asList("hot", "warm", "main", "unknown", "never", "_start"), functionNames(m));
+        for(Map.Entry<Instruction, FnInstruct> e : callees.entrySet()){
+            assertSame(e.getValue(), m.getFnByAddress(e.getKey().getIntX()));
+        }
+    }
+
+    @Test
+    public void testOrderFunctionsWithoutChanges() throws CompileError {
+        MidCode m = compile(PROGRAM);
+        ArrayList<String> before = functionNames(m);
+        assertEquals(0, new ProfileGuidedLayout(new Profile()).orderFunctions(m));
+        assertEquals(before, functionNames(m));
+    }
+}
@@ -0,0 +1,139 @@
+package c0anayzer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Scanner;
+
+import org.junit.Test;
+
+import c0anayzer.analyser.Analyser;
+import c0anayzer.error.CompileError;
+import c0anayzer.instruction.Instruction;
+import c0anayzer.instruction.Operation;
+import c0anayzer.midcode.FnInstruct;
+import c0anayzer.midcode.MidCode;
+import c0anayzer.optimizer.SideEffectAnalysis;
+import c0anayzer.tokenizer.StringIter;
+import c0anayzer.tokenizer.Tokenizer;
+
+public class SideEffectAnalysisTest {
+
+    /** 自己递归的函数，全局变量的读写通过调用传给调用者 */
+    private static final String RECURSIVE =
+            "let g: int = 1;\n" +
+            "fn fact(n: int) -> int {\n" +
+            "    if (n <= 1) {\n" +
+            "        return 1;\n" +
+            "    }\n" +
+            "    return n * fact(n - 1);\n" +
+            "}\n" +
+            "fn read(n: int) -> int {\n" +
+            "    if (n == 0) {\n" +
+            "        return g;\n" +
+            "    }\n" +
+            "    return read(n - 1);\n" +
+            "}\n" +
+            "fn top(n: int) -> int {\n" +
+            "    return read(n) + 1;\n" +
+            "}\n" +
+            "fn write(n: int) -> void {\n" +
+            "    g = n;\n" +
+            "}\n" +
+            "fn both(n: int) -> int {\n" +
+            "    write(n);\n" +
+            "    return top(n);\n" +
+            "}\n" +
+            "fn main() -> void {\n" +
+            "    putint(both(fact(3)));\n" +
+            "}\n";
+
+    private static MidCode compile(String source) throws CompileError {
+        MidCode.reset();
+        return new Analyser(new Tokenizer(new StringIter(new Scanner(source)))).analyse();
+    }
+
+    private static FnInstruct function(MidCode m, String name) {
+        for(FnInstruct f : m.fnList){
+            if(f.getFnName().equals(name))
+                return f;
+        }
+        throw new AssertionError("no function " + name);
+    }
+
+    private static FnInstruct define(MidCode m, String name, Instruction... body) {
+        FnInstruct f = new FnInstruct(name);
+        for(Instruction i : body){
+            f.addInstruction(i);
+        }
+        f.addInstruction(new Instruction(Operation.ret));
+        m.fnList.add(f);
+        return f;
+    }
+
+    @Test
+    public void testRecursiveProgram() throws CompileError {
+        MidCode m = compile(RECURSIVE);
+        SideEffectAnalysis a = SideEffectAnalysis.analyse(m);
+
+        // 递归的纯函数不能删掉调用，它可能不返回
+        FnInstruct fact = function(m, "fact");
+        assertEquals("pure", a.label(fact));
+        assertTrue(a.isPure(fact));
+        assertFalse(a.isRemovable(fact));
+        assertTrue(a.effects(fact).contains(SideEffectAnalysis.Effect.MAY_NOT_RETURN));
+
+        assertEquals("reads globals", a.label(function(m, "read")));
+        assertEquals("reads globals", a.label(function(m, "top")));
+        assertTrue(a.effects(function(m, "top")).contains(SideEffectAnalysis.Effect.MAY_NOT_RETURN));
+        assertEquals("writes globals", a.label(function(m, "write")));
+        assertFalse(a.readsGlobals(function(m, "write")));
+        assertFalse(a.effects(function(m, "write")).contains(SideEffectAnalysis.Effect.MAY_NOT_RETURN));
+
+        FnInstruct both = function(m, "both");
+        assertEquals("writes globals", a.label(both));
+        assertTrue(a.readsGlobals(both));
+        assertFalse(a.doesIO(both));
+        assertEquals("io", a.label(function(m, "main")));
+    }
+
+    @Test
+    public void testMutualRecursion() {
+        // C0 要求先声明后使用，互相递归的函数直接构造
+        MidCode.reset();
+        MidCode m = MidCode.getMidCode();
+        FnInstruct even = define(m, "even",
+                new Instruction(Operation.call, 2, 4));
+        FnInstruct odd = define(m, "odd",
+                new Instruction(Operation.globa, 0, 4),
+                new Instruction(Operation.load_64),
+                new Instruction(Operation.call, 1, 4));
+        FnInstruct caller = define(m, "caller",
+                new Instruction(Operation.call, 1, 4));
+        FnInstruct ping = define(m, "ping",
+                new Instruction(Operation.call, 5, 4));
+        FnInstruct pong = define(m, "pong",
+                new Instruction(Operation.globa, 0, 4),
+                new Instruction(Operation.store_64),
+                new Instruction(Operation.callname, 0, 4),
+                new Instruction(Operation.call, 4, 4));
+        FnInstruct leaf = define(m, "leaf");
+        SideEffectAnalysis a = SideEffectAnalysis.analyse(m);
+
+        // 读全局变量沿环传到 even，再传到调用 even 的函数
+        for(FnInstruct f : new FnInstruct[]{even, odd, caller}){
+            assertEquals(f.getFnName(), "reads globals", a.label(f));
+            assertFalse(f.getFnName(), a.writesGlobals(f));
+            assertTrue(f.getFnName(), a.effects(f).contains(SideEffectAnalysis.Effect.MAY_NOT_RETURN));
+            assertFalse(f.getFnName(), a.isRemovable(f));
+        }
+        for(FnInstruct f : new FnInstruct[]{ping, pong}){
+            assertEquals(f.getFnName(), "io", a.label(f));
+            assertTrue(f.getFnName(), a.writesGlobals(f));
+            assertTrue(f.getFnName(), a.effects(f).contains(SideEffectAnalysis.Effect.MAY_NOT_RETURN));
+        }
+        assertEquals("pure", a.label(leaf));
+        assertTrue(a.isRemovable(leaf));
+    }
+}
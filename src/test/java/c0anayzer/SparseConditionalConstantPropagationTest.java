@@ -0,0 +1,94 @@
+package c0anayzer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Scanner;
+
+import org.junit.Test;
+
+import c0anayzer.analyser.Analyser;
+import c0anayzer.error.CompileError;
+import c0anayzer.instruction.Instruction;
+import c0anayzer.instruction.Operation;
+import c0anayzer.midcode.FnInstruct;
+import c0anayzer.midcode.MidCode;
+import c0anayzer.optimizer.SparseConditionalConstantPropagation;
+import c0anayzer.optimizer.TailRecursion;
+import c0anayzer.tokenizer.StringIter;
+import c0anayzer.tokenizer.Tokenizer;
+
+public class SparseConditionalConstantPropagationTest {
+
+    /** 尾递归改成循环后回边跳到入口块，参数在入口处的值不是回边上的常量 */
+    private static final String TAIL_RECURSION =
+            "fn f(n: int) -> int {\n" +
+            "    let k: int = 9;\n" +
+            "    if (n == 9) {\n" +
+            "        return 100;\n" +
+            "    }\n" +
+            "    putint(n);\n" +
+            "    putln();\n" +
+            "    return f(k);\n" +
+            "}\n" +
+            "fn main() -> void {\n" +
+            "    putint(f(getint()));\n" +
+            "}\n";
+
+    private static final String CONSTANTS =
+            "fn g() -> int {\n" +
+            "    let a: int = 3;\n" +
+            "    let b: int = a * 4;\n" +
+            "    if (b > 10) {\n" +
+            "        return b + 1;\n" +
+            "    }\n" +
+            "    putint(b);\n" +
+            "    return 0;\n" +
+            "}\n" +
+            "fn main() -> void {\n" +
+            "    putint(g());\n" +
+            "}\n";
+
+    private static MidCode compile(String source) throws CompileError {
+        MidCode.reset();
+        return new Analyser(new Tokenizer(new StringIter(new Scanner(source)))).analyse();
+    }
+
+    private static int count(FnInstruct f, Operation op) {
+        int n = 0;
+        for(Instruction i : f.getFnBody()){
+            if(i.getOpt() == op)
+                n++;
+        }
+        return n;
+    }
+
+    @Test
+    public void testTailRecursionKeepsEntryValue() throws CompileError {
+        MidCode m = compile(TAIL_RECURSION);
+        FnInstruct f = m.fnList.get(0);
+        assertEquals(1, TailRecursion.optimize(m));
+        assertEquals(0, count(f, Operation.call));
+        SparseConditionalConstantPropagation.optimize(m);
+
+        // 第一次进入时 n 不一定是 9，条件和输出都要保留
+        assertEquals(1, count(f, Operation.cmp_i));
+        assertEquals(1, count(f, Operation.br_true));
+        assertEquals(2, count(f, Operation.callname));
+        assertTrue(count(f, Operation.br) > 0);
+    }
+
+    @Test
+    public void testFoldsConstantBranch() throws CompileError {
+        MidCode m = compile(CONSTANTS);
+        FnInstruct g = m.fnList.get(0);
+        assertTrue(SparseConditionalConstantPropagation.optimize(g) > 0);
+
+        // b = 12 > 10，条件跳转和不可达的输出都被删掉，返回值是常量 13
+        assertEquals(0, count(g, Operation.br_true) + count(g, Operation.br_false));
+        assertEquals(0, count(g, Operation.callname));
+        assertFalse(g.getFnBody().contains(new Instruction(Operation.mul_i)));
+        assertTrue(g.getFnBody().contains(new Instruction(Operation.push, 13L, 8)));
+    }
+}
@@ -0,0 +1,108 @@
+package c0anayzer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Scanner;
+
+import org.junit.Test;
+
+import c0anayzer.analyser.Analyser;
+import c0anayzer.error.CompileError;
+import c0anayzer.instruction.Instruction;
+import c0anayzer.instruction.Operation;
+import c0anayzer.midcode.FnInstruct;
+import c0anayzer.midcode.MidCode;
+import c0anayzer.midcode.WriteFile;
+import c0anayzer.optimizer.LoopUnrolling;
+import c0anayzer.optimizer.PassManager;
+import c0anayzer.optimizer.StackDepthAnalysis;
+import c0anayzer.tokenizer.StringIter;
+import c0anayzer.tokenizer.Tokenizer;
+
+public class StackDepthTest {
+
+    /** 在调用库函数的函数之后声明的全局变量，插入全局符号表时要修正已经生成的 callname */
+    private static final String LATE_GLOBAL =
+            "let g0: int;\n" +
+            "fn f0(a: int, b: int, c: int) -> int {\n" +
+            "    putint(a);\n" +
+            "    return a + b - c;\n" +
+            "}\n" +
+            "fn f1(p0: int) -> int {\n" +
+            "    if (f0(p0, 5, g0) > 3) {\n" +
+            "        putint(p0);\n" +
+            "        putchar(32);\n" +
+            "        putstr(\"late\");\n" +
+            "    }\n" +
+            "    return f0(p0, 1, 2);\n" +
+            "}\n" +
+            "let h1: int = (7 + (f1(g0) - g0));\n" +
+            "let h2: int = h1 + getint();\n" +
+            "fn main() -> void {\n" +
+            "    putint(f1(h2));\n" +
+            "    putln();\n" +
+            "}\n";
+
+    private static MidCode compile(String source, int level) throws CompileError {
+        MidCode.reset();
+        Tokenizer tokenizer = new Tokenizer(new StringIter(new Scanner(source)));
+        MidCode m = new Analyser(tokenizer).analyse();
+        PassManager.standard(LoopUnrolling.DEFAULT_FACTOR).run(m, level);
+        return m;
+    }
+
+    @Test
+    public void testLateDeclaredGlobal() throws CompileError {
+        for(int level : new int[]{PassManager.O0, PassManager.O1, PassManager.O2}){
+            MidCode m = compile(LATE_GLOBAL, level);
+            for(FnInstruct f : m.fnList){
+                ArrayList<Instruction> body = f.getFnBody();
+                for(int i=0; i<body.size(); i++){
+                    Instruction ins = body.get(i);
+                    if(ins.getOpt() == Operation.callname)
+                        assertTrue(f.getFnName() + " calls " + m.globalSymbol.get(ins.getIntX()),
+                                FnInstruct.libFn.containsKey(m.globalSymbol.get(ins.getIntX())));
+                    else if(m.isSymbolReference(body, i))
+                        assertEquals("late", m.globalSymbol.get(ins.getIntX()));
+                }
+            }
+            // 栈高度一致，不抛出内部错误
+            assertTrue(StackDepthAnalysis.analyse(m) > 0);
+        }
+    }
+
+    @Test
+    public void testStackDepthSection() throws CompileError, IOException {
+        MidCode m = compile(LATE_GLOBAL, PassManager.O2);
+        StackDepthAnalysis.analyse(m);
+        File plain = File.createTempFile("stkd", ".o0");
+        File extended = File.createTempFile("stkd", ".o0");
+        plain.deleteOnExit();
+        extended.deleteOnExit();
+        WriteFile.writeO0File(m, plain.getPath(), false);
+        WriteFile.writeO0File(m, extended.getPath(), true);
+        byte[] a = Files.readAllBytes(plain.toPath());
+        byte[] b = Files.readAllBytes(extended.toPath());
+
+        // 扩展段附加在原来的内容之后：标记、函数个数、按文件中的顺序（_start 在最前）每个函数的深度
+        int n = m.fnList.size();
+        assertEquals(a.length + 8 + 4 * n, b.length);
+        assertArrayEquals(a, Arrays.copyOf(b, a.length));
+        ByteBuffer section = ByteBuffer.wrap(b, a.length, 8 + 4 * n);
+        assertEquals(WriteFile.STACK_DEPTH_MAGIC, section.getInt());
+        assertEquals(n, section.getInt());
+        assertEquals(m.fnList.get(n - 1).getFnName(), "_start");
+        assertEquals(m.fnList.get(n - 1).getMaxStackDepth(), section.getInt());
+        for(int k=0; k<n-1; k++){
+            assertEquals(m.fnList.get(k).getMaxStackDepth(), section.getInt());
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package c0anayzer;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Scanner;
+
+import org.junit.Test;
+
+import c0anayzer.analyser.Analyser;
+import c0anayzer.error.CompileError;
+import c0anayzer.instruction.Instruction;
+import c0anayzer.instruction.Operation;
+import c0anayzer.midcode.FnInstruct;
+import c0anayzer.midcode.GlobalVar;
+import c0anayzer.midcode.MidCode;
+import c0anayzer.optimizer.LoopUnrolling;
+import c0anayzer.optimizer.PassManager;
+import c0anayzer.tokenizer.StringIter;
+import c0anayzer.tokenizer.Tokenizer;
+
+public class TreeShakingTest {
+
+    /** d 和 u 都没有被用到，但 d 的初始化可能除以 0 */
+    private static final String PROGRAM =
+            "let z: int = 0;\n" +
+            "let d: int = 7 / z;\n" +
+            "let u: int = 5 * z + 3;\n" +
+            "fn main() -> void {\n" +
+            "    putint(1);\n" +
+            "}\n";
+
+    private static MidCode compile(String source, int level) throws CompileError {
+        MidCode.reset();
+        MidCode m = new Analyser(new Tokenizer(new StringIter(new Scanner(source)))).analyse();
+        PassManager.standard(LoopUnrolling.DEFAULT_FACTOR).run(m, level);
+        return m;
+    }
+
+    private static boolean hasGlobal(MidCode m, String name) {
+        for(GlobalVar g : m.gdList){
+            if(g.getVarName().equals(name))
+                return true;
+        }
+        return false;
+    }
+
+    @Test
+    public void testKeepsInitializerThatMayTrap() throws CompileError {
+        for(int level : new int[]{PassManager.O1, PassManager.O2}){
+            MidCode m = compile(PROGRAM, level);
+            FnInstruct start = m.fnList.get(m.fnList.size() - 1);
+            boolean divides = false;
+            for(Instruction i : start.getFnBody()){
+                divides |= i.getOpt() == Operation.div_i;
+            }
+            assertTrue("the division in d's initializer must still run at -O" + level, divides);
+            assertTrue(hasGlobal(m, "d"));
+            assertFalse(hasGlobal(m, "u"));
+        }
+    }
+}